@@ -0,0 +1,142 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders.tasks;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares {@link RowPlan} with the per row decoding it replaced, which looked up the index
+ * of every column name in every row. Both decode the same song like cursor and must give
+ * the same rows; the time per row of each one is written to logcat with the
+ * "RowPlanBenchmark" tag.
+ *
+ * <p>Run it on a device with {@code ./gradlew connectedAndroidTest}.</p>
+ */
+@RunWith(AndroidJUnit4.class)
+public class RowPlanBenchmark {
+
+    private static final String TAG = "RowPlanBenchmark";
+
+    private static final int ROWS = 5000;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 20;
+
+    private static final String[] COLUMNS = {
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.ARTIST_ID,
+            MediaStore.Audio.Media.ARTIST,
+            MediaStore.Audio.Media.ALBUM_ID,
+            MediaStore.Audio.Media.ALBUM,
+            MediaStore.Audio.Media.IS_MUSIC,
+            MediaStore.Audio.Media.TITLE,
+            MediaStore.Audio.Media.DISPLAY_NAME,
+            MediaStore.Audio.Media.COMPOSER,
+            MediaStore.Audio.Media.YEAR,
+            MediaStore.Audio.Media.TRACK,
+            MediaStore.Audio.Media.DURATION,
+            MediaStore.Audio.Media.BOOKMARK,
+            MediaStore.Audio.Media.DATA,
+            MediaStore.Audio.Media.SIZE,
+    };
+
+    private static final String IS_MUSIC = MediaStore.Audio.Media.IS_MUSIC;
+
+    @Test
+    public void rowPlanDecodesLikeColumnLookups(){
+        Cursor cursor = songCursor();
+        RowPlan plan = new RowPlan(cursor, COLUMNS, QueryOptions.DEFAULT, IS_MUSIC);
+
+        for (int row = 0; cursor.moveToPosition(row); row++){
+            Map<String, Object> planned = new HashMap<>();
+            Map<String, Object> lookedUp = new HashMap<>();
+
+            plan.decode(cursor, planned);
+            decodeWithLookups(cursor, QueryOptions.DEFAULT, lookedUp);
+            assertEquals(lookedUp, planned);
+        }
+        cursor.close();
+    }
+
+    @Test
+    public void benchmarkRowPlanAgainstColumnLookups(){
+        Cursor cursor = songCursor();
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++){
+            withLookups(cursor);
+            withPlan(cursor);
+        }
+
+        long lookupNanos = 0;
+        long planNanos = 0;
+        for (int i = 0; i < ROUNDS; i++){
+            lookupNanos += withLookups(cursor);
+            planNanos += withPlan(cursor);
+        }
+        cursor.close();
+
+        long rows = (long) ROWS * ROUNDS;
+        Log.i(TAG, "getColumnIndex per row: " + (lookupNanos / rows) + " ns/row");
+        Log.i(TAG, "RowPlan: " + (planNanos / rows) + " ns/row");
+    }
+
+    private static long withLookups(final Cursor cursor){
+        long start = System.nanoTime();
+        for (int row = 0; cursor.moveToPosition(row); row++)
+            decodeWithLookups(cursor, QueryOptions.DEFAULT, new HashMap<String, Object>());
+
+        return System.nanoTime() - start;
+    }
+
+    private static long withPlan(final Cursor cursor){
+        long start = System.nanoTime();
+        RowPlan plan = new RowPlan(cursor, COLUMNS, QueryOptions.DEFAULT, IS_MUSIC);
+
+        for (int row = 0; cursor.moveToPosition(row); row++)
+            plan.decode(cursor, new HashMap<String, Object>());
+
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * The decoding used before RowPlan: column names, options and column indexes are
+     * looked up again for every row.
+     */
+    private static void decodeWithLookups(final Cursor cursor, final QueryOptions options,
+                                          final Map<String, Object> row){
+        for (String column : cursor.getColumnNames()){
+            if (!options.wants(column))
+                continue;
+
+            int index = cursor.getColumnIndex(column);
+            if (column.equals(IS_MUSIC))
+                row.put(column, cursor.getInt(index) != 0);
+            else if (options.isTyped(column))
+                row.put(column, cursor.isNull(index) ? null : cursor.getLong(index));
+            else
+                row.put(column, cursor.getString(index));
+        }
+    }
+
+    private static Cursor songCursor(){
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, ROWS);
+        for (int i = 0; i < ROWS; i++){
+            cursor.addRow(new Object[]{
+                    i, i % 200, "Artist " + (i % 200), i % 800, "Album " + (i % 800), 1,
+                    "Title " + i, "track_" + i + ".mp3", null, 1990 + (i % 30), i % 20,
+                    180000 + i, 0, "/sdcard/Music/track_" + i + ".mp3", 4000000 + i
+            });
+        }
+        return cursor;
+    }
+}
@@ -32,16 +32,20 @@ import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.LifecycleOwner;
 
 import boaventura.com.devel.br.flutteraudioquery.delegate.AudioQueryDelegate;
+import boaventura.com.devel.br.flutteraudioquery.executor.QueryExecutor;
+import boaventura.com.devel.br.flutteraudioquery.loaders.CursorHandles;
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
 import io.flutter.embedding.engine.plugins.lifecycle.FlutterLifecycleAdapter;
 
 import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 import io.flutter.plugin.common.MethodChannel.Result;
+import io.flutter.plugin.common.StandardMethodCodec;
 
 import io.flutter.plugin.common.PluginRegistry;
 import io.flutter.plugin.common.PluginRegistry.Registrar;
@@ -50,10 +54,13 @@ import io.flutter.plugin.common.PluginRegistry.Registrar;
 public class FlutterAudioQueryPlugin implements MethodCallHandler, FlutterPlugin, ActivityAware {
 
   private static final String CHANNEL_NAME = "boaventura.com.devel.br.flutteraudioquery";
+  private static final String STREAM_CHANNEL_NAME = CHANNEL_NAME + "/stream";
+  private static boolean m_useBackgroundTaskQueue = false;
   private AudioQueryDelegate m_delegate;
   private FlutterPluginBinding m_pluginBinding;
   private ActivityPluginBinding m_activityBinding;
   private MethodChannel channel;
+  private EventChannel streamChannel;
   private Application application;
 
 
@@ -68,6 +75,29 @@ public class FlutterAudioQueryPlugin implements MethodCallHandler, FlutterPlugin
 
   public FlutterAudioQueryPlugin(){}
 
+  /**
+   * Makes the plugin channel run its method calls in a background task queue instead of
+   * the main thread, so argument decoding and playlist writes never block the UI.
+   * It must be called before the plugin registration, like in your activity
+   * configureFlutterEngine method before GeneratedPluginRegistrant call.
+   * It requires a Flutter engine with task queues support.
+   * @param useBackgroundTaskQueue true to use a background task queue.
+   */
+  public static void setUseBackgroundTaskQueue(boolean useBackgroundTaskQueue){
+      m_useBackgroundTaskQueue = useBackgroundTaskQueue;
+  }
+
+  /**
+   * Sets the number of worker threads used by native queries. ContentResolver queries run in
+   * the I/O pool and artwork decoding runs in the CPU pool. It can be called at any time,
+   * already running queries are not affected.
+   * @param ioPoolSize worker threads for queries. Must be greater than 0.
+   * @param cpuPoolSize worker threads for artwork decoding. Must be greater than 0.
+   */
+  public static void setQueryPoolSizes(int ioPoolSize, int cpuPoolSize){
+      QueryExecutor.configure(ioPoolSize, cpuPoolSize);
+  }
+
   public static void registerWith(Registrar registrar) {
     if (registrar.activity() == null)
       return;
@@ -87,6 +117,26 @@ public class FlutterAudioQueryPlugin implements MethodCallHandler, FlutterPlugin
   @Override
   public void onMethodCall(MethodCall call, Result result) {
 
+      if ("cancel".equals(call.method)){
+          m_delegate.cancelRequest(call, result);
+          return;
+      }
+
+      if ("ackStream".equals(call.method)){
+          m_delegate.ackStream(call, result);
+          return;
+      }
+
+      if ("getWindow".equals(call.method)){
+          m_delegate.windowHandler(call, result);
+          return;
+      }
+
+      if ("releaseHandle".equals(call.method)){
+          m_delegate.releaseHandle(call, result);
+          return;
+      }
+
       String source = call.argument("source");
       if (source != null ){
 
@@ -116,6 +166,10 @@ public class FlutterAudioQueryPlugin implements MethodCallHandler, FlutterPlugin
                   m_delegate.artworkSourceHandler(call, result);
                   break;
 
+              case "batch":
+                  m_delegate.batchSourceHandler(call, result);
+                  break;
+
               default:
                   result.error("unknown_source",
                               "method call was made by an unknown source", null);
@@ -200,10 +254,31 @@ public class FlutterAudioQueryPlugin implements MethodCallHandler, FlutterPlugin
         }
 
         if (channel == null) {
-          channel = new MethodChannel(messenger, CHANNEL_NAME);
+          BinaryMessenger.TaskQueue taskQueue = null;
+
+          if (m_useBackgroundTaskQueue){
+              try {
+                  taskQueue = messenger.makeBackgroundTaskQueue();
+              }
+              catch (UnsupportedOperationException ex){
+                  Log.w("AUDIO_QUERY", "Background task queue is not supported, using main thread");
+              }
+          }
+
+          if (taskQueue != null)
+              channel = new MethodChannel(messenger, CHANNEL_NAME, StandardMethodCodec.INSTANCE, taskQueue);
+          else
+              channel = new MethodChannel(messenger, CHANNEL_NAME);
+
+          m_delegate.setBackgroundTaskQueue(taskQueue != null);
           channel.setMethodCallHandler(new FlutterAudioQueryPlugin(m_delegate));
         }
 
+        if (streamChannel == null) {
+          streamChannel = new EventChannel(messenger, STREAM_CHANNEL_NAME);
+          streamChannel.setStreamHandler(m_delegate.getStreamHandler());
+        }
+
   }
 
   private void tearDown() {
@@ -220,6 +295,11 @@ public class FlutterAudioQueryPlugin implements MethodCallHandler, FlutterPlugin
           channel.setMethodCallHandler(null);
           channel = null;
       }
+      if (streamChannel != null) {
+          streamChannel.setStreamHandler(null);
+          streamChannel = null;
+      }
+      CursorHandles.releaseAll();
       if(application != null){
           application.unregisterActivityLifecycleCallbacks(observer);
           application = null;
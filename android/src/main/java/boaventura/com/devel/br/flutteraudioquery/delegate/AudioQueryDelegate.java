@@ -9,11 +9,14 @@ import android.util.Log;
 import android.util.Size;
 
 import java.util.List;
+import java.util.Map;
 
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import boaventura.com.devel.br.flutteraudioquery.executor.QueryExecutor;
 import boaventura.com.devel.br.flutteraudioquery.loaders.AlbumLoader;
+import boaventura.com.devel.br.flutteraudioquery.loaders.CursorHandles;
 import boaventura.com.devel.br.flutteraudioquery.loaders.ArtistLoader;
 import boaventura.com.devel.br.flutteraudioquery.loaders.GenreLoader;
 import boaventura.com.devel.br.flutteraudioquery.loaders.ImageLoader;
@@ -24,6 +27,7 @@ import boaventura.com.devel.br.flutteraudioquery.sortingtypes.ArtistSortType;
 import boaventura.com.devel.br.flutteraudioquery.sortingtypes.GenreSortType;
 import boaventura.com.devel.br.flutteraudioquery.sortingtypes.PlaylistSortType;
 import boaventura.com.devel.br.flutteraudioquery.sortingtypes.SongSortType;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.PluginRegistry;
@@ -35,12 +39,13 @@ import io.flutter.view.FlutterNativeView;
 // * happens in background
 // *
 // * <p>The work flow in this class is: </p>
-// * <p>1) Verify if  already exists a call method to be executed. If there's we finish with a error if not
-// *  we go to step 2.</p>
+// * <p>1) Register the method call in the RequestMultiplexer. Every call has its own request id so
+// *  many calls can be in flight at the same time.</p>
 // *
 // *  <p>2) Verify if we have system permissions to run a specific method. If permission is granted we go
-// *  to step 3, if not, we make a system permission request and if permission is denied we finish with a
-// *  permission_denial error other way we go to step 3.</p>
+// *  to step 3, if not, the call is queued in the PermissionGate. All calls that arrive while the
+// *  permission prompt is showing wait in the same queue. If permission is denied we finish all of
+// *  them with a permission_denial error other way all of them go to step 3 at once.</p>
 // *
 // *  <p>3) After all validation process we delegate the current method call to a required Loader class
 // *  to do a hard work in background. </p>
@@ -53,17 +58,19 @@ public class AudioQueryDelegate implements PluginRegistry.RequestPermissionsResu
 
     private static AudioQueryDelegate m_instance;
 
-    private static final String ERROR_CODE_PENDING_RESULT = "pending_result";
     private static final String ERROR_CODE_PERMISSION_DENIED = "PERMISSION DENIED";
     private static final String SORT_TYPE = "sort_type";
     private static final String PLAYLIST_METHOD_TYPE = "method_type";
+    private static final String WINDOW_FROM = "from";
+    private static final String WINDOW_TO = "to";
     private static final int REQUEST_CODE_PERMISSION_READ_EXTERNAL = 0x01;
     private static final int REQUEST_CODE_PERMISSION_WRITE_EXTERNAL = 0x02;
 
-    private final PermissionManager m_permissionManager;
+    private final PermissionGate m_permissionGate;
 
-    private MethodCall m_pendingCall;
-    private MethodChannel.Result m_pendingResult;
+    private final RequestMultiplexer m_multiplexer = new RequestMultiplexer();
+    private final QueryStreams m_streams = new QueryStreams();
+    private volatile boolean m_backgroundTaskQueue = false;
 
     private final ArtistLoader m_artistLoader;
     private final AlbumLoader m_albumLoader;
@@ -96,7 +103,7 @@ public class AudioQueryDelegate implements PluginRegistry.RequestPermissionsResu
         m_playlistLoader = new PlaylistLoader( context );
         m_imageLoader = new ImageLoader(context);
 
-        m_permissionManager = new PermissionManager() {
+        m_permissionGate = new PermissionGate(new PermissionManager() {
             @Override
             public boolean isPermissionGranted(String permissionName) {
 
@@ -105,10 +112,16 @@ public class AudioQueryDelegate implements PluginRegistry.RequestPermissionsResu
             }
 
             @Override
-            public void askForPermission(String permissionName, int requestCode) {
-                ActivityCompat.requestPermissions(activity, new String[] {permissionName}, requestCode);
+            public void askForPermission(final String permissionName, final int requestCode) {
+                // calls can arrive in a background task queue thread.
+                activity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        ActivityCompat.requestPermissions(activity, new String[] {permissionName}, requestCode);
+                    }
+                });
             }
-        };
+        });
     }
 
     private AudioQueryDelegate(final PluginRegistry.Registrar registrar){
@@ -120,7 +133,7 @@ public class AudioQueryDelegate implements PluginRegistry.RequestPermissionsResu
         m_playlistLoader = new PlaylistLoader( registrar.context() );
         m_imageLoader = new ImageLoader( registrar.context()  );
 
-        m_permissionManager = new PermissionManager() {
+        m_permissionGate = new PermissionGate(new PermissionManager() {
             @Override
             public boolean isPermissionGranted(String permissionName) {
 
@@ -129,10 +142,16 @@ public class AudioQueryDelegate implements PluginRegistry.RequestPermissionsResu
             }
 
             @Override
-            public void askForPermission(String permissionName, int requestCode) {
-                ActivityCompat.requestPermissions(registrar.activity(), new String[] {permissionName}, requestCode);
+            public void askForPermission(final String permissionName, final int requestCode) {
+                final Activity activity = registrar.activity();
+                activity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        ActivityCompat.requestPermissions(activity, new String[] {permissionName}, requestCode);
+                    }
+                });
             }
-        };
+        });
 
         registrar.addRequestPermissionsResultListener(this);
         registrar.addViewDestroyListener(new PluginRegistry.ViewDestroyListener() {
@@ -146,6 +165,16 @@ public class AudioQueryDelegate implements PluginRegistry.RequestPermissionsResu
     }
 
 
+    /**
+     * Tells the delegate that method calls arrive in a background task queue and not in
+     * the main thread. In this case no work that is done in the calling thread, like playlist
+     * writes, is moved to the main thread.
+     * @param backgroundTaskQueue true if the channel uses a background task queue.
+     */
+    public void setBackgroundTaskQueue(boolean backgroundTaskQueue){
+        m_backgroundTaskQueue = backgroundTaskQueue;
+    }
+
     /**
      * Method used to handle all method calls that is about artist.
      * @param call Method call
@@ -153,19 +182,7 @@ public class AudioQueryDelegate implements PluginRegistry.RequestPermissionsResu
      */
     @Override
     public void artistSourceHandler(MethodCall call, MethodChannel.Result result){
-        if ( canIbeDependency(call, result) ){
-
-            if (m_permissionManager.isPermissionGranted(Manifest.permission.READ_EXTERNAL_STORAGE) ){
-                clearPendencies();
-                handleReadOnlyMethods(call, result);
-            }
-
-            else
-                m_permissionManager.askForPermission(Manifest.permission.READ_EXTERNAL_STORAGE,
-                        REQUEST_CODE_PERMISSION_READ_EXTERNAL);
-
-        } else finishWithAlreadyActiveError(result);
-
+        handleReadRequest(call, result);
     }
 
 
@@ -176,16 +193,7 @@ public class AudioQueryDelegate implements PluginRegistry.RequestPermissionsResu
      */
     @Override
     public void albumSourceHandler(MethodCall call, MethodChannel.Result result) {
-        if ( canIbeDependency(call, result)){
-
-            if (m_permissionManager.isPermissionGranted(Manifest.permission.READ_EXTERNAL_STORAGE) ){
-                clearPendencies();
-                handleReadOnlyMethods(call, result);
-            }
-            else
-                m_permissionManager.askForPermission(Manifest.permission.READ_EXTERNAL_STORAGE,
-                        REQUEST_CODE_PERMISSION_READ_EXTERNAL);
-        } else finishWithAlreadyActiveError(result);
+        handleReadRequest(call, result);
     }
 
     /**
@@ -195,29 +203,22 @@ public class AudioQueryDelegate implements PluginRegistry.RequestPermissionsResu
      */
     @Override
     public void songSourceHandler(MethodCall call, MethodChannel.Result result){
-        if ( canIbeDependency(call, result)){
-
-            if (m_permissionManager.isPermissionGranted(Manifest.permission.READ_EXTERNAL_STORAGE) ){
-                clearPendencies();
-                handleReadOnlyMethods(call, result);
-            }
-            else
-                m_permissionManager.askForPermission(Manifest.permission.READ_EXTERNAL_STORAGE,
-                        REQUEST_CODE_PERMISSION_READ_EXTERNAL);
-        } else finishWithAlreadyActiveError(result);
+        handleReadRequest(call, result);
     }
 
     public void artworkSourceHandler(MethodCall call, MethodChannel.Result result){
-        if ( canIbeDependency(call, result)){
+        handleReadRequest(call, result);
+    }
 
-            if (m_permissionManager.isPermissionGranted(Manifest.permission.READ_EXTERNAL_STORAGE) ){
-                clearPendencies();
-                handleReadOnlyMethods(call, result);
-            }
-            else
-                m_permissionManager.askForPermission(Manifest.permission.READ_EXTERNAL_STORAGE,
-                        REQUEST_CODE_PERMISSION_READ_EXTERNAL);
-        } else finishWithAlreadyActiveError(result);
+    /**
+     * Method used to handle batch calls, a list of read only sub queries that are
+     * answered in a single reply.
+     * @param call Method call
+     * @param result results input
+     */
+    @Override
+    public void batchSourceHandler(MethodCall call, MethodChannel.Result result){
+        handleReadRequest(call, result);
     }
 
     /**
@@ -227,19 +228,7 @@ public class AudioQueryDelegate implements PluginRegistry.RequestPermissionsResu
      */
     @Override
     public void genreSourceHandler(MethodCall call, MethodChannel.Result result){
-        if ( canIbeDependency(call, result)){
-
-            if (m_permissionManager.isPermissionGranted(Manifest.permission.READ_EXTERNAL_STORAGE) ){
-                clearPendencies();
-                handleReadOnlyMethods(call, result);
-            }
-
-            else
-                m_permissionManager.askForPermission(Manifest.permission.READ_EXTERNAL_STORAGE,
-                        REQUEST_CODE_PERMISSION_READ_EXTERNAL);
-        }
-        else
-            finishWithAlreadyActiveError(result);
+        handleReadRequest(call, result);
     }
 
     /**
@@ -254,29 +243,12 @@ public class AudioQueryDelegate implements PluginRegistry.RequestPermissionsResu
 
         switch (type){
             case READ:
-                if ( canIbeDependency(call, result)){
-
-                    if (m_permissionManager.isPermissionGranted(Manifest.permission.READ_EXTERNAL_STORAGE) ){
-                        clearPendencies();
-                        handleReadOnlyMethods(call, result);
-                    }
-                    else
-                        m_permissionManager.askForPermission(Manifest.permission.READ_EXTERNAL_STORAGE,
-                                REQUEST_CODE_PERMISSION_READ_EXTERNAL);
-                } else finishWithAlreadyActiveError(result);
+                handleReadRequest(call, result);
                 break;
 
             case WRITE:
-                if ( canIbeDependency(call, result)){
-
-                    if (m_permissionManager.isPermissionGranted(Manifest.permission.WRITE_EXTERNAL_STORAGE) ){
-                        clearPendencies();
-                        handleWriteMethods(call, result);
-                    }
-                    else
-                        m_permissionManager.askForPermission(Manifest.permission.WRITE_EXTERNAL_STORAGE,
-                                REQUEST_CODE_PERMISSION_WRITE_EXTERNAL);
-                } else finishWithAlreadyActiveError(result);
+                handleRequest(call, result, Manifest.permission.WRITE_EXTERNAL_STORAGE,
+                        REQUEST_CODE_PERMISSION_WRITE_EXTERNAL);
                 break;
 
             default:
@@ -285,6 +257,115 @@ public class AudioQueryDelegate implements PluginRegistry.RequestPermissionsResu
         }
     }
 
+    private void handleReadRequest(MethodCall call, MethodChannel.Result result){
+        handleRequest(call, result, Manifest.permission.READ_EXTERNAL_STORAGE,
+                REQUEST_CODE_PERMISSION_READ_EXTERNAL);
+    }
+
+    /**
+     * Registers the call as a new in flight request and delegates it if the required
+     * permission is granted. If it is not, the request is queued until the user answer
+     * the permission prompt.
+     * @param call method to be called.
+     * @param result results input object.
+     * @param permission The permission required by this call.
+     * @param requestCode The permission request code.
+     */
+    private void handleRequest(MethodCall call, MethodChannel.Result result,
+                               String permission, int requestCode){
+
+        RequestMultiplexer.Request request = m_multiplexer.open(call, result);
+
+        // duplicated request ids are already answered with an error.
+        if (request == null)
+            return;
+
+        if (request.getOptions().isStreaming()){
+            Integer maxPendingChunks = call.argument(QueryStreams.MAX_PENDING_CHUNKS);
+            request.setStream(m_streams.open(request, (maxPendingChunks != null) ?
+                    maxPendingChunks : QueryStreams.DEFAULT_MAX_PENDING_CHUNKS));
+        }
+
+        if (m_permissionGate.isGranted(permission))
+            dispatch(request, requestCode);
+
+        else
+            m_permissionGate.enqueue(permission, requestCode, request);
+    }
+
+    private void dispatch(RequestMultiplexer.Request request, int requestCode){
+        // it can be cancelled while waiting a permission prompt.
+        if (request.isCancelled())
+            return;
+
+        if (requestCode == REQUEST_CODE_PERMISSION_WRITE_EXTERNAL)
+            handleWriteMethods(request.getCall(), request);
+
+        else
+            handleReadOnlyMethods(request.getCall(), request);
+    }
+
+    /**
+     * Cancels an in flight request. The cancelled call finishes with a CANCELLED error and
+     * this call result is true, or false if there is no in flight request with the given id.
+     * @param call Method call with the "request_id" argument of the request to be cancelled.
+     * @param result results input
+     */
+    @Override
+    public void cancelRequest(MethodCall call, MethodChannel.Result result){
+        Object requestId = call.argument(RequestMultiplexer.REQUEST_ID);
+        String id = (requestId != null) ? String.valueOf(requestId) : null;
+        RequestMultiplexer.Request request = m_multiplexer.get(id);
+
+        // a finished streamed call can still be sending its chunks.
+        result.success( (request != null) ? request.cancel() : m_streams.cancel(id) );
+    }
+
+    /**
+     * Tells that dart has read a chunk of a streamed call, so the stream can send one more.
+     * This call result is false if there is no running stream with the given id.
+     * @param call Method call with the "request_id" argument of the streamed call.
+     * @param result results input
+     */
+    @Override
+    public void ackStream(MethodCall call, MethodChannel.Result result){
+        Object requestId = call.argument(RequestMultiplexer.REQUEST_ID);
+        result.success( m_streams.ack( (requestId != null) ? String.valueOf(requestId) : null ) );
+    }
+
+    /**
+     * Reads a window of rows of a virtual result. The call arguments are the result
+     * "handle" and the window row indexes "from", inclusive, and "to", exclusive.
+     * @param call Method call
+     * @param result results input
+     */
+    @Override
+    public void windowHandler(MethodCall call, MethodChannel.Result result){
+        Integer from = call.argument(WINDOW_FROM);
+        Integer to = call.argument(WINDOW_TO);
+
+        CursorHandles.loadWindow(result, (String) call.argument(CursorHandles.KEY_HANDLE),
+                (from != null) ? from : 0, (to != null) ? to : 0);
+    }
+
+    /**
+     * Closes a virtual result handle. This call result is false if there is no open
+     * handle with the given id.
+     * @param call Method call with the "handle" argument.
+     * @param result results input
+     */
+    @Override
+    public void releaseHandle(MethodCall call, MethodChannel.Result result){
+        result.success( CursorHandles.release((String) call.argument(CursorHandles.KEY_HANDLE)) );
+    }
+
+    /**
+     * @return The handler of the plugin event channel where streamed calls send their rows.
+     */
+    public EventChannel.StreamHandler getStreamHandler(){
+        return m_streams;
+    }
+
     /**
      * This method do the real delegate work. After all validation process this method
      * delegates the calls that are read only to a required loader class where all call happen in background.
@@ -383,6 +464,10 @@ public class AudioQueryDelegate implements PluginRegistry.RequestPermissionsResu
                 m_songLoader.getSongsFromPlaylist(result, ids);
                 break;
 
+            case "getChangesSince":
+                m_songLoader.getChangesSince(result, (String) call.argument("token"));
+                break;
+
             case "searchSongs":
                 m_songLoader.searchSongs(result, (String)call.argument("query"),
                         SongSortType.values()[ (int)call.argument(SORT_TYPE) ]);
@@ -422,12 +507,54 @@ public class AudioQueryDelegate implements PluginRegistry.RequestPermissionsResu
 
                 break;
 
+            case "batch":
+                handleBatch(call, result);
+                break;
+
             default:
                 result.notImplemented();
         }
 
     }
 
+    /**
+     * Runs all sub queries of a batch call at the same time in loaders. Each sub query is a
+     * map with "method" and "arguments" values like a regular read only method call.
+     * @param call batch method call with "queries" argument.
+     * @param result results input object.
+     */
+    private void handleBatch(MethodCall call, MethodChannel.Result result){
+        List<Map<String, Object>> queries = call.argument("queries");
+
+        if (queries == null){
+            result.error("NO_QUERIES", "There is no queries in batch call", null);
+            return;
+        }
+
+        BatchRequest batch = new BatchRequest(result, queries.size());
+
+        for (int i = 0; i < queries.size(); i++){
+            Map<String, Object> query = queries.get(i);
+            String method = (query != null) ? (String) query.get("method") : null;
+
+            if (method == null || method.equals(call.method)){
+                batch.slot(i, null).error("INVALID_QUERY", "Invalid batch sub query method: " + method, null);
+                continue;
+            }
+
+            MethodCall subCall = new MethodCall(method, query.get("arguments"));
+            MethodChannel.Result subResult = batch.slot(i, subCall);
+
+            try {
+                handleReadOnlyMethods(subCall, subResult);
+            }
+            catch (RuntimeException ex){
+                // bad arguments of a sub query must not fail the whole batch.
+                subResult.error("INVALID_QUERY", ex.getMessage(), null);
+            }
+        }
+    }
+
     /**
      * This method handle all methods calls that need write something on
      * device memory.
@@ -481,35 +608,7 @@ public class AudioQueryDelegate implements PluginRegistry.RequestPermissionsResu
         }
     }
 
-    private boolean canIbeDependency(MethodCall call, MethodChannel.Result result){
-        if ( !setPendingMethodAndCall(call, result) ){
-            return false;
-        }
-        return true;
-    }
-
-    private boolean setPendingMethodAndCall(MethodCall call, MethodChannel.Result result){
-        //There is something that needs to be delivered...
-        if (m_pendingResult != null)
-            return false;
-
-        m_pendingCall = call;
-        m_pendingResult = result;
-        return true;
-    }
-
-    private void clearPendencies(){
-        m_pendingResult = null;
-        m_pendingCall = null;
-    }
-
-    private void finishWithAlreadyActiveError(MethodChannel.Result result){
-        result.error(ERROR_CODE_PENDING_RESULT,
-                "There is some result to be delivered", null);
-    }
-
     private void finishWithError(String errorKey, String errorMsg, MethodChannel.Result result){
-        clearPendencies();
         result.error(errorKey, errorMsg, null);
     }
 
@@ -518,39 +617,56 @@ public class AudioQueryDelegate implements PluginRegistry.RequestPermissionsResu
         boolean permissionGranted = grantResults.length > 0
                 && grantResults[0] == PackageManager.PERMISSION_GRANTED;
 
+        final String errorMsg;
         switch (requestCode){
-
             case REQUEST_CODE_PERMISSION_READ_EXTERNAL:
-                if (permissionGranted){
-                    handleReadOnlyMethods(m_pendingCall, m_pendingResult);
-                    clearPendencies();
-                }
-                else {
-                    finishWithError(ERROR_CODE_PERMISSION_DENIED,
-                            "READ EXTERNAL PERMISSION DENIED", m_pendingResult);
-                }
+                errorMsg = "READ EXTERNAL PERMISSION DENIED";
                 break;
 
-
             case REQUEST_CODE_PERMISSION_WRITE_EXTERNAL:
-                if (permissionGranted){
-                    handleWriteMethods(m_pendingCall, m_pendingResult);
-                    clearPendencies();
-                }
-
-                else {
-                    finishWithError(ERROR_CODE_PERMISSION_DENIED,
-                            "WRITE EXTERNAL PERMISSION DENIED", m_pendingResult);
-                }
+                errorMsg = "WRITE EXTERNAL PERMISSION DENIED";
                 break;
 
             default:
                 return false;
         }
 
+        String permission = (permissions != null && permissions.length > 0) ? permissions[0] : null;
+        List<RequestMultiplexer.Request> requests =
+                m_permissionGate.release(requestCode, permission, permissionGranted);
+
+        if (!permissionGranted){
+            for (RequestMultiplexer.Request request : requests)
+                finishWithError(ERROR_CODE_PERMISSION_DENIED, errorMsg, request);
+        }
+
+        // write methods do their work in the calling thread so they must leave the
+        // main thread when the channel runs in a background task queue. They are
+        // dispatched in a single task to keep the arrival order.
+        else if (m_backgroundTaskQueue && requestCode == REQUEST_CODE_PERMISSION_WRITE_EXTERNAL)
+            dispatchInBackground(requests, requestCode);
+
+        // read requests only schedule loader tasks here so the whole queue
+        // is spread over the query executor workers at once.
+        else {
+            for (RequestMultiplexer.Request request : requests)
+                dispatch(request, requestCode);
+        }
+
         return true;
     }
 
+    private void dispatchInBackground(final List<RequestMultiplexer.Request> requests,
+                                      final int requestCode){
+        QueryExecutor.instance().execute(QueryExecutor.Lane.IO, new Runnable() {
+            @Override
+            public void run() {
+                for (RequestMultiplexer.Request request : requests)
+                    dispatch(request, requestCode);
+            }
+        });
+    }
+
     interface PermissionManager {
         boolean isPermissionGranted(String permissionName);
         void askForPermission(String permissionName, int requestCode);
@@ -593,4 +709,39 @@ interface AudioQueryDelegateInterface{
      * @param result
      */
     void playlistSourceHandler(MethodCall call, MethodChannel.Result result);
+
+    /**
+     * Interface method to cancel an in flight call
+     * @param call
+     * @param result
+     */
+    void cancelRequest(MethodCall call, MethodChannel.Result result);
+
+    /**
+     * Interface method to handle batch calls
+     * @param call
+     * @param result
+     */
+    void batchSourceHandler(MethodCall call, MethodChannel.Result result);
+
+    /**
+     * Interface method to acknowledge a chunk of a streamed call
+     * @param call
+     * @param result
+     */
+    void ackStream(MethodCall call, MethodChannel.Result result);
+
+    /**
+     * Interface method to read a window of a virtual result
+     * @param call
+     * @param result
+     */
+    void windowHandler(MethodCall call, MethodChannel.Result result);
+
+    /**
+     * Interface method to release a virtual result
+     * @param call
+     * @param result
+     */
+    void releaseHandle(MethodCall call, MethodChannel.Result result);
 }
\ No newline at end of file
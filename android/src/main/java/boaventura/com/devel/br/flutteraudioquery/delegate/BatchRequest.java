@@ -0,0 +1,160 @@
+package boaventura.com.devel.br.flutteraudioquery.delegate;
+
+import android.os.CancellationSignal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.CancelListeners;
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.QueryOptions;
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.QueryRequest;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * BatchRequest collects the replies of all sub queries of a "batch" call and sends
+ * them back to dart in a single reply, in the same order of the sub queries.
+ *
+ * <p>Each reply is a map with a "result" key holding the sub query data or an "error"
+ * key holding a map with "code", "message" and "details" values. A failed sub query
+ * never fails the whole batch.</p>
+ */
+class BatchRequest {
+
+    static final String KEY_RESULT = "result";
+    static final String KEY_ERROR = "error";
+
+    private final MethodChannel.Result m_result;
+    private final Object[] m_replies;
+    private final Slot[] m_slots;
+    private final AtomicInteger m_pending;
+    private final String m_batchId;
+    private final CancellationSignal m_cancellationSignal;
+
+    /**
+     * @param result The result of the batch call.
+     * @param size How many sub queries this batch has.
+     */
+    BatchRequest(final MethodChannel.Result result, final int size){
+        m_result = result;
+        m_replies = new Object[size];
+        m_slots = new Slot[size];
+        m_pending = new AtomicInteger(size);
+
+        CancellationSignal.OnCancelListener cancelSlots = new CancellationSignal.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                synchronized (m_slots){
+                    for (Slot slot : m_slots){
+                        if (slot != null)
+                            slot.m_cancellationSignal.cancel();
+                    }
+                }
+            }
+        };
+
+        // cancelling the batch cancels all its sub queries.
+        if (result instanceof QueryRequest){
+            m_batchId = ((QueryRequest) result).getRequestId();
+            m_cancellationSignal = ((QueryRequest) result).getCancellationSignal();
+            ((QueryRequest) result).addOnCancelListener(cancelSlots);
+        }
+        else {
+            m_batchId = "batch";
+            m_cancellationSignal = new CancellationSignal();
+            m_cancellationSignal.setOnCancelListener(cancelSlots);
+        }
+
+        if (size == 0)
+            m_result.success(new ArrayList<>());
+    }
+
+    /**
+     * @param index sub query index.
+     * @param call sub query call, used to read the sub query options.
+     * @return The result object for the sub query at index.
+     */
+    MethodChannel.Result slot(final int index, final MethodCall call){
+        Slot slot = new Slot(m_batchId + "#" + index, index,
+                (call != null) ? QueryOptions.from(call) : QueryOptions.DEFAULT);
+
+        synchronized (m_slots){
+            m_slots[index] = slot;
+        }
+
+        if (m_cancellationSignal.isCanceled())
+            slot.m_cancellationSignal.cancel();
+
+        return slot;
+    }
+
+    private void reply(final int index, final Object reply){
+        m_replies[index] = reply;
+
+        if (m_pending.decrementAndGet() == 0)
+            m_result.success( new ArrayList<>(Arrays.asList(m_replies)) );
+    }
+
+    private class Slot implements QueryRequest {
+        private final String m_id;
+        private final int m_index;
+        private final QueryOptions m_options;
+        private final CancellationSignal m_cancellationSignal = new CancellationSignal();
+        private final CancelListeners m_cancelListeners = new CancelListeners(m_cancellationSignal);
+        private final AtomicInteger m_replied = new AtomicInteger(0);
+
+        Slot(final String id, final int index, final QueryOptions options){
+            m_id = id;
+            m_index = index;
+            m_options = options;
+        }
+
+        @Override
+        public String getRequestId() { return m_id; }
+
+        @Override
+        public CancellationSignal getCancellationSignal() { return m_cancellationSignal; }
+
+        @Override
+        public void addOnCancelListener(final CancellationSignal.OnCancelListener listener) {
+            m_cancelListeners.add(listener);
+        }
+
+        @Override
+        public QueryOptions getOptions() { return m_options; }
+
+        @Override
+        public void success(final Object data) {
+            if (m_replied.getAndIncrement() > 0)
+                return;
+
+            Map<String, Object> reply = new HashMap<>();
+            reply.put(KEY_RESULT, data);
+            reply(m_index, reply);
+        }
+
+        @Override
+        public void error(final String errorCode, final String errorMessage, final Object errorDetails) {
+            if (m_replied.getAndIncrement() > 0)
+                return;
+
+            Map<String, Object> error = new HashMap<>();
+            error.put("code", errorCode);
+            error.put("message", errorMessage);
+            error.put("details", errorDetails);
+
+            Map<String, Object> reply = new HashMap<>();
+            reply.put(KEY_ERROR, error);
+            reply(m_index, reply);
+        }
+
+        @Override
+        public void notImplemented() {
+            error("NOT_IMPLEMENTED", "Method is not implemented", null);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package boaventura.com.devel.br.flutteraudioquery.delegate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PermissionGate holds all requests that need a permission that is not granted yet.
+ *
+ * <p>The first request that arrives for a permission shows the system prompt, every other
+ * request that arrives while the prompt is showing just waits in the same queue. When the
+ * user answers the prompt the whole queue is released at once.</p>
+ *
+ * <p>Granted permissions are cached so the system is not asked again on every call. Android
+ * kills the app process when a permission is revoked so a cached grant never gets stale.</p>
+ */
+class PermissionGate {
+
+    private final AudioQueryDelegate.PermissionManager m_permissionManager;
+    private final Set<String> m_grantedPermissions =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    // queued requests mapped by permission request code.
+    private final Map<Integer, List<RequestMultiplexer.Request>> m_queues = new HashMap<>();
+
+    PermissionGate(final AudioQueryDelegate.PermissionManager permissionManager){
+        m_permissionManager = permissionManager;
+    }
+
+    /**
+     * @param permission permission name.
+     * @return true if the permission is granted.
+     */
+    boolean isGranted(final String permission){
+        if (m_grantedPermissions.contains(permission))
+            return true;
+
+        if (m_permissionManager.isPermissionGranted(permission)){
+            m_grantedPermissions.add(permission);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Parks a request until the permission prompt result. The prompt is only shown
+     * for the first request of the queue.
+     * @param permission permission required by request.
+     * @param requestCode permission request code.
+     * @param request the request to be parked.
+     */
+    void enqueue(final String permission, final int requestCode,
+                 final RequestMultiplexer.Request request){
+        boolean showPrompt;
+
+        synchronized (m_queues){
+            List<RequestMultiplexer.Request> queue = m_queues.get(requestCode);
+            showPrompt = (queue == null);
+
+            if (showPrompt){
+                queue = new ArrayList<>();
+                m_queues.put(requestCode, queue);
+            }
+
+            queue.add(request);
+        }
+
+        if (showPrompt)
+            m_permissionManager.askForPermission(permission, requestCode);
+    }
+
+    /**
+     * Releases all requests waiting for a permission prompt.
+     * @param requestCode permission request code.
+     * @param permission permission name.
+     * @param granted true if the user granted the permission.
+     * @return All requests that were waiting this prompt, in arrival order.
+     */
+    List<RequestMultiplexer.Request> release(final int requestCode, final String permission,
+                                             final boolean granted){
+        if (granted && permission != null)
+            m_grantedPermissions.add(permission);
+
+        List<RequestMultiplexer.Request> queue;
+        synchronized (m_queues){
+            queue = m_queues.remove(requestCode);
+        }
+
+        return (queue == null) ? Collections.<RequestMultiplexer.Request>emptyList() : queue;
+    }
+}
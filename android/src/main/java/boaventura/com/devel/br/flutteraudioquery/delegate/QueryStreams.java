@@ -0,0 +1,221 @@
+package boaventura.com.devel.br.flutteraudioquery.delegate;
+
+import android.os.OperationCanceledException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import boaventura.com.devel.br.flutteraudioquery.executor.QueryExecutor;
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * QueryStreams sends the chunks of streamed query results through the plugin event channel.
+ * All streams share the channel and each event has the "stream_id" of its stream, that is
+ * the request id of the method call that started it.
+ *
+ * <p>Events are a map with a "chunk" key holding rows in the request result format, or a
+ * "done" key after the last chunk. Errors and cancellation are replied to the method call.</p>
+ *
+ * <p>Backpressure: a stream can have at most max pending chunks sent and not acknowledged
+ * by dart. When this limit is reached the sending thread waits for an acknowledge, so
+ * the cursor is not read faster than dart can handle the rows. Streamed tasks run in the
+ * {@link QueryExecutor.Lane#STREAM} lane, so waiting streams hold no IO worker. Results of
+ * loaders that don't stream are sent with the same backpressure.</p>
+ */
+class QueryStreams implements EventChannel.StreamHandler {
+
+    static final String MAX_PENDING_CHUNKS = "max_pending_chunks";
+    static final int DEFAULT_MAX_PENDING_CHUNKS = 2;
+
+    private static final String KEY_STREAM_ID = "stream_id";
+    private static final String KEY_CHUNK = "chunk";
+    private static final String KEY_DONE = "done";
+    private static final long ACK_WAIT_MILLIS = 100L;
+
+    private final Map<String, Stream> m_streams = new ConcurrentHashMap<>();
+
+    // these are used in platform thread only.
+    private EventChannel.EventSink m_events;
+    private final List<Map<String, Object>> m_pendingEvents = new ArrayList<>();
+
+    /**
+     * Starts a stream for a request.
+     * @param request The request. Its id is the stream id.
+     * @param maxPendingChunks How many chunks can be sent without dart acknowledge.
+     * @return The stream.
+     */
+    Stream open(final RequestMultiplexer.Request request, final int maxPendingChunks){
+        Stream stream = new Stream(request, Math.max(1, maxPendingChunks));
+        m_streams.put(request.getId(), stream);
+        return stream;
+    }
+
+    /**
+     * Cancels a stream that is still sending the chunks of a finished request.
+     * @param streamId stream id.
+     * @return false if there is no running stream with the given id.
+     */
+    boolean cancel(final String streamId){
+        Stream stream = (streamId == null) ? null : m_streams.get(streamId);
+        if (stream == null)
+            return false;
+
+        stream.abort();
+        return true;
+    }
+
+    /**
+     * Tells that dart has read a chunk of a stream, so one more chunk can be sent.
+     * @param streamId stream id.
+     * @return false if there is no running stream with the given id.
+     */
+    boolean ack(final String streamId){
+        Stream stream = (streamId == null) ? null : m_streams.get(streamId);
+        if (stream == null)
+            return false;
+
+        stream.m_acks.release();
+        return true;
+    }
+
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        m_events = events;
+
+        // events sent before dart started listening.
+        for (Map<String, Object> event : m_pendingEvents)
+            events.success(event);
+
+        m_pendingEvents.clear();
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        m_events = null;
+        m_pendingEvents.clear();
+
+        // no one is reading the streams anymore.
+        for (Stream stream : m_streams.values()){
+            stream.m_request.cancel();
+            stream.abort();
+        }
+    }
+
+    private void post(final Map<String, Object> event){
+        QueryExecutor.instance().postResult(new Runnable() {
+            @Override
+            public void run() {
+                if (m_events != null)
+                    m_events.success(event);
+                else
+                    m_pendingEvents.add(event);
+            }
+        });
+    }
+
+    /**
+     * A running stream.
+     */
+    class Stream {
+        private final RequestMultiplexer.Request m_request;
+        private final Semaphore m_acks;
+        private volatile boolean m_aborted = false;
+
+        private Stream(final RequestMultiplexer.Request request, final int maxPendingChunks){
+            m_request = request;
+            m_acks = new Semaphore(maxPendingChunks);
+        }
+
+        /**
+         * Sends a chunk. Called in a {@link QueryExecutor.Lane#STREAM} thread, it waits
+         * while the stream has max pending chunks.
+         * @param chunk chunk rows.
+         * @throws OperationCanceledException if the stream is cancelled while waiting.
+         */
+        void send(final Object chunk){
+            try {
+                while (!m_acks.tryAcquire(ACK_WAIT_MILLIS, TimeUnit.MILLISECONDS))
+                    throwIfAborted();
+            }
+            catch (InterruptedException ex){
+                Thread.currentThread().interrupt();
+                throw new OperationCanceledException();
+            }
+
+            throwIfAborted();
+            post(chunkEvent(chunk));
+        }
+
+        /**
+         * Finishes the stream after the last chunk. Called in platform thread.
+         * @param data Result data that was not sent as chunks yet, usually null. Lists
+         *             from loaders that don't stream are sent as chunks here, in a
+         *             {@link QueryExecutor.Lane#STREAM} thread that waits for acknowledges.
+         */
+        void finish(final Object data){
+            if (!(data instanceof List)){
+                if (data != null)
+                    post(chunkEvent(data));
+
+                done();
+                return;
+            }
+
+            final List<?> rows = (List<?>) data;
+            final int chunkSize = m_request.getOptions().getChunkSize();
+
+            QueryExecutor.instance().execute(QueryExecutor.Lane.STREAM, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int start = 0; start < rows.size(); start += chunkSize)
+                            send( new ArrayList<>( rows.subList(start,
+                                    Math.min(rows.size(), start + chunkSize)) ) );
+                    }
+                    catch (OperationCanceledException ex){
+                        return;
+                    }
+
+                    done();
+                }
+            });
+        }
+
+        /**
+         * Closes the stream without a done event, the request finished with an error or
+         * was cancelled. A thread waiting to send a chunk stops.
+         */
+        void abort(){
+            m_aborted = true;
+            m_streams.remove(m_request.getId(), this);
+        }
+
+        private void done(){
+            m_streams.remove(m_request.getId(), this);
+
+            Map<String, Object> event = new HashMap<>();
+            event.put(KEY_STREAM_ID, m_request.getId());
+            event.put(KEY_DONE, true);
+            post(event);
+        }
+
+        private void throwIfAborted(){
+            if (m_aborted)
+                throw new OperationCanceledException();
+
+            m_request.getCancellationSignal().throwIfCanceled();
+        }
+
+        private Map<String, Object> chunkEvent(final Object chunk){
+            Map<String, Object> event = new HashMap<>();
+            event.put(KEY_STREAM_ID, m_request.getId());
+            event.put(KEY_CHUNK, chunk);
+            return event;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package boaventura.com.devel.br.flutteraudioquery.delegate;
+
+import android.os.CancellationSignal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.CancelListeners;
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.ChunkSink;
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.QueryOptions;
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.QueryRequest;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * RequestMultiplexer keeps track of every method call that was accepted by the plugin and
+ * still has no reply. Each call is identified by its own request id so many calls can be
+ * in flight at the same time.
+ *
+ * <p>If the dart side sends a "request_id" argument it is used as the call id, other way
+ * an id is generated here. A call whose request id is already in flight is rejected, so
+ * each id always cancels the call it was given to.</p>
+ */
+class RequestMultiplexer {
+
+    static final String REQUEST_ID = "request_id";
+    static final String ERROR_CODE_CANCELLED = "CANCELLED";
+    static final String ERROR_CODE_DUPLICATE_REQUEST_ID = "DUPLICATE_REQUEST_ID";
+
+    private final Map<String, Request> m_requests = new ConcurrentHashMap<>();
+    private final AtomicLong m_nextId = new AtomicLong();
+
+    /**
+     * Registers a new in flight request.
+     * @param call Method call.
+     * @param result Flutter result object of this call.
+     * @return Request object that must be used as result for this call, or null if the call
+     * request id is already in flight. In this case result was already answered with
+     * {@link #ERROR_CODE_DUPLICATE_REQUEST_ID}.
+     */
+    Request open(final MethodCall call, final MethodChannel.Result result){
+        Object requestId = call.argument(REQUEST_ID);
+        String id = (requestId != null) ? String.valueOf(requestId)
+                : ("native-" + m_nextId.incrementAndGet());
+
+        Request request = new Request(id, call, result);
+        if (m_requests.putIfAbsent(id, request) != null){
+            result.error(ERROR_CODE_DUPLICATE_REQUEST_ID, "Request " + id + " is already in flight", null);
+            return null;
+        }
+        return request;
+    }
+
+    /**
+     * @param id request id.
+     * @return The in flight request with the given id or null if there is no one.
+     */
+    Request get(final String id){
+        return (id == null) ? null : m_requests.get(id);
+    }
+
+    private void close(final Request request){
+        m_requests.remove(request.getId(), request);
+    }
+
+    /**
+     * In flight request. It is the MethodChannel.Result given to loaders, the first
+     * reply closes the request and is forwarded to flutter, any further reply is ignored.
+     *
+     * <p>If the request has a stream its rows are sent as stream chunks and the call reply
+     * is null.</p>
+     */
+    class Request implements QueryRequest, ChunkSink {
+        private final String m_id;
+        private final MethodCall m_call;
+        private final MethodChannel.Result m_result;
+        private final QueryOptions m_options;
+        private final AtomicBoolean m_done = new AtomicBoolean(false);
+        private final CancellationSignal m_cancellationSignal = new CancellationSignal();
+        private final CancelListeners m_cancelListeners = new CancelListeners(m_cancellationSignal);
+        private volatile QueryStreams.Stream m_stream;
+
+        private Request(final String id, final MethodCall call, final MethodChannel.Result result){
+            m_id = id;
+            m_call = call;
+            m_result = result;
+            m_options = QueryOptions.from(call);
+        }
+
+        String getId(){ return m_id; }
+
+        @Override
+        public String getRequestId(){ return m_id; }
+
+        @Override
+        public CancellationSignal getCancellationSignal(){ return m_cancellationSignal; }
+
+        @Override
+        public void addOnCancelListener(final CancellationSignal.OnCancelListener listener){
+            m_cancelListeners.add(listener);
+        }
+
+        @Override
+        public QueryOptions getOptions(){ return m_options; }
+
+        boolean isCancelled(){ return m_cancellationSignal.isCanceled(); }
+
+        /**
+         * Cancels this request. The running queries are aborted and the dart side
+         * receives a cancelled error.
+         * @return false if this request was already done.
+         */
+        boolean cancel(){
+            if (!finish())
+                return false;
+
+            abortStream();
+            m_cancellationSignal.cancel();
+            m_result.error(ERROR_CODE_CANCELLED, "Request " + m_id + " was cancelled", null);
+            return true;
+        }
+
+        MethodCall getCall(){ return m_call; }
+
+        void setStream(final QueryStreams.Stream stream){ m_stream = stream; }
+
+        @Override
+        public void send(final Object chunk){
+            if (m_stream == null)
+                throw new IllegalStateException("Request " + m_id + " has no stream");
+
+            m_stream.send(chunk);
+        }
+
+        private boolean finish(){
+            if (!m_done.compareAndSet(false, true))
+                return false;
+
+            close(this);
+            return true;
+        }
+
+        private void abortStream(){
+            if (m_stream != null)
+                m_stream.abort();
+        }
+
+        @Override
+        public void success(final Object data) {
+            if (!finish())
+                return;
+
+            if (m_stream != null){
+                m_stream.finish(data);
+                m_result.success(null);
+            }
+            else
+                m_result.success(data);
+        }
+
+        @Override
+        public void error(final String errorCode, final String errorMessage, final Object errorDetails) {
+            if (!finish())
+                return;
+
+            abortStream();
+            m_result.error(errorCode, errorMessage, errorDetails);
+        }
+
+        @Override
+        public void notImplemented() {
+            if (!finish())
+                return;
+
+            abortStream();
+            m_result.notImplemented();
+        }
+    }
+}
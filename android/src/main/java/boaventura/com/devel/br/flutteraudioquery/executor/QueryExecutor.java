@@ -0,0 +1,169 @@
+package boaventura.com.devel.br.flutteraudioquery.executor;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * QueryExecutor is the process wide worker pool where all loader tasks run.
+ *
+ * <p>Work is split in two lanes so a long MediaStore scan can not starve
+ * the CPU bound work like artwork decoding and vice versa:</p>
+ *
+ * <p>{@link Lane#IO} for tasks that spend most of their time waiting on
+ * ContentResolver queries.</p>
+ *
+ * <p>{@link Lane#CPU} for tasks that spend most of their time in the process itself,
+ * like bitmap compression.</p>
+ *
+ * <p>{@link Lane#STREAM} for streamed queries, that wait on dart to read their chunks. Its
+ * threads are made on demand, so a paused stream never holds an IO or CPU worker.</p>
+ *
+ * <p>The IO and CPU lanes have a fixed number of worker threads. The pool sizes can be changed with
+ * {@link #configure(int, int)}. Results are always delivered on the platform (main) thread
+ * through {@link #postResult(Runnable)}.</p>
+ */
+public final class QueryExecutor {
+
+    public enum Lane { IO, CPU, STREAM }
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    public static final int DEFAULT_IO_POOL_SIZE = 4;
+    public static final int DEFAULT_CPU_POOL_SIZE = Math.max(1, Math.min(CPU_COUNT - 1, 4));
+    private static final long KEEP_ALIVE_SECONDS = 30L;
+
+    private static QueryExecutor m_instance;
+    private static int m_ioPoolSize = DEFAULT_IO_POOL_SIZE;
+    private static int m_cpuPoolSize = DEFAULT_CPU_POOL_SIZE;
+
+    private final ThreadPoolExecutor m_ioExecutor;
+    private final ThreadPoolExecutor m_cpuExecutor;
+    private final ThreadPoolExecutor m_streamExecutor;
+    private final Handler m_platformHandler;
+
+    private QueryExecutor(final int ioPoolSize, final int cpuPoolSize){
+        m_ioExecutor = createPool("audio-query-io", ioPoolSize);
+        m_cpuExecutor = createPool("audio-query-cpu", cpuPoolSize);
+        m_streamExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                new WorkerThreadFactory("audio-query-stream"));
+        m_platformHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public static synchronized QueryExecutor instance(){
+        if (m_instance == null)
+            m_instance = new QueryExecutor(m_ioPoolSize, m_cpuPoolSize);
+
+        return m_instance;
+    }
+
+    /**
+     * Sets the number of worker threads of each lane. It can be called at any time,
+     * already running tasks are not affected.
+     * @param ioPoolSize Worker threads for ContentResolver bound tasks. Must be greater than 0.
+     * @param cpuPoolSize Worker threads for CPU bound tasks. Must be greater than 0.
+     */
+    public static synchronized void configure(final int ioPoolSize, final int cpuPoolSize){
+        if (ioPoolSize < 1 || cpuPoolSize < 1)
+            throw new IllegalArgumentException("Pool sizes must be greater than 0");
+
+        m_ioPoolSize = ioPoolSize;
+        m_cpuPoolSize = cpuPoolSize;
+
+        if (m_instance != null){
+            resize(m_instance.m_ioExecutor, ioPoolSize);
+            resize(m_instance.m_cpuExecutor, cpuPoolSize);
+        }
+    }
+
+    /**
+     * Schedules a task in the desired lane.
+     * @param lane The lane where the task will run.
+     * @param task Background work.
+     */
+    public void execute(final Lane lane, final Runnable task){
+        getExecutor(lane).execute(task);
+    }
+
+    /**
+     * Posts a runnable to the platform thread. It is used to deliver results
+     * to flutter side.
+     * @param runnable Work to be done on platform thread.
+     */
+    public void postResult(final Runnable runnable){
+        m_platformHandler.post(runnable);
+    }
+
+    /**
+     * Posts a runnable to the platform thread that runs after a delay. It is used
+     * for cheap housekeeping, long work must be moved to a lane.
+     * @param runnable Work to be done on platform thread.
+     * @param delayMillis delay in milliseconds.
+     */
+    public void postDelayed(final Runnable runnable, final long delayMillis){
+        m_platformHandler.postDelayed(runnable, delayMillis);
+    }
+
+    ThreadPoolExecutor getExecutor(final Lane lane){
+        switch (lane){
+            case CPU:
+                return m_cpuExecutor;
+
+            case STREAM:
+                return m_streamExecutor;
+
+            default:
+                return m_ioExecutor;
+        }
+    }
+
+    private static void resize(final ThreadPoolExecutor executor, final int size){
+        // the maximum size must never be smaller than core size while we change both.
+        if (size > executor.getMaximumPoolSize()){
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+        }
+        else {
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
+        }
+    }
+
+    private static ThreadPoolExecutor createPool(final String name, final int size){
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new WorkerThreadFactory(name));
+
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger m_count = new AtomicInteger(1);
+        private final String m_name;
+
+        WorkerThreadFactory(final String name){
+            m_name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, m_name + "-" + m_count.getAndIncrement());
+        }
+    }
+}
@@ -3,7 +3,11 @@ package boaventura.com.devel.br.flutteraudioquery.loaders;
 import android.content.ContentResolver;
 import android.content.Context;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.AbstractLoadTask;
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.QueryOptions;
 import io.flutter.plugin.common.MethodChannel;
 
 public abstract class AbstractLoader {
@@ -11,9 +15,14 @@ public abstract class AbstractLoader {
 
     private final ContentResolver m_resolver;
     static final int QUERY_TYPE_DEFAULT = 0x00;
+    // by id queries where rows come in the same order of the ids.
+    static final int QUERY_TYPE_IDS_ORDER = 0x10;
 
     AbstractLoader(final Context context){
         m_resolver = context.getContentResolver();
+        LibraryCache.observe(context);
+        AlbumArtCache.observe(context);
+        GenreIndex.observe(context);
     }
 
     final ContentResolver getContentResolver(){ return m_resolver; }
@@ -32,6 +41,52 @@ public abstract class AbstractLoader {
     protected abstract AbstractLoadTask createLoadTask(final MethodChannel.Result result, final String selection,
                                          final String[] selectionArgs, String sortOrder, final int type );
 
+    /**
+     * @return The media tables read by queries of this loader. Cached results of this
+     * loader are dropped when any of them changes, see {@link LibraryCache}.
+     */
+    Set<LibraryCache.Table> getCacheTables(){
+        return EnumSet.allOf(LibraryCache.Table.class);
+    }
+
+    /**
+     * Creates and executes a load task for a read only query. If the query result is
+     * in {@link LibraryCache} it is answered at once. If an identical query is
+     * already running no task is created and the result will receive the data loaded by
+     * the running one. Streamed and virtual queries are never shared because their rows are
+     * sent to a single stream or read from a cursor handle of a single caller.
+     * @param result
+     * @param selection
+     * @param selectionArgs
+     * @param sortOrder
+     * @param type An integer number that can be used to identify what kind of task do you want
+     *             to create.
+     */
+    final void runQuery(final MethodChannel.Result result, final String selection,
+                        final String[] selectionArgs, final String sortOrder, final int type){
+
+        QueryOptions options = QueryOptions.of(result);
+        if (options.isStreaming() || options.isVirtual()){
+            createLoadTask(result, selection, selectionArgs, sortOrder, type).execute();
+            return;
+        }
+
+        QueryCoalescer.Key key = new QueryCoalescer.Key(getClass(), selection, selectionArgs,
+                sortOrder, type, null, options);
+
+        Object cached = LibraryCache.get(key);
+        if (cached != null){
+            result.success(cached);
+            return;
+        }
+
+        QueryCoalescer.Flight flight = QueryCoalescer.join(key, result);
+
+        if (flight != null){
+            flight.cacheAs(getCacheTables(), LibraryCache.ticket());
+            createLoadTask(flight, selection, selectionArgs, sortOrder, type).execute();
+        }
+    }
 
 
 }
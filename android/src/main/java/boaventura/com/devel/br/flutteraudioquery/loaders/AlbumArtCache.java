@@ -0,0 +1,143 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.provider.MediaStore;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * AlbumArtCache keeps the album art path of every album by album id, and a cover of every
+ * artist, the first album art of the artist in albums default order. So loaders don't query
+ * the albums table for each album or artist they show.
+ *
+ * <p>When the cache is cold all paths are loaded with a single albums query. ContentObservers
+ * on the albums and album art uris make the cache cold again when they change. A load that
+ * runs while the albums change is used by its caller but is not kept.</p>
+ */
+final class AlbumArtCache {
+
+    private static final Uri ALBUM_ART_URI = Uri.parse("content://media/external/audio/albumart");
+
+    private static final String[] PROJECTION = {
+            MediaStore.Audio.Albums._ID,
+            MediaStore.Audio.Albums.ALBUM_ART,
+            MediaStore.Audio.Albums.ARTIST
+    };
+
+    // null when the cache is cold.
+    private static Art m_art;
+    private static long m_generation = 0;
+    private static boolean m_observing = false;
+
+    private AlbumArtCache(){}
+
+    /**
+     * Registers the album observers. Only the first call does something.
+     * @param context context.
+     */
+    static synchronized void observe(final Context context){
+        if (m_observing)
+            return;
+
+        m_observing = true;
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                invalidate();
+            }
+        };
+
+        ContentResolver resolver = context.getContentResolver();
+        resolver.registerContentObserver(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI, true, observer);
+        resolver.registerContentObserver(ALBUM_ART_URI, true, observer);
+    }
+
+    static synchronized void invalidate(){
+        m_art = null;
+        m_generation++;
+    }
+
+    /**
+     * @param resolver content resolver.
+     * @param signal cancellation signal of the caller query or null.
+     * @return The art path of every album by album id. Albums without art have null path.
+     */
+    static Map<Long, String> paths(final ContentResolver resolver, final CancellationSignal signal){
+        return art(resolver, signal).m_albumPaths;
+    }
+
+    /**
+     * @param resolver content resolver.
+     * @param signal cancellation signal of the caller query or null.
+     * @return A cover art path by artist name. Artists without album art are not in the map.
+     */
+    static Map<String, String> artistCovers(final ContentResolver resolver, final CancellationSignal signal){
+        return art(resolver, signal).m_artistCovers;
+    }
+
+    private static Art art(final ContentResolver resolver, final CancellationSignal signal){
+        long generation;
+        synchronized (AlbumArtCache.class){
+            if (m_art != null)
+                return m_art;
+
+            generation = m_generation;
+        }
+
+        Art art = load(resolver, signal);
+
+        synchronized (AlbumArtCache.class){
+            if (generation == m_generation)
+                m_art = art;
+        }
+
+        return art;
+    }
+
+    private static Art load(final ContentResolver resolver, final CancellationSignal signal){
+        Map<Long, String> albumPaths = new HashMap<>();
+        Map<String, String> artistCovers = new HashMap<>();
+
+        Cursor cursor = resolver.query(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI, PROJECTION,
+                null, null, MediaStore.Audio.Albums.DEFAULT_SORT_ORDER, signal);
+
+        if (cursor != null){
+            int idIndex = cursor.getColumnIndex(PROJECTION[0]);
+            int artIndex = cursor.getColumnIndex(PROJECTION[1]);
+            int artistIndex = cursor.getColumnIndex(PROJECTION[2]);
+
+            try {
+                while (cursor.moveToNext()){
+                    String path = cursor.getString(artIndex);
+                    albumPaths.put(cursor.getLong(idIndex), path);
+
+                    String artist = cursor.getString(artistIndex);
+                    if (path != null && artist != null && !artistCovers.containsKey(artist))
+                        artistCovers.put(artist, path);
+                }
+            }
+            finally {
+                cursor.close();
+            }
+        }
+
+        return new Art(albumPaths, artistCovers);
+    }
+
+    private static final class Art {
+        private final Map<Long, String> m_albumPaths;
+        private final Map<String, String> m_artistCovers;
+
+        Art(final Map<Long, String> albumPaths, final Map<String, String> artistCovers){
+            m_albumPaths = Collections.unmodifiableMap(albumPaths);
+            m_artistCovers = Collections.unmodifiableMap(artistCovers);
+        }
+    }
+}
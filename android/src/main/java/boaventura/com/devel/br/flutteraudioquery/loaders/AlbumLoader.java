@@ -7,11 +7,15 @@ import android.provider.MediaStore;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.AbstractLoadTask;
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.RowPlan;
 import boaventura.com.devel.br.flutteraudioquery.sortingtypes.AlbumSortType;
 import io.flutter.plugin.common.MethodChannel;
 
@@ -35,14 +39,23 @@ public class AlbumLoader extends AbstractLoader {
 
     private static final String[] ALBUM_MEDIA_PROJECTION = {
             MediaStore.Audio.Media.ALBUM_ID,
-            MediaStore.Audio.Media.ALBUM,
-            MediaStore.Audio.Media.IS_MUSIC
+            MediaStore.Audio.Media.ALBUM
+    };
+
+    private static final String[] ALBUM_YEAR_PROJECTION = {
+            MediaStore.Audio.Media.ALBUM_ID,
+            MediaStore.Audio.Media.YEAR
     };
 
     public AlbumLoader(final Context context) {
         super(context);
     }
 
+    @Override
+    Set<LibraryCache.Table> getCacheTables(){
+        return EnumSet.of(LibraryCache.Table.ALBUMS, LibraryCache.Table.MEDIA, LibraryCache.Table.GENRES);
+    }
+
     /**
      * This method is used to parse AlbumSortType object into a string
      * that will be used in SQL to query data in a specific sort mode.
@@ -93,6 +106,7 @@ public class AlbumLoader extends AbstractLoader {
 
         String[] selectionArgs;
         String sortOrder = null;
+        int type = QUERY_TYPE_DEFAULT;
 
         if (ids == null || ids.isEmpty()) {
             result.error("NO_ALBUM_IDS", "No Ids was provided", null);
@@ -103,7 +117,7 @@ public class AlbumLoader extends AbstractLoader {
             selectionArgs = ids.toArray( new String[ ids.size() ]);
 
             if(sortType == AlbumSortType.CURRENT_IDs_ORDER)
-                sortOrder = prepareIDsSortOrder( ids );
+                type = QUERY_TYPE_IDS_ORDER;
         }
 
         else{
@@ -111,8 +125,8 @@ public class AlbumLoader extends AbstractLoader {
             selectionArgs = new String[]{ ids.get(0) };
         }
 
-        createLoadTask(result, MediaStore.Audio.Albums._ID, selectionArgs,
-                sortOrder, QUERY_TYPE_DEFAULT).execute();
+        runQuery(result, MediaStore.Audio.Albums._ID, selectionArgs,
+                sortOrder, type);
     }
 
     /**
@@ -121,9 +135,8 @@ public class AlbumLoader extends AbstractLoader {
      * @param sortType AlbumSortType object to define sort type for data queried.
      */
     public void getAlbums(MethodChannel.Result result, AlbumSortType sortType) {
-        createLoadTask(result, null, null,
-                parseSortOrder(sortType), QUERY_TYPE_DEFAULT)
-                .execute();
+        runQuery(result, null, null,
+                parseSortOrder(sortType), QUERY_TYPE_DEFAULT);
     }
 
     /**
@@ -134,9 +147,8 @@ public class AlbumLoader extends AbstractLoader {
      */
     public void getAlbumFromGenre(final MethodChannel.Result result, final String genre,
                                   AlbumSortType sortType) {
-        createLoadTask(result, genre, null,
-                parseSortOrder(sortType), QUERY_TYPE_GENRE_ALBUM)
-                .execute();
+        runQuery(result, genre, null,
+                parseSortOrder(sortType), QUERY_TYPE_GENRE_ALBUM);
     }
 
     /**
@@ -151,9 +163,8 @@ public class AlbumLoader extends AbstractLoader {
     public void searchAlbums(final MethodChannel.Result results, final String namedQuery,
                              AlbumSortType sortType) {
         String[] args = new String[]{namedQuery + "%"};
-        createLoadTask(results, MediaStore.Audio.AlbumColumns.ALBUM + " like ?", args,
-                parseSortOrder(sortType), QUERY_TYPE_DEFAULT)
-                .execute();
+        runQuery(results, MediaStore.Audio.AlbumColumns.ALBUM + " like ?", args,
+                parseSortOrder(sortType), QUERY_TYPE_DEFAULT);
     }
 
     /**
@@ -165,41 +176,8 @@ public class AlbumLoader extends AbstractLoader {
      * @param sortType AlbumSortType object to define sort type for data queried.
      */
     public void getAlbumsFromArtist(MethodChannel.Result result, String artistName, AlbumSortType sortType) {
-        createLoadTask(result, ALBUM_PROJECTION[3] + " = ? ",
-                new String[]{artistName}, parseSortOrder(sortType), QUERY_TYPE_ARTIST_ALBUM)
-                .execute();
-    }
-
-    /**
-     * This method creates a SQL CASE WHEN THEN in order to get specific elements
-     * where the query results is sorted matching [IDs] list values order.
-     *
-     * @param idList Song IDs list
-     * @return Sql String case when then or null if idList size is not greater then 1.
-     */
-    private String prepareIDsSortOrder(final List<String> idList){
-        if (idList.size() == 1)
-            return null;
-
-        StringBuilder orderStr = new StringBuilder("CASE ")
-                .append(MediaStore.MediaColumns._ID)
-                .append(" WHEN '")
-                .append(idList.get(0))
-                .append("'")
-                .append(" THEN 0");
-
-        for(int i = 1; i < idList.size(); i++){
-            orderStr.append(" WHEN '")
-                    .append( idList.get(i) )
-                    .append("'")
-                    .append(" THEN ")
-                    .append(i);
-        }
-
-        orderStr.append(" END, ")
-                .append(MediaStore.MediaColumns._ID)
-                .append(" ASC");
-        return orderStr.toString();
+        runQuery(result, ALBUM_PROJECTION[3] + " = ? ",
+                new String[]{artistName}, parseSortOrder(sortType), QUERY_TYPE_ARTIST_ALBUM);
     }
 
     /**
@@ -233,31 +211,13 @@ public class AlbumLoader extends AbstractLoader {
         private AlbumLoadTask(final MethodChannel.Result result, ContentResolver resolver,
                               final String selection, final String[] selectionArgs,
                               final String sortOrder, final int type) {
-            super(selection, selectionArgs, sortOrder);
+            super(result, selection, selectionArgs, sortOrder);
 
             m_result = result;
             m_resolver = resolver;
             m_queryType = type;
         }
 
-        /**
-         * Utility method do create a multiple selection argument string.
-         * By Example: "_id IN(?,?,?,?)".
-         * @param params
-         * @return String ready to multiple selection args matching.
-         */
-        private String createMultipleValueSelectionArgs( /*String column */String[] params) {
-
-            StringBuilder stringBuilder = new StringBuilder();
-            stringBuilder.append(MediaStore.Audio.Albums._ID + " IN(?");
-
-            for (int i = 0; i < (params.length - 1); i++)
-                stringBuilder.append(",?");
-
-            stringBuilder.append(')');
-            return stringBuilder.toString();
-        }
-
         @Override
         protected List<Map<String, Object>> loadData(
                 final String selection, final String[] selectionArgs,
@@ -268,31 +228,18 @@ public class AlbumLoader extends AbstractLoader {
                     // In this case the selection will be always by id.
                     // used for fetch songs for playlist or songs by id.
                     if ( (selectionArgs!=null) && (selectionArgs.length > 1) ){
-                        return basicDataLoad(
-                                createMultipleValueSelectionArgs(selection, selectionArgs),
-                                selectionArgs, sortOrder);
+                        return idsLoad(selectionArgs, sortOrder);
 
                     } else
                         return this.basicDataLoad(selection, selectionArgs, sortOrder);
 
+                case QUERY_TYPE_IDS_ORDER:
+                    return idsLoad(selectionArgs, null);
+
                 case QUERY_TYPE_GENRE_ALBUM:
-                    List<String> albumsFromGenre = getAlbumNamesFromGenre(selection);
-                    int idCount = albumsFromGenre.size();
-
-                    if (idCount > 0) {
-                        if (idCount > 1) {
-                            String[] params = albumsFromGenre.toArray(new String[idCount]);
-                            String createdSelection = createMultipleValueSelectionArgs(params);
-
-                            return basicDataLoad(createdSelection, params,
-                                    MediaStore.Audio.Albums.DEFAULT_SORT_ORDER);
-                        } else {
-                            return basicDataLoad(
-                                    MediaStore.Audio.Albums._ID + " =?",
-                                    new String[]{albumsFromGenre.get(0)},
-                                    MediaStore.Audio.Artists.DEFAULT_SORT_ORDER);
-                        }
-                    }
+                    String[] albumIds = GenreIndex.genre(m_resolver, selection, getCancellationSignal()).albumIds();
+                    if (albumIds.length > 0)
+                        return idsLoad(albumIds, MediaStore.Audio.Albums.DEFAULT_SORT_ORDER);
                     break;
 
                 case QUERY_TYPE_ARTIST_ALBUM:
@@ -307,11 +254,30 @@ public class AlbumLoader extends AbstractLoader {
 
         private List<Map<String, Object>> basicDataLoad(final String selection, final String[] selectionArgs,
                                                         final String sortOrder) {
+            final String[] projection = getOptions().projection(ALBUM_PROJECTION);
+            return readAlbums(query(m_resolver, MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI,
+                    projection, selection, selectionArgs, sortOrder), projection);
+        }
 
-            List<Map<String, Object>> dataList = new ArrayList<>();
+        /**
+         * Loads the albums whose ids are in ids. Large id lists are queried in chunks.
+         * Albums of {@link #QUERY_TYPE_IDS_ORDER} tasks come in the ids order.
+         * @param ids Album ids.
+         * @param sortOrder SQL sort order.
+         */
+        private List<Map<String, Object>> idsLoad(final String[] ids, final String sortOrder) {
+            final String[] projection = getOptions().projection(ALBUM_PROJECTION);
+            if (m_queryType == QUERY_TYPE_IDS_ORDER)
+                return readAlbums(queryInIdsOrder(m_resolver, MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI,
+                        projection, MediaStore.Audio.Albums._ID, ids), projection);
+
+            return readAlbums(queryIds(m_resolver, MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI,
+                    projection, MediaStore.Audio.Albums._ID, ids, sortOrder), projection);
+        }
 
-            Cursor cursor = m_resolver.query(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI,
-                    ALBUM_PROJECTION, selection, selectionArgs, sortOrder);
+        private List<Map<String, Object>> readAlbums(final Cursor cursor, final String[] projection) {
+
+            List<Map<String, Object>> dataList = new ArrayList<>();
 
             if (cursor != null) {
                 if (cursor.getCount() == 0) {
@@ -319,14 +285,12 @@ public class AlbumLoader extends AbstractLoader {
                     return dataList;
                 }
                 else {
-                    while ( cursor.moveToNext() ) {
+                    final RowPlan plan = createRowPlan(cursor, projection);
+
+                    while ( !isCancelled() && cursor.moveToNext() ) {
                         try {
                             Map<String, Object> dataMap = new HashMap<>();
-                            for (String albumColumn : ALBUM_PROJECTION) {
-                                String value = cursor.getString(cursor.getColumnIndex(albumColumn));
-                                dataMap.put(albumColumn, value);
-                                //Log.i(TAG, albumColumn + ": " + value);
-                            }
+                            plan.decode(cursor, dataMap);
                             dataList.add(dataMap);
                         } catch (Exception ex) {
                             Log.e("ERROR", "AlbumLoader::basicLoad", ex);
@@ -335,148 +299,163 @@ public class AlbumLoader extends AbstractLoader {
 
                     }
                 }
+                endPage(cursor);
                 cursor.close();
             }
             return dataList;
         }
 
-        private List<String> getAlbumNamesFromGenre(final String genre) {
-            List<String> albumNames = new ArrayList<>();
-
-            Cursor albumNamesCursor = m_resolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                    new String[]{"Distinct " + MediaStore.Audio.Media.ALBUM_ID, "genre_name"},
-                    "genre_name" + " =?", new String[]{genre}, null);
-
-            if (albumNamesCursor != null) {
-
-                while (albumNamesCursor.moveToNext()) {
-                    try {
-                        String albumName = albumNamesCursor.getString(albumNamesCursor.getColumnIndex(
-                                MediaStore.Audio.Media.ALBUM_ID));
-                        albumNames.add(albumName);
-                    } catch (Exception ex) {
-                        Log.e("ERROR", "AlbumLoader::getAlbumNamesFromGenre", ex);
-                    }
-
-                }
-                albumNamesCursor.close();
-
-            }
-
-            return albumNames;
-        }
-
         /**
          * This method is used to load albums from Media "Table" and not from Album "Table"
-         * as basicDataLoad do.
+         * as basicDataLoad do, so the number of songs is the number of songs of this artist
+         * in each album.
+         *
+         * <p>Artist songs are grouped by album in memory with a single media query. Album years
+         * are read with a second media query only when they are requested and album art paths
+         * come from {@link AlbumArtCache}.</p>
          *
          * @param artistName The name of the artists that we can query for albums.
          */
         private List<Map<String, Object>> loadAlbumsInfoWithMediaSupport(final String artistName) {
 
             List<Map<String, Object>> dataList = new ArrayList<>();
+            Map<Long, AlbumGroup> groups = new LinkedHashMap<>();
 
-            // we get albums from an specific artist
-            Cursor artistAlbumsCursor = m_resolver.query(
+            // we get songs from an specific artist ordered by album
+            Cursor artistSongsCursor = m_resolver.query(
                     MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
                     ALBUM_MEDIA_PROJECTION,
-                    MediaStore.Audio.Albums.ARTIST + "=?" + " and "
-                            + MediaStore.Audio.Media.IS_MUSIC + "=?"
-                            + ") GROUP BY (" + MediaStore.Audio.Albums.ALBUM,
+                    MediaStore.Audio.Media.ARTIST + "=?" + " and "
+                            + MediaStore.Audio.Media.IS_MUSIC + "=?",
                     new String[]{artistName, "1"},
-                    MediaStore.Audio.Media.DEFAULT_SORT_ORDER);
-
-            if (artistAlbumsCursor != null) {
-                while (artistAlbumsCursor.moveToNext()) {
-                    String albumId = artistAlbumsCursor.getString(
-                            artistAlbumsCursor.getColumnIndex(ALBUM_MEDIA_PROJECTION[0]));
-
-                    Cursor albumDataCursor = m_resolver.query(
-                            MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI,
-                            ALBUM_PROJECTION,
-                            MediaStore.Audio.Albums._ID + "=?",
-                            new String[]{albumId},
-                            MediaStore.Audio.Albums.DEFAULT_SORT_ORDER);
-
-                    if (albumDataCursor != null) {
-                        Cursor albumArtistSongsCountCursor =
-                                m_resolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                                        new String[]{
-                                                MediaStore.Audio.Media._ID,
-                                                MediaStore.Audio.Media.ARTIST,
-                                                MediaStore.Audio.Media.IS_MUSIC
-                                        },
-
-                                MediaStore.Audio.Artists.ARTIST + " =?" + " and " +
-                                        MediaStore.Audio.Media.ALBUM_ID + " =?" + " and " +
-                                        MediaStore.Audio.Media.IS_MUSIC + "=?",
-                                new String[]{artistName, albumId, "1"},null);
-
-                        int songsNumber = -1;
-
-                        if (albumArtistSongsCountCursor != null){
-                            songsNumber = albumArtistSongsCountCursor.getCount();
-                            albumArtistSongsCountCursor.close();
-                        }
-                        while (albumDataCursor.moveToNext()) {
-                            try {
-                                Map<String, Object> albumData = new HashMap<>();
-
-                                //MediaStore.Audio.AudioColumns._ID,
-                                albumData.put(ALBUM_PROJECTION[0], albumDataCursor.
-                                        getString(albumDataCursor.getColumnIndex(ALBUM_PROJECTION[0]) ));
-
-                                //MediaStore.Audio.AlbumColumns.ALBUM,
-                                albumData.put(ALBUM_PROJECTION[1], albumDataCursor.
-                                        getString(albumDataCursor.getColumnIndex(ALBUM_PROJECTION[1]) ) );
-
-                                //MediaStore.Audio.AlbumColumns.ALBUM_ART,
-                                albumData.put(ALBUM_PROJECTION[2], albumDataCursor.
-                                        getString(albumDataCursor.getColumnIndex(ALBUM_PROJECTION[2]) ) );
-
-                                //MediaStore.Audio.AlbumColumns.ARTIST,
-                                albumData.put(ALBUM_PROJECTION[3], artistName);
-
-                                //MediaStore.Audio.AlbumColumns.FIRST_YEAR,
-                                albumData.put(ALBUM_PROJECTION[4], albumDataCursor.
-                                        getString(albumDataCursor.getColumnIndex(ALBUM_PROJECTION[4]) ) );
-
-                                //MediaStore.Audio.AlbumColumns.LAST_YEAR,
-                                albumData.put(ALBUM_PROJECTION[5], albumDataCursor.
-                                        getString(albumDataCursor.getColumnIndex(ALBUM_PROJECTION[5]) ) );
-
-                                //MediaStore.Audio.AlbumColumns.NUMBER_OF_SONGS
-                                albumData.put(ALBUM_PROJECTION[6], String.valueOf(songsNumber) );
-
-                                /*for(int i = 0; i < ALBUM_PROJECTION.length -1; i++)
-                                    albumData.put(ALBUM_PROJECTION[i], albumDataCursor.
-                                            getString(albumDataCursor.getColumnIndex(ALBUM_PROJECTION[i])));
-
-                                albumData.put(ALBUM_PROJECTION[ALBUM_PROJECTION.length-1],
-                                        String.valueOf(songsNumber));
-                               */
-                                dataList.add(albumData);
-                            }
-
-                            catch (Exception ex) {
-                                //TODO should I exit with results.error() here??
-                                // think about it...
-                                Log.e("ERROR", "AlbumLoader::loadAlbumsInfoWithMediaSupport", ex);
-                            }
-                        }
-                        albumDataCursor.close();
-                    }
+                    MediaStore.Audio.Media.ALBUM_KEY, getCancellationSignal());
+
+            if (artistSongsCursor == null)
+                return dataList;
+
+            int idIndex = artistSongsCursor.getColumnIndex(ALBUM_MEDIA_PROJECTION[0]);
+            int albumIndex = artistSongsCursor.getColumnIndex(ALBUM_MEDIA_PROJECTION[1]);
+
+            while ( !isCancelled() && artistSongsCursor.moveToNext() ) {
+                long albumId = artistSongsCursor.getLong(idIndex);
+                AlbumGroup group = groups.get(albumId);
+
+                if (group == null) {
+                    group = new AlbumGroup(artistSongsCursor.getString(albumIndex));
+                    groups.put(albumId, group);
                 }
-                artistAlbumsCursor.close();
+                group.m_songs++;
             }
+            artistSongsCursor.close();
+
+            if (groups.isEmpty() || isCancelled())
+                return dataList;
+
+            if (getOptions().wants(ALBUM_PROJECTION[4]) || getOptions().wants(ALBUM_PROJECTION[5]))
+                loadAlbumYears(groups);
+
+            final Map<Long, String> artPaths = getOptions().wants(ALBUM_PROJECTION[2]) ?
+                    AlbumArtCache.paths(m_resolver, getCancellationSignal()) : null;
+
+            for (Map.Entry<Long, AlbumGroup> entry : groups.entrySet()) {
+                AlbumGroup group = entry.getValue();
+                Map<String, Object> albumData = new HashMap<>();
+
+                //MediaStore.Audio.AudioColumns._ID,
+                if (getOptions().wants(ALBUM_PROJECTION[0]))
+                    albumData.put(ALBUM_PROJECTION[0], numberValue(ALBUM_PROJECTION[0], entry.getKey()));
+
+                //MediaStore.Audio.AlbumColumns.ALBUM,
+                if (getOptions().wants(ALBUM_PROJECTION[1]))
+                    albumData.put(ALBUM_PROJECTION[1], group.m_name);
+
+                //MediaStore.Audio.AlbumColumns.ALBUM_ART,
+                if (artPaths != null)
+                    albumData.put(ALBUM_PROJECTION[2], artPaths.get(entry.getKey()));
+
+                //MediaStore.Audio.AlbumColumns.ARTIST,
+                if (getOptions().wants(ALBUM_PROJECTION[3]))
+                    albumData.put(ALBUM_PROJECTION[3], artistName);
+
+                //MediaStore.Audio.AlbumColumns.FIRST_YEAR,
+                if (getOptions().wants(ALBUM_PROJECTION[4]))
+                    albumData.put(ALBUM_PROJECTION[4], (group.m_firstYear == 0) ? null :
+                            numberValue(ALBUM_PROJECTION[4], group.m_firstYear));
+
+                //MediaStore.Audio.AlbumColumns.LAST_YEAR,
+                if (getOptions().wants(ALBUM_PROJECTION[5]))
+                    albumData.put(ALBUM_PROJECTION[5], (group.m_lastYear == 0) ? null :
+                            numberValue(ALBUM_PROJECTION[5], group.m_lastYear));
+
+                //MediaStore.Audio.AlbumColumns.NUMBER_OF_SONGS
+                if (getOptions().wants(ALBUM_PROJECTION[6]))
+                    albumData.put(ALBUM_PROJECTION[6], numberValue(ALBUM_PROJECTION[6], group.m_songs));
+
+                dataList.add(albumData);
+            }
+
             return dataList;
         }
 
+        /**
+         * Reads the first and last year of every album in groups, counting all songs
+         * of the album and not only the songs of the artist, as the albums table does.
+         * Artists with many albums are queried in album id chunks.
+         * @param groups Album groups by album id.
+         */
+        private void loadAlbumYears(final Map<Long, AlbumGroup> groups){
+            String[] params = new String[groups.size()];
+            int i = 0;
+            for (Long albumId : groups.keySet())
+                params[i++] = String.valueOf(albumId);
+
+            Cursor yearCursor = queryAllIds(m_resolver, MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                    ALBUM_YEAR_PROJECTION, MediaStore.Audio.Media.ALBUM_ID, params);
+
+            if (yearCursor == null)
+                return;
+
+            int idIndex = yearCursor.getColumnIndex(ALBUM_YEAR_PROJECTION[0]);
+            int yearIndex = yearCursor.getColumnIndex(ALBUM_YEAR_PROJECTION[1]);
+
+            while ( !isCancelled() && yearCursor.moveToNext() ) {
+                AlbumGroup group = groups.get(yearCursor.getLong(idIndex));
+                long year = yearCursor.getLong(yearIndex);
+
+                if (group == null || year <= 0)
+                    continue;
+
+                if (group.m_firstYear == 0 || year < group.m_firstYear)
+                    group.m_firstYear = year;
+                if (year > group.m_lastYear)
+                    group.m_lastYear = year;
+            }
+            yearCursor.close();
+        }
+
+        private Object numberValue(final String column, final long value){
+            return getOptions().isTyped(column) ? (Object) value : String.valueOf(value);
+        }
+
+        /**
+         * Album data of the artist songs in a single album.
+         */
+        private static final class AlbumGroup {
+            private final String m_name;
+            private long m_songs = 0;
+            private long m_firstYear = 0;
+            private long m_lastYear = 0;
+
+            AlbumGroup(final String name){
+                m_name = name;
+            }
+        }
+
         @Override
         protected void onPostExecute(List<Map<String, Object>> data) {
             super.onPostExecute(data);
             m_resolver = null;
-            m_result.success(data);
+            m_result.success(pageResult(data));
             m_result = null;
         }
 
@@ -7,11 +7,14 @@ import android.provider.MediaStore;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.AbstractLoadTask;
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.RowPlan;
 import boaventura.com.devel.br.flutteraudioquery.sortingtypes.ArtistSortType;
 import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodChannel;
@@ -22,6 +25,8 @@ import io.flutter.plugin.common.MethodChannel;
 public class ArtistLoader extends AbstractLoader {
 
     private static final int QUERY_TYPE_GENRE_ARTISTS = 0x01;
+    // album artwork path used as artist cover, it is not an artist column.
+    private static final String FIELD_ARTIST_COVER = "artist_cover";
     //private static final int QUERY_TYPE_SEARCH_BY_NAME = 0x02;
 
     private static final String[] PROJECTION = new String[]{
@@ -33,30 +38,12 @@ public class ArtistLoader extends AbstractLoader {
 
     public ArtistLoader(final Context context) {
         super(context);
+    }
 
-        /*
-        getContentResolver().registerContentObserver(
-                MediaStore.Audio.Artists.EXTERNAL_CONTENT_URI,
-                false,
-                new ContentObserver(null){
-                    @Override
-                    public boolean deliverSelfNotifications() {
-                        return super.deliverSelfNotifications();
-                    }
-
-                    @Override
-                    public void onChange(boolean selfChange) {
-                        super.onChange(selfChange);
-                        Log.i("MDBG", "onChange(self) in ArtistLoaderObserver");
-                    }
-
-                    @Override
-                    public void onChange(boolean selfChange, Uri uri) {
-                        super.onChange(selfChange, uri);
-                        Log.i("MDBG", "onChange(self,uri) in ArtistLoaderObserver Uri: " + uri);
-                    }
-                }
-        );*/
+    @Override
+    Set<LibraryCache.Table> getCacheTables(){
+        return EnumSet.of(LibraryCache.Table.ARTISTS, LibraryCache.Table.ALBUMS,
+                LibraryCache.Table.MEDIA, LibraryCache.Table.GENRES);
     }
 
     /**
@@ -101,8 +88,8 @@ public class ArtistLoader extends AbstractLoader {
      */
     public void getArtists(final MethodChannel.Result result, ArtistSortType sortType) {
 
-        createLoadTask(result, null, null,
-                parseSortOrder(sortType), QUERY_TYPE_DEFAULT).execute();
+        runQuery(result, null, null,
+                parseSortOrder(sortType), QUERY_TYPE_DEFAULT);
     }
 
     /**
@@ -115,6 +102,7 @@ public class ArtistLoader extends AbstractLoader {
                                ArtistSortType sortType){
         String[] selectionArgs;
         String sortOrder = null;
+        int type = QUERY_TYPE_DEFAULT;
         String selection = MediaStore.Audio.Artists._ID;
 
         if (ids == null || ids.isEmpty()) {
@@ -126,7 +114,7 @@ public class ArtistLoader extends AbstractLoader {
             selectionArgs = ids.toArray( new String[ ids.size() ]);
 
             if(sortType == ArtistSortType.CURRENT_IDs_ORDER)
-                sortOrder = prepareIDsSortOrder( ids );
+                type = QUERY_TYPE_IDS_ORDER;
         }
 
         else{
@@ -135,8 +123,8 @@ public class ArtistLoader extends AbstractLoader {
             selectionArgs = new String[]{ ids.get(0) };
         }
 
-        createLoadTask(result, selection, selectionArgs,
-                sortOrder, QUERY_TYPE_DEFAULT).execute();
+        runQuery(result, selection, selectionArgs,
+                sortOrder, type);
     }
     /**
      * This method makes a query that search artists by names with
@@ -151,9 +139,9 @@ public class ArtistLoader extends AbstractLoader {
                              final String nameQuery, ArtistSortType sortType ){
 
         String args = /*"%" +*/ nameQuery + "%";
-        createLoadTask(result, MediaStore.Audio.Artists.ARTIST +
+        runQuery(result, MediaStore.Audio.Artists.ARTIST +
                         " like ?", new String[]{args},
-                parseSortOrder(sortType), QUERY_TYPE_DEFAULT).execute();
+                parseSortOrder(sortType), QUERY_TYPE_DEFAULT);
 
     }
 
@@ -165,8 +153,8 @@ public class ArtistLoader extends AbstractLoader {
      */
     public void getArtistsFromGenre(final MethodChannel.Result result, final String genreName,
                                     ArtistSortType sortType) {
-        createLoadTask(result, genreName, null,
-                parseSortOrder(sortType), QUERY_TYPE_GENRE_ARTISTS).execute();
+        runQuery(result, genreName, null,
+                parseSortOrder(sortType), QUERY_TYPE_GENRE_ARTISTS);
     }
 
     /**
@@ -196,38 +184,6 @@ public class ArtistLoader extends AbstractLoader {
     }*/
 
 
-    /**
-     * This method creates a SQL CASE WHEN THEN in order to get specific elements
-     * where the query results is sorted matching [IDs] list values order.
-     *
-     * @param idList Song IDs list
-     * @return Sql String case when then or null if idList size is not greater then 1.
-     */
-    private String prepareIDsSortOrder(final List<String> idList){
-        if (idList.size() == 1)
-            return null;
-
-        StringBuilder orderStr = new StringBuilder("CASE ")
-                .append(MediaStore.MediaColumns._ID)
-                .append(" WHEN '")
-                .append(idList.get(0))
-                .append("'")
-                .append(" THEN 0");
-
-        for(int i = 1; i < idList.size(); i++){
-            orderStr.append(" WHEN '")
-                    .append( idList.get(i) )
-                    .append("'")
-                    .append(" THEN ")
-                    .append(i);
-        }
-
-        orderStr.append(" END, ")
-                .append(MediaStore.MediaColumns._ID)
-                .append(" ASC");
-        return orderStr.toString();
-    }
-
     static class ArtistLoadTask extends AbstractLoadTask<List<Map<String, Object>>> {
         private ContentResolver m_resolver;
         private MethodChannel.Result m_result;
@@ -236,7 +192,7 @@ public class ArtistLoader extends AbstractLoader {
 
         ArtistLoadTask(final MethodChannel.Result result, final ContentResolver resolver, final String selection,
                        final String[] selectionArgs, final String sortOrder, final int type) {
-            super(selection, selectionArgs, sortOrder);
+            super(result, selection, selectionArgs, sortOrder);
 
             m_resolver = resolver;
             m_result = result;
@@ -246,7 +202,7 @@ public class ArtistLoader extends AbstractLoader {
         @Override
         protected void onPostExecute(List<Map<String, Object>> maps) {
             super.onPostExecute(maps);
-            m_result.success(maps);
+            m_result.success(pageResult(maps));
             m_result = null;
             m_resolver = null;
         }
@@ -267,51 +223,48 @@ public class ArtistLoader extends AbstractLoader {
 
             switch (m_queryType) {
                 case ArtistLoader.QUERY_TYPE_DEFAULT:
+                    // more than one arg only happens when artists are fetched by id.
+                    if ( (selectionArgs != null) && (selectionArgs.length > 1) )
+                        return idsLoad(selectionArgs, sortOrder);
+
                     return basicDataLoad(selection, selectionArgs, sortOrder);
 
 
+                case ArtistLoader.QUERY_TYPE_IDS_ORDER:
+                    return idsLoad(selectionArgs, null);
+
                 case ArtistLoader.QUERY_TYPE_GENRE_ARTISTS:
                     /// in this case the genre name comes from selection param
-                    List<String> artistIds = loadArtistIdsGenre(selection);
-                    int idCount = artistIds.size();
-
-                    if (idCount > 0) {
-                        if (idCount > 1) {
-                            String[] args = artistIds.toArray(new String[idCount]);
-
-                            String createdSelection = createMultipleValueSelectionArgs(
-                                    MediaStore.Audio.Artists._ID, args);
-
-                            return basicDataLoad(createdSelection, args,
-                                    MediaStore.Audio.Artists.DEFAULT_SORT_ORDER);
-                        } else {
-                            return basicDataLoad(
-                                    MediaStore.Audio.Artists._ID + " =?",
-                                    new String[]{artistIds.get(0)},
-                                    MediaStore.Audio.Artists.DEFAULT_SORT_ORDER);
-                        }
-                    }
+                    String[] artistIds = GenreIndex.genre(m_resolver, selection, getCancellationSignal()).artistIds();
+                    if (artistIds.length > 0)
+                        return idsLoad(artistIds, MediaStore.Audio.Artists.DEFAULT_SORT_ORDER);
+
                     return new ArrayList<>();
             }
 
             Cursor artistCursor = m_resolver.query(
                     MediaStore.Audio.Artists.EXTERNAL_CONTENT_URI,
-                    ArtistLoader.PROJECTION,
-                    selection, selectionArgs, sortOrder);
+                    getOptions().projection(ArtistLoader.PROJECTION,
+                            getOptions().wants(FIELD_ARTIST_COVER) ? PROJECTION[1] : null),
+                    selection, selectionArgs, sortOrder, getCancellationSignal());
 
             List<Map<String, Object>> list = new ArrayList<>();
             if (artistCursor != null) {
+                final RowPlan plan = createRowPlan(artistCursor, PROJECTION);
+                final boolean wantsCover = getOptions().wants(FIELD_ARTIST_COVER);
+                final int nameIndex = artistCursor.getColumnIndex(PROJECTION[1]);
+                final Map<String, String> covers = wantsCover ?
+                        AlbumArtCache.artistCovers(m_resolver, getCancellationSignal()) : null;
 
-                while (artistCursor.moveToNext()) {
+                while ( !isCancelled() && artistCursor.moveToNext() ) {
                     try {
                         Map<String, Object> map = new HashMap<>();
-                        for (String artistColumn : PROJECTION) {
-                            String data = artistCursor.getString(artistCursor.getColumnIndex(artistColumn));
-                            map.put(artistColumn, data);
-                        }
+                        plan.decode(artistCursor, map);
+
                         // some album artwork of this artist that can be used
                         // as artist cover picture if there is one.
-                        map.put("artist_cover", getArtistArtPath((String) map.get(PROJECTION[1])));
+                        if (wantsCover)
+                            map.put(FIELD_ARTIST_COVER, covers.get(artistCursor.getString(nameIndex)));
                         list.add(map);
                     }
                     catch (Exception ex) {
@@ -336,118 +289,70 @@ public class ArtistLoader extends AbstractLoader {
          */
         private List<Map<String, Object>> basicDataLoad(
                 final String selection, final String[] selectionArgs, final String sortOrder) {
-            Cursor artistCursor = m_resolver.query(
+            Cursor artistCursor = query(m_resolver,
                     MediaStore.Audio.Artists.EXTERNAL_CONTENT_URI,
-                    ArtistLoader.PROJECTION,
+                    artistProjection(),
                     /*where clause*/selection,
                     /*where clause arguments */selectionArgs,
                     sortOrder);
 
-            List<Map<String, Object>> list = new ArrayList<>();
-            if (artistCursor != null) {
-
-                while (artistCursor.moveToNext()) {
-                    try {
-                        Map<String, Object> map = new HashMap<>();
-                        for (String artistColumn : PROJECTION) {
-                            String data = artistCursor.getString(artistCursor.getColumnIndex(artistColumn));
-                            map.put(artistColumn, data);
-                        }
-                        // some album artwork of this artist that can be used
-                        // as artist cover picture if there is one.
-                        map.put("artist_cover", getArtistArtPath((String) map.get(PROJECTION[1])));
-                        //Log.i("MDGB", "getting: " +  (String) map.get(MediaStore.Audio.Media.ARTIST));
-                        list.add(map);
-                    }
-                    catch (Exception ex) {
-                        Log.e(TAG_ERROR, ex.getMessage());
-                    }
-
-                }
-                artistCursor.close();
-            }
-
-            return list;
+            return readArtists(artistCursor);
         }
 
         /**
-         * Method used to get some album artwork image path from an specific artist
-         * and this image can be used as artist cover.
+         * This method makes the query for artists whose ids are in ids.
+         * Large id lists are queried in chunks. Artists of {@link ArtistLoader#QUERY_TYPE_IDS_ORDER}
+         * tasks come in the ids order.
          *
-         * @param artistName name of artist
-         * @return Path String from some album from artist or null if there is no one.
+         * @param ids Artist ids.
+         * @param sortOrder SQL sort order.
+         * @return List<Map<String, Object>> with the query results.
          */
-        private String getArtistArtPath(String artistName) {
-            String artworkPath = null;
-
-            Cursor artworkCursor = m_resolver.query(
-                    MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI,
-                    new String[]{
-                            MediaStore.Audio.AlbumColumns.ALBUM_ART,
-                            MediaStore.Audio.AlbumColumns.ARTIST
-                    },
-
-                    MediaStore.Audio.AlbumColumns.ARTIST + "=?",
-                    new String[]{artistName},
-                    MediaStore.Audio.Albums.DEFAULT_SORT_ORDER);
-
-            if (artworkCursor != null) {
-                //Log.i(TAG, "total paths " + artworkCursor.getCount());
-                    while (artworkCursor.moveToNext()) {
-                        try {
-                            artworkPath = artworkCursor.getString(
-                                    artworkCursor.getColumnIndex(MediaStore.Audio.Albums.ALBUM_ART)
-                            );
-
-                            // breaks in first valid path founded.
-                            if (artworkPath != null)
-                                break;
-                        }
-                        catch (Exception ex) {
-                            Log.e(TAG_ERROR, ex.getMessage());
-                        }
-                    }
-                //Log.i(TAG, "found path: " + artworkPath );
-                artworkCursor.close();
-            }
+        private List<Map<String, Object>> idsLoad(final String[] ids, final String sortOrder) {
+            if (m_queryType == ArtistLoader.QUERY_TYPE_IDS_ORDER)
+                return readArtists(queryInIdsOrder(m_resolver, MediaStore.Audio.Artists.EXTERNAL_CONTENT_URI,
+                        artistProjection(), MediaStore.Audio.Artists._ID, ids));
 
-            return artworkPath;
+            return readArtists(queryIds(m_resolver, MediaStore.Audio.Artists.EXTERNAL_CONTENT_URI,
+                    artistProjection(), MediaStore.Audio.Artists._ID, ids, sortOrder));
         }
 
-        /**
-         * This methods query artist Id's filtered by a specific genre
-         * in Media "TABLE".
-         *
-         * @param genreName genre name to filter artists.
-         * @return List of strings with artist Id's
-         */
-        private List<String> loadArtistIdsGenre(final String genreName) {
-            //Log.i("MDBG",  "Genero: " + genreName +" Artistas: ");
-            List<String> artistsIds = new ArrayList<>();
-
-            Cursor artistNamesCursor = m_resolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                    new String[]{"Distinct " + MediaStore.Audio.Media.ARTIST_ID, "genre_name"},
-                    "genre_name" + " =?", new String[]{genreName}, null);
+        private String[] artistProjection(){
+            return getOptions().projection(ArtistLoader.PROJECTION,
+                    getOptions().wants(FIELD_ARTIST_COVER) ? PROJECTION[1] : null);
+        }
 
-            if (artistNamesCursor != null) {
+        private List<Map<String, Object>> readArtists(final Cursor artistCursor) {
+            List<Map<String, Object>> list = new ArrayList<>();
+            if (artistCursor != null) {
+                final RowPlan plan = createRowPlan(artistCursor, PROJECTION);
+                final boolean wantsCover = getOptions().wants(FIELD_ARTIST_COVER);
+                final int nameIndex = artistCursor.getColumnIndex(PROJECTION[1]);
+                final Map<String, String> covers = wantsCover ?
+                        AlbumArtCache.artistCovers(m_resolver, getCancellationSignal()) : null;
 
-                while (artistNamesCursor.moveToNext()) {
+                while ( !isCancelled() && artistCursor.moveToNext() ) {
                     try {
-                        String artistName = artistNamesCursor.getString(artistNamesCursor.getColumnIndex(
-                                MediaStore.Audio.Media.ARTIST_ID));
+                        Map<String, Object> map = new HashMap<>();
+                        plan.decode(artistCursor, map);
 
-                        artistsIds.add(artistName);
+                        // some album artwork of this artist that can be used
+                        // as artist cover picture if there is one.
+                        if (wantsCover)
+                            map.put(FIELD_ARTIST_COVER, covers.get(artistCursor.getString(nameIndex)));
+                        //Log.i("MDGB", "getting: " +  (String) map.get(MediaStore.Audio.Media.ARTIST));
+                        list.add(map);
                     }
                     catch (Exception ex) {
                         Log.e(TAG_ERROR, ex.getMessage());
                     }
-                }
-
 
-                artistNamesCursor.close();
+                }
+                endPage(artistCursor);
+                artistCursor.close();
             }
 
-            return artistsIds;
+            return list;
         }
 
     }
@@ -0,0 +1,315 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.provider.MediaStore;
+import android.util.Base64;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * ChangeSnapshot is the media table state a change token was made from. It is used to
+ * tell which songs were inserted, updated or deleted since a token.
+ *
+ * <p>On API 30 and newer changed rows are found by the media store generation and rows
+ * added after the snapshot generation are the inserted ones. On older APIs changed rows are
+ * found by modification date and by ids greater than the greatest snapshot id, and rows
+ * whose id is not in the snapshot are the inserted ones. Deleted rows are found comparing
+ * the song ids of the snapshot with the current ones.</p>
+ *
+ * <p>The token has the media store version, the change mark and the name of a file where
+ * the snapshot ids are saved. Only the last {@link #MAX_SNAPSHOTS} snapshot files are kept,
+ * an older token is handled like no token.</p>
+ */
+final class ChangeSnapshot {
+
+    static final String KEY_TOKEN = "token";
+    static final String KEY_RESET = "reset";
+    static final String KEY_INSERTED = "inserted";
+    static final String KEY_UPDATED = "updated";
+    static final String KEY_DELETED = "deleted";
+
+    private static final String TAG = "ChangeSnapshot";
+    private static final int TOKEN_VERSION = 1;
+    private static final String DIR_NAME = "flutter_audio_query_changes";
+    static final int MAX_SNAPSHOTS = 4;
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile("^[0-9a-f]+-[0-9]+$");
+
+    private static final AtomicLong m_nextId = new AtomicLong();
+
+    private final String m_storeVersion;
+    private final boolean m_generations;
+    // the media store generation, or the greatest modification date before API 30.
+    private final long m_mark;
+    // sorted song ids.
+    private final long[] m_ids;
+
+    private ChangeSnapshot(final String storeVersion, final boolean generations, final long mark,
+                           final long[] ids){
+        m_storeVersion = storeVersion;
+        m_generations = generations;
+        m_mark = mark;
+        m_ids = ids;
+    }
+
+    /**
+     * Reads the current media table state. The change mark is read before the ids, so a change
+     * between both is reported again by the next token and never missed.
+     * @param context context.
+     * @param signal cancellation signal.
+     * @return current snapshot.
+     */
+    static ChangeSnapshot current(final Context context, final CancellationSignal signal){
+        boolean generations = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R;
+        long mark = generations ?
+                MediaStore.getGeneration(context, MediaStore.VOLUME_EXTERNAL) :
+                maxDateModified(context, signal);
+
+        return new ChangeSnapshot(storeVersion(context), generations, mark, readIds(context, signal));
+    }
+
+    /**
+     * @param context context.
+     * @param token a token made by {@link #save(Context)} or null.
+     * @return The snapshot of the token or null if the token is null, invalid or too old.
+     */
+    static ChangeSnapshot fromToken(final Context context, final String token){
+        if (token == null)
+            return null;
+
+        try {
+            DataInputStream input = new DataInputStream(
+                    new ByteArrayInputStream(Base64.decode(token, Base64.URL_SAFE | Base64.NO_WRAP)));
+
+            if (input.readInt() != TOKEN_VERSION)
+                return null;
+
+            String storeVersion = input.readUTF();
+            boolean generations = input.readBoolean();
+            long mark = input.readLong();
+            // the name comes from the caller, only names made by save are opened.
+            String name = input.readUTF();
+            if (!SNAPSHOT_NAME.matcher(name).matches())
+                return null;
+
+            File file = new File(directory(context), name);
+
+            return new ChangeSnapshot(storeVersion, generations, mark, readIds(file));
+        }
+
+        catch (IOException | IllegalArgumentException ex){
+            Log.w(TAG, "Unusable change token: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param current the current snapshot.
+     * @return true if changes since this snapshot can be found in current media store.
+     * Other way all songs must be sent again.
+     */
+    boolean isComparableTo(final ChangeSnapshot current){
+        return m_generations == current.m_generations && m_storeVersion.equals(current.m_storeVersion);
+    }
+
+    /**
+     * @return Selection of the songs inserted or updated after this snapshot.
+     */
+    String changedSelection(){
+        if (m_generations)
+            return MediaStore.Audio.Media.GENERATION_MODIFIED + " > ?";
+
+        // copied files can keep an old modification date, new ids catch them.
+        return "(" + MediaStore.Audio.Media.DATE_MODIFIED + " >= ? OR "
+                + MediaStore.Audio.Media._ID + " > ?)";
+    }
+
+    String[] changedSelectionArgs(){
+        if (m_generations)
+            return new String[]{ String.valueOf(m_mark) };
+
+        long maxId = (m_ids.length == 0) ? 0 : m_ids[m_ids.length - 1];
+        return new String[]{ String.valueOf(m_mark), String.valueOf(maxId) };
+    }
+
+    /**
+     * @return The column that must be queried to call {@link #isInserted(Cursor, int, int)},
+     * or null if the song id is enough.
+     */
+    String insertedColumn(){
+        return m_generations ? MediaStore.Audio.Media.GENERATION_ADDED : null;
+    }
+
+    /**
+     * @param cursor cursor at a changed song row.
+     * @param idIndex index of the song id column.
+     * @param insertedIndex index of the {@link #insertedColumn()} column or -1.
+     * @return true if the song was inserted after this snapshot, false if it was updated.
+     */
+    boolean isInserted(final Cursor cursor, final int idIndex, final int insertedIndex){
+        if (m_generations && insertedIndex >= 0)
+            return cursor.getLong(insertedIndex) > m_mark;
+
+        return Arrays.binarySearch(m_ids, cursor.getLong(idIndex)) < 0;
+    }
+
+    /**
+     * @param current the current snapshot.
+     * @return Ids of this snapshot that are not in current.
+     */
+    List<String> deletedIn(final ChangeSnapshot current){
+        List<String> deleted = new ArrayList<>();
+        int j = 0;
+
+        for (long id : m_ids){
+            while (j < current.m_ids.length && current.m_ids[j] < id)
+                j++;
+
+            if (j == current.m_ids.length || current.m_ids[j] != id)
+                deleted.add(String.valueOf(id));
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Saves this snapshot ids and removes the oldest snapshot files.
+     * @param context context.
+     * @return The token of this snapshot.
+     * @throws IOException if the ids can't be saved.
+     */
+    String save(final Context context) throws IOException {
+        File directory = directory(context);
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create " + directory);
+
+        String name = Long.toHexString(System.currentTimeMillis()) + "-" + m_nextId.incrementAndGet();
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(directory, name))));
+
+        try {
+            output.writeInt(m_ids.length);
+            for (long id : m_ids)
+                output.writeLong(id);
+        }
+        finally {
+            output.close();
+        }
+
+        prune(directory);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream token = new DataOutputStream(bytes);
+        token.writeInt(TOKEN_VERSION);
+        token.writeUTF(m_storeVersion);
+        token.writeBoolean(m_generations);
+        token.writeLong(m_mark);
+        token.writeUTF(name);
+        token.flush();
+
+        return Base64.encodeToString(bytes.toByteArray(), Base64.URL_SAFE | Base64.NO_WRAP);
+    }
+
+    private static File directory(final Context context){
+        return new File(context.getCacheDir(), DIR_NAME);
+    }
+
+    private static void prune(final File directory){
+        File[] files = directory.listFiles();
+        if (files == null || files.length <= MAX_SNAPSHOTS)
+            return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long modifiedA = a.lastModified();
+                long modifiedB = b.lastModified();
+                return (modifiedB < modifiedA) ? -1 : ((modifiedB == modifiedA) ? 0 : 1);
+            }
+        });
+
+        for (int i = MAX_SNAPSHOTS; i < files.length; i++)
+            files[i].delete();
+    }
+
+    private static String storeVersion(final Context context){
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R)
+            return MediaStore.getVersion(context, MediaStore.VOLUME_EXTERNAL);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P)
+            return MediaStore.getVersion(context);
+
+        return "";
+    }
+
+    private static long maxDateModified(final Context context, final CancellationSignal signal){
+        Cursor cursor = context.getContentResolver().query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                new String[]{ "max(" + MediaStore.Audio.Media.DATE_MODIFIED + ")" },
+                null, null, null, signal);
+
+        if (cursor == null)
+            return 0;
+
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    private static long[] readIds(final Context context, final CancellationSignal signal){
+        Cursor cursor = context.getContentResolver().query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                new String[]{ MediaStore.Audio.Media._ID }, null, null,
+                MediaStore.Audio.Media._ID + " ASC", signal);
+
+        if (cursor == null)
+            return new long[0];
+
+        try {
+            long[] ids = new long[cursor.getCount()];
+            int count = 0;
+
+            while (cursor.moveToNext() && count < ids.length)
+                ids[count++] = cursor.getLong(0);
+
+            return (count == ids.length) ? ids : Arrays.copyOf(ids, count);
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    private static long[] readIds(final File file) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+        try {
+            long[] ids = new long[input.readInt()];
+            for (int i = 0; i < ids.length; i++)
+                ids[i] = input.readLong();
+
+            return ids;
+        }
+        finally {
+            input.close();
+        }
+    }
+}
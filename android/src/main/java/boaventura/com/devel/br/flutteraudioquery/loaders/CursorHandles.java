@@ -0,0 +1,253 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders;
+
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import boaventura.com.devel.br.flutteraudioquery.executor.QueryExecutor;
+import boaventura.com.devel.br.flutteraudioquery.loaders.formats.ResultBuilder;
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.AbstractLoadTask;
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.QueryOptions;
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.RowReader;
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * CursorHandles keeps the cursors of virtual results. A virtual query doesn't read its
+ * rows, its cursor is kept open under a handle and dart reads only the row windows it
+ * shows with {@link #loadWindow(MethodChannel.Result, String, int, int)}.
+ *
+ * <p>A handle is closed by {@link #release(String)} or when it is not used for its
+ * idle timeout, see {@link QueryOptions#getIdleTimeout()}. Idle handles are checked every
+ * {@link #SWEEP_INTERVAL_MILLIS} while there are open handles.</p>
+ */
+public final class CursorHandles {
+
+    public static final String KEY_HANDLE = "handle";
+    public static final String KEY_COUNT = "count";
+
+    static final long SWEEP_INTERVAL_MILLIS = 5000L;
+
+    private static final String ERROR_INVALID_HANDLE = "INVALID_HANDLE";
+
+    private static final Map<String, Handle> m_handles = new ConcurrentHashMap<>();
+    private static final AtomicLong m_nextId = new AtomicLong();
+    // used in platform thread only.
+    private static boolean m_sweepScheduled = false;
+
+    private static final Runnable m_sweep = new Runnable() {
+        @Override
+        public void run() {
+            m_sweepScheduled = false;
+            long now = SystemClock.elapsedRealtime();
+
+            for (Handle handle : m_handles.values()){
+                if (handle.isIdle(now))
+                    closeLater(handle);
+            }
+
+            if (!m_handles.isEmpty())
+                scheduleSweep();
+        }
+    };
+
+    private CursorHandles(){}
+
+    /**
+     * Keeps a virtual query cursor. Called in the load task worker thread.
+     * @param cursor query cursor, it is closed by this class from now on.
+     * @param reader reader of the cursor rows.
+     * @param options options of the virtual query.
+     * @return The virtual query result, a map with the handle and the cursor row count.
+     */
+    static Map<String, Object> open(final Cursor cursor, final RowReader reader,
+                                    final QueryOptions options){
+        final Handle handle = new Handle("cursor-" + m_nextId.incrementAndGet(),
+                cursor, reader, options);
+        m_handles.put(handle.m_id, handle);
+
+        QueryExecutor.instance().postResult(new Runnable() {
+            @Override
+            public void run() {
+                scheduleSweep();
+            }
+        });
+
+        return result(handle.m_id, handle.m_count);
+    }
+
+    /**
+     * @return The result of a virtual query without rows. It has no handle to release.
+     */
+    static Map<String, Object> emptyResult(){
+        return result(null, 0);
+    }
+
+    /**
+     * Reads the rows [from, to) of a virtual result in background. The window is sent in the
+     * result format of the virtual query.
+     * @param result result object.
+     * @param id handle id.
+     * @param from first row index.
+     * @param to index after the last row. It is clipped to the row count.
+     */
+    public static void loadWindow(final MethodChannel.Result result, final String id,
+                                  final int from, final int to){
+        Handle handle = (id == null) ? null : m_handles.get(id);
+
+        if (handle == null){
+            result.error(ERROR_INVALID_HANDLE, "There is no virtual result with handle " + id, null);
+            return;
+        }
+
+        new WindowLoadTask(result, handle, from, to).execute();
+    }
+
+    /**
+     * Closes a virtual result handle.
+     * @param id handle id.
+     * @return false if there is no open handle with the given id.
+     */
+    public static boolean release(final String id){
+        Handle handle = (id == null) ? null : m_handles.get(id);
+        if (handle == null)
+            return false;
+
+        closeLater(handle);
+        return true;
+    }
+
+    /**
+     * Closes all handles. Used when the plugin is detached.
+     */
+    public static void releaseAll(){
+        for (Handle handle : m_handles.values())
+            closeLater(handle);
+    }
+
+    private static Map<String, Object> result(final String id, final int count){
+        Map<String, Object> result = new HashMap<>();
+        result.put(KEY_HANDLE, id);
+        result.put(KEY_COUNT, count);
+        return result;
+    }
+
+    private static void scheduleSweep(){
+        if (m_sweepScheduled || m_handles.isEmpty())
+            return;
+
+        m_sweepScheduled = true;
+        QueryExecutor.instance().postDelayed(m_sweep, SWEEP_INTERVAL_MILLIS);
+    }
+
+    private static void closeLater(final Handle handle){
+        if (!m_handles.remove(handle.m_id, handle))
+            return;
+
+        // a window read can hold the handle lock, so it is never closed in platform thread.
+        QueryExecutor.instance().execute(QueryExecutor.Lane.IO, new Runnable() {
+            @Override
+            public void run() {
+                handle.close();
+            }
+        });
+    }
+
+    private static final class Handle {
+        private final String m_id;
+        private final Cursor m_cursor;
+        private final RowReader m_reader;
+        private final QueryOptions m_options;
+        private final int m_count;
+        private volatile long m_lastAccess;
+        private boolean m_closed = false;
+
+        Handle(final String id, final Cursor cursor, final RowReader reader, final QueryOptions options){
+            m_id = id;
+            m_cursor = cursor;
+            m_reader = reader;
+            m_options = options;
+            m_count = cursor.getCount();
+            m_lastAccess = SystemClock.elapsedRealtime();
+        }
+
+        boolean isIdle(final long now){
+            return (now - m_lastAccess) > m_options.getIdleTimeout();
+        }
+
+        /**
+         * @return The window rows or null if this handle was closed.
+         */
+        synchronized Object window(final int from, final int to, final WindowLoadTask task){
+            if (m_closed)
+                return null;
+
+            m_lastAccess = SystemClock.elapsedRealtime();
+            ResultBuilder builder = ResultBuilder.create(m_options);
+            int end = Math.min(to, m_count);
+
+            if (from >= 0 && from < end && m_cursor.moveToPosition(from)){
+                do {
+                    try {
+                        builder.beginRow();
+                        m_reader.read(m_cursor, builder);
+                        builder.endRow();
+                    }
+                    catch (Exception ex){
+                        builder.discardRow();
+                        Log.e(AbstractLoader.TAG_ERROR, "CursorHandles::window exception");
+                        Log.e(AbstractLoader.TAG_ERROR, String.valueOf(ex.getMessage()) );
+                    }
+                } while ( !task.isCancelled() && m_cursor.getPosition() < (end - 1)
+                        && m_cursor.moveToNext() );
+            }
+
+            m_lastAccess = SystemClock.elapsedRealtime();
+            return builder.build();
+        }
+
+        synchronized void close(){
+            if (m_closed)
+                return;
+
+            m_closed = true;
+            m_cursor.close();
+        }
+    }
+
+    private static class WindowLoadTask extends AbstractLoadTask<Object> {
+        private MethodChannel.Result m_result;
+        private final Handle m_handle;
+        private final int m_from, m_to;
+
+        WindowLoadTask(final MethodChannel.Result result, final Handle handle,
+                       final int from, final int to){
+            super(result, null, null, null);
+            m_result = result;
+            m_handle = handle;
+            m_from = from;
+            m_to = to;
+        }
+
+        @Override
+        protected Object loadData(String selection, String[] selectionArgs, String sortOrder) {
+            return m_handle.window(m_from, m_to, this);
+        }
+
+        @Override
+        protected void onPostExecute(Object data) {
+            super.onPostExecute(data);
+
+            if (data == null)
+                m_result.error(ERROR_INVALID_HANDLE, "Virtual result " + m_handle.m_id + " was released", null);
+            else
+                m_result.success(data);
+
+            m_result = null;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.provider.MediaStore;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import boaventura.com.devel.br.flutteraudioquery.executor.QueryExecutor;
+
+/**
+ * GenreIndex keeps the song, album and artist ids of every genre by genre name, so genre
+ * queries are index lookups instead of media scans on the undocumented genre_name column.
+ *
+ * <p>When the index is cold it is built from the genres table and the
+ * {@link MediaStore.Audio.Genres.Members} rows of each genre. Genres with the same name share
+ * their ids. MediaStore has members only by genre uri, so a build costs N + 1 queries for N
+ * genres and the index is built as rarely as possible.</p>
+ *
+ * <p>A ContentObserver on the genres uri makes the index cold again. Media changes, that come
+ * often during a media scan, don't drop the index: it is rebuilt in background
+ * {@link #REBUILD_DELAY_MILLIS} after the last media change and genre queries use the previous
+ * index meanwhile. A build that runs while genres or media change is used by its caller but
+ * is not kept.</p>
+ */
+final class GenreIndex {
+
+    private static final String[] GENRE_PROJECTION = {
+            MediaStore.Audio.Genres._ID,
+            MediaStore.Audio.Genres.NAME
+    };
+
+    private static final String[] MEMBERS_PROJECTION = {
+            MediaStore.Audio.Genres.Members.AUDIO_ID,
+            MediaStore.Audio.Genres.Members.ALBUM_ID,
+            MediaStore.Audio.Genres.Members.ARTIST_ID
+    };
+
+    static final long REBUILD_DELAY_MILLIS = 2000L;
+
+    // null when the index is cold.
+    private static Map<String, Genre> m_genres;
+    private static long m_generation = 0;
+    private static boolean m_observing = false;
+    private static boolean m_rebuildScheduled = false;
+
+    private GenreIndex(){}
+
+    /**
+     * Registers the genre observers. Only the first call does something.
+     * @param context context.
+     */
+    static synchronized void observe(final Context context){
+        if (m_observing)
+            return;
+
+        m_observing = true;
+        final ContentResolver resolver = context.getContentResolver();
+
+        resolver.registerContentObserver(MediaStore.Audio.Genres.EXTERNAL_CONTENT_URI, true,
+                new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        invalidate();
+                    }
+                });
+
+        resolver.registerContentObserver(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true,
+                new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        scheduleRebuild(resolver);
+                    }
+                });
+    }
+
+    static synchronized void invalidate(){
+        m_genres = null;
+        m_generation++;
+    }
+
+    /**
+     * Rebuilds a warm index in background after media changes stop for {@link #REBUILD_DELAY_MILLIS}.
+     * Many changes in a short time make a single rebuild.
+     */
+    private static void scheduleRebuild(final ContentResolver resolver){
+        synchronized (GenreIndex.class){
+            m_generation++;
+            if (m_genres == null || m_rebuildScheduled)
+                return;
+
+            m_rebuildScheduled = true;
+        }
+
+        QueryExecutor.instance().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                QueryExecutor.instance().execute(QueryExecutor.Lane.IO, new Runnable() {
+                    @Override
+                    public void run() {
+                        rebuild(resolver);
+                    }
+                });
+            }
+        }, REBUILD_DELAY_MILLIS);
+    }
+
+    private static void rebuild(final ContentResolver resolver){
+        long generation;
+        synchronized (GenreIndex.class){
+            m_rebuildScheduled = false;
+
+            // a cold index is built by the next genre query.
+            if (m_genres == null)
+                return;
+
+            generation = m_generation;
+        }
+
+        Map<String, Genre> genres;
+        try {
+            genres = Collections.unmodifiableMap(build(resolver, null));
+        }
+        catch (RuntimeException ex){
+            invalidate();
+            return;
+        }
+
+        synchronized (GenreIndex.class){
+            // changes during the build scheduled another rebuild.
+            if (generation == m_generation && m_genres != null)
+                m_genres = genres;
+        }
+    }
+
+    /**
+     * @param resolver content resolver.
+     * @param name genre name.
+     * @param signal cancellation signal of the caller query or null.
+     * @return The ids of the genre or an empty genre if there is no genre with this name.
+     */
+    static Genre genre(final ContentResolver resolver, final String name, final CancellationSignal signal){
+        Genre genre = genres(resolver, signal).get(name);
+        return (genre != null) ? genre : Genre.EMPTY;
+    }
+
+    private static Map<String, Genre> genres(final ContentResolver resolver, final CancellationSignal signal){
+        long generation;
+        synchronized (GenreIndex.class){
+            if (m_genres != null)
+                return m_genres;
+
+            generation = m_generation;
+        }
+
+        Map<String, Genre> genres = Collections.unmodifiableMap(build(resolver, signal));
+
+        synchronized (GenreIndex.class){
+            if (generation == m_generation)
+                m_genres = genres;
+        }
+
+        return genres;
+    }
+
+    private static Map<String, Genre> build(final ContentResolver resolver, final CancellationSignal signal){
+        Map<String, Builder> builders = new HashMap<>();
+        Cursor genreCursor = resolver.query(MediaStore.Audio.Genres.EXTERNAL_CONTENT_URI,
+                GENRE_PROJECTION, null, null, null, signal);
+
+        if (genreCursor != null){
+            try {
+                while (genreCursor.moveToNext()){
+                    String name = genreCursor.getString(1);
+                    if (name == null)
+                        continue;
+
+                    Builder builder = builders.get(name);
+                    if (builder == null){
+                        builder = new Builder();
+                        builders.put(name, builder);
+                    }
+                    readMembers(resolver, genreCursor.getLong(0), builder, signal);
+                }
+            }
+            finally {
+                genreCursor.close();
+            }
+        }
+
+        Map<String, Genre> genres = new HashMap<>();
+        for (Map.Entry<String, Builder> entry : builders.entrySet())
+            genres.put(entry.getKey(), entry.getValue().build());
+
+        return genres;
+    }
+
+    private static void readMembers(final ContentResolver resolver, final long genreId,
+                                    final Builder builder, final CancellationSignal signal){
+        Cursor cursor = resolver.query(
+                MediaStore.Audio.Genres.Members.getContentUri("external", genreId),
+                MEMBERS_PROJECTION, null, null, null, signal);
+
+        if (cursor == null)
+            return;
+
+        try {
+            while (cursor.moveToNext()){
+                builder.m_songIds.add(cursor.getLong(0));
+                builder.m_albumIds.add(cursor.getLong(1));
+                builder.m_artistIds.add(cursor.getLong(2));
+            }
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The ids of a genre. Each id set is sorted and has no duplicated ids.
+     */
+    static final class Genre {
+        private static final Genre EMPTY = new Genre(new long[0], new long[0], new long[0]);
+
+        private final long[] m_songIds;
+        private final long[] m_albumIds;
+        private final long[] m_artistIds;
+
+        private Genre(final long[] songIds, final long[] albumIds, final long[] artistIds){
+            m_songIds = songIds;
+            m_albumIds = albumIds;
+            m_artistIds = artistIds;
+        }
+
+        String[] songIds(){ return toArgs(m_songIds); }
+
+        String[] albumIds(){ return toArgs(m_albumIds); }
+
+        String[] artistIds(){ return toArgs(m_artistIds); }
+
+        private static String[] toArgs(final long[] ids){
+            String[] args = new String[ids.length];
+            for (int i = 0; i < ids.length; i++)
+                args[i] = String.valueOf(ids[i]);
+
+            return args;
+        }
+    }
+
+    private static final class Builder {
+        private final LongSet m_songIds = new LongSet();
+        private final LongSet m_albumIds = new LongSet();
+        private final LongSet m_artistIds = new LongSet();
+
+        Genre build(){
+            return new Genre(m_songIds.toSortedArray(), m_albumIds.toSortedArray(),
+                    m_artistIds.toSortedArray());
+        }
+    }
+
+    /**
+     * A growable long array that becomes a sorted id set.
+     */
+    private static final class LongSet {
+        private long[] m_values = new long[16];
+        private int m_size = 0;
+
+        void add(final long value){
+            if (m_size == m_values.length)
+                m_values = Arrays.copyOf(m_values, m_size << 1);
+
+            m_values[m_size++] = value;
+        }
+
+        long[] toSortedArray(){
+            long[] values = Arrays.copyOf(m_values, m_size);
+            Arrays.sort(values);
+
+            int size = 0;
+            for (int i = 0; i < values.length; i++){
+                if (size == 0 || values[size - 1] != values[i])
+                    values[size++] = values[i];
+            }
+
+            return (size == values.length) ? values : Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -7,9 +7,11 @@ import android.provider.MediaStore;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.AbstractLoadTask;
 import boaventura.com.devel.br.flutteraudioquery.sortingtypes.GenreSortType;
@@ -29,6 +31,11 @@ public class GenreLoader extends AbstractLoader {
         super(context);
     }
 
+    @Override
+    Set<LibraryCache.Table> getCacheTables(){
+        return EnumSet.of(LibraryCache.Table.GENRES, LibraryCache.Table.MEDIA);
+    }
+
     @Override
     protected GenreLoadTask createLoadTask(
             final MethodChannel.Result result, final String selection,
@@ -66,8 +73,8 @@ public class GenreLoader extends AbstractLoader {
      * @param sortType GenreSortType object to define sort type for data queried.
      */
     public void getGenres(final MethodChannel.Result result, final GenreSortType sortType){
-        createLoadTask(result, null, null, parseSortOrder(sortType),
-                QUERY_TYPE_DEFAULT).execute();
+        runQuery(result, null, null, parseSortOrder(sortType),
+                QUERY_TYPE_DEFAULT);
     }
 
     /**
@@ -81,8 +88,8 @@ public class GenreLoader extends AbstractLoader {
                             final GenreSortType sortType ){
 
         String[] args = new String[]{ namedQuery + "%"};
-        createLoadTask(results, GENRE_PROJECTION[0] + " like ?", args,
-                parseSortOrder(sortType), QUERY_TYPE_DEFAULT).execute();
+        runQuery(results, GENRE_PROJECTION[0] + " like ?", args,
+                parseSortOrder(sortType), QUERY_TYPE_DEFAULT);
     }
 
     static class GenreLoadTask extends AbstractLoadTask<List<Map<String,Object>>>{
@@ -99,7 +106,7 @@ public class GenreLoader extends AbstractLoader {
 
         GenreLoadTask(MethodChannel.Result result, ContentResolver resolver, String selection,
                       String[] selectionArgs, String sortOrder) {
-            super(selection, selectionArgs, sortOrder);
+            super(result, selection, selectionArgs, sortOrder);
 
             m_resolver = resolver;
             m_result = result;
@@ -115,10 +122,10 @@ public class GenreLoader extends AbstractLoader {
             try {
                 genreCursor = m_resolver.query(MediaStore.Audio.Genres.EXTERNAL_CONTENT_URI,
                         new String[]{"Distinct " + GENRE_PROJECTION[0]}, selection,
-                        selectionArgs, sortOrder);
+                        selectionArgs, sortOrder, getCancellationSignal());
 
                 if (genreCursor != null) {
-                    while (genreCursor.moveToNext()) {
+                    while ( !isCancelled() && genreCursor.moveToNext() ) {
                         Map<String, Object> data = new HashMap<>();
                         for (String column : genreCursor.getColumnNames()) {
                             String genreName = genreCursor.getString(
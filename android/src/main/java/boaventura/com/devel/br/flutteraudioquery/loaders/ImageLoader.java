@@ -15,7 +15,9 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
+import boaventura.com.devel.br.flutteraudioquery.executor.QueryExecutor;
 import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.AbstractLoadTask;
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.QueryOptions;
 import io.flutter.plugin.common.MethodChannel;
 
 public class ImageLoader extends AbstractLoader {
@@ -52,7 +54,14 @@ public class ImageLoader extends AbstractLoader {
                 args = new String[]{id};
                 break;
         }
-        new ImageLoadTask(result, getContentResolver(), selection, args, sortOrder, resourceType, size ).execute();
+        // the same artwork with the same size is decoded once for all waiting calls.
+        QueryCoalescer.Flight flight = QueryCoalescer.join(
+                new QueryCoalescer.Key(getClass(), selection, args, sortOrder, resourceType, size,
+                        QueryOptions.of(result)),
+                result);
+
+        if (flight != null)
+            new ImageLoadTask(flight, getContentResolver(), selection, args, sortOrder, resourceType, size ).execute();
     }
 
     @Override
@@ -80,13 +89,19 @@ public class ImageLoader extends AbstractLoader {
         ImageLoadTask(MethodChannel.Result result, ContentResolver m_resolver, String selection,
                      String[] selectionArgs, String sortOrder, int type, Size size){
 
-            super(selection, selectionArgs, sortOrder);
+            super(result, selection, selectionArgs, sortOrder);
             this.m_resolver = m_resolver;
             this.m_result = result;
             this.m_queryType = type;
             this.size = size;
         }
 
+        @Override
+        protected QueryExecutor.Lane getLane() {
+            // thumbnail decoding and jpeg compression are cpu bound.
+            return QueryExecutor.Lane.CPU;
+        }
+
         @Override
         protected void onPostExecute(Map<String,Object> map)     {
             super.onPostExecute(map);
@@ -102,14 +117,14 @@ public class ImageLoader extends AbstractLoader {
 
 
             if (cursor != null){
-                while(cursor.moveToNext()){
+                while ( !isCancelled() && cursor.moveToNext() ){
                     final Uri uri = ContentUris.appendId(
                             MediaStore.Audio.Media.EXTERNAL_CONTENT_URI.buildUpon(),
                             cursor.getLong( cursor.getColumnIndex(MediaStore.Audio.Media._ID) ))
                             .build();
 
                     try {
-                        Bitmap bitmap = this.m_resolver.loadThumbnail(uri, this.size , null);
+                        Bitmap bitmap = this.m_resolver.loadThumbnail(uri, this.size , getCancellationSignal());
                         map.put(key, getBitmapBytes(bitmap) );
                         bitmap.recycle();
                         break;
@@ -159,7 +174,7 @@ public class ImageLoader extends AbstractLoader {
                     case 1:
                         cursor = this.m_resolver.query(
                                 MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                                new String[]{MediaStore.Audio.Media._ID}, selection, selectionArgs, sortOrder );
+                                new String[]{MediaStore.Audio.Media._ID}, selection, selectionArgs, sortOrder , getCancellationSignal());
                         break;
 
                     // SONG
@@ -168,7 +183,7 @@ public class ImageLoader extends AbstractLoader {
                         final Uri uri = ContentUris.appendId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI.buildUpon(),
                                 Long.parseLong( selectionArgs[0] )).build();
                         try {
-                            Bitmap bitmap = this.m_resolver.loadThumbnail(uri, size, null);
+                            Bitmap bitmap = this.m_resolver.loadThumbnail(uri, size, getCancellationSignal());
                             map.put(key, getBitmapBytes(bitmap));
                         }
                         catch (IOException ex){
@@ -0,0 +1,285 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import boaventura.com.devel.br.flutteraudioquery.executor.QueryExecutor;
+
+/**
+ * LibraryCache keeps the results of read only queries in memory, so a repeated browse
+ * query is answered without a media provider query.
+ *
+ * <p>Results are cached by their {@link QueryCoalescer.Key} together with the media
+ * {@link Table}s they were made from. A ContentObserver for each table drops every result
+ * that depends on it when the table changes. Each table has a generation that is increased
+ * on changes, a result is only cached if no table it depends on changed while it was
+ * being loaded.</p>
+ *
+ * <p>The cache is bounded by the estimated memory of its results, not by their count: a
+ * result costs about the size of its rows times columns values. The budget is an eighth of
+ * the app memory class, at least {@link #MIN_BYTES}. Results are kept while their estimated
+ * total fits in it, the least recently used is dropped first. A single result can use the
+ * whole budget, so the full song list of a large library is still cached.</p>
+ *
+ * <p>Whole table results are also saved in a {@link LibraryIndex} file. When the plugin starts
+ * the file is loaded in background and its results are cached if the media store didn't
+ * change since it was saved.</p>
+ */
+final class LibraryCache {
+
+    /**
+     * Media tables that query results depend on.
+     */
+    enum Table {
+        MEDIA(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI),
+        ALBUMS(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI),
+        ARTISTS(MediaStore.Audio.Artists.EXTERNAL_CONTENT_URI),
+        GENRES(MediaStore.Audio.Genres.EXTERNAL_CONTENT_URI),
+        PLAYLISTS(MediaStore.Audio.Playlists.EXTERNAL_CONTENT_URI);
+
+        private final Uri m_uri;
+
+        Table(final Uri uri){
+            m_uri = uri;
+        }
+    }
+
+    static final long MIN_BYTES = 8L * 1024 * 1024;
+
+    private static volatile long m_maxBytes = MIN_BYTES;
+
+    // entries by query key id, in access order.
+    private static final Map<String, Entry> m_entries = new LinkedHashMap<>(16, 0.75f, true);
+    // estimated bytes of all entries.
+    private static long m_bytes = 0;
+
+    private static final long[] m_generations = new long[Table.values().length];
+    private static boolean m_observing = false;
+    private static LibraryIndex m_index;
+
+    private LibraryCache(){}
+
+    /**
+     * Registers the table observers and loads the saved index. Only the first call does something.
+     * @param context context.
+     */
+    static synchronized void observe(final Context context){
+        if (m_observing)
+            return;
+
+        m_observing = true;
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager != null)
+            m_maxBytes = Math.max(MIN_BYTES, activityManager.getMemoryClass() * 1024L * 1024L / 8);
+
+        for (final Table table : Table.values()){
+            context.getContentResolver().registerContentObserver(table.m_uri, true, new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    invalidate(table);
+                }
+            });
+        }
+
+        final LibraryIndex index = new LibraryIndex(context.getApplicationContext());
+        QueryExecutor.instance().execute(QueryExecutor.Lane.IO, new Runnable() {
+            @Override
+            public void run() {
+                long[] ticket = ticket();
+                Map<String, Entry> entries = index.load();
+
+                if (entries != null){
+                    // the file has the most recently used first, they are put last.
+                    List<Map.Entry<String, Entry>> saved = new ArrayList<>(entries.entrySet());
+                    for (int i = saved.size() - 1; i >= 0; i--)
+                        put(saved.get(i).getKey(), saved.get(i).getValue(), ticket);
+                }
+
+                // changes are saved only after the saved index was read.
+                synchronized (LibraryCache.class){
+                    m_index = index;
+                }
+            }
+        });
+    }
+
+    /**
+     * @param key query key.
+     * @return The cached result of the query or null.
+     */
+    static Object get(final QueryCoalescer.Key key){
+        synchronized (m_entries){
+            Entry entry = m_entries.get(key.id());
+            return (entry == null) ? null : entry.m_data;
+        }
+    }
+
+    /**
+     * Must be taken before a query starts and given to {@link #put(QueryCoalescer.Key, Set, long[], Object)}.
+     * @return The current table generations.
+     */
+    static long[] ticket(){
+        synchronized (m_entries){
+            return m_generations.clone();
+        }
+    }
+
+    /**
+     * Caches a query result if none of its tables changed since the ticket was taken.
+     * @param key query key.
+     * @param tables tables the result was made from.
+     * @param ticket generations taken before the query started.
+     * @param data query result.
+     */
+    static void put(final QueryCoalescer.Key key, final Set<Table> tables, final long[] ticket,
+                    final Object data){
+        Entry entry = new Entry(data, tables, key.isFullTable());
+        if (put(key.id(), entry, ticket) && entry.m_persistent)
+            scheduleSave();
+    }
+
+    private static boolean put(final String id, final Entry entry, final long[] ticket){
+        synchronized (m_entries){
+            if (entry.m_bytes > m_maxBytes)
+                return false;
+
+            for (Table table : entry.m_tables){
+                if (m_generations[table.ordinal()] != ticket[table.ordinal()])
+                    return false;
+            }
+
+            Entry old = m_entries.put(id, entry);
+            m_bytes += entry.m_bytes - ( (old == null) ? 0 : old.m_bytes );
+
+            // the least recently used entries come first.
+            Iterator<Entry> it = m_entries.values().iterator();
+            while (m_bytes > m_maxBytes && it.hasNext()){
+                m_bytes -= it.next().m_bytes;
+                it.remove();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Drops every cached result made from a table.
+     * @param table changed table.
+     */
+    static void invalidate(final Table table){
+        synchronized (m_entries){
+            m_generations[table.ordinal()]++;
+
+            Iterator<Entry> it = m_entries.values().iterator();
+            while (it.hasNext()){
+                Entry entry = it.next();
+                if (entry.m_tables.contains(table)){
+                    m_bytes -= entry.m_bytes;
+                    it.remove();
+                }
+            }
+        }
+
+        scheduleSave();
+    }
+
+    /**
+     * @return A copy of the cached entries that can be saved by query key id, the most
+     * recently used first.
+     */
+    static Map<String, Entry> snapshot(){
+        List<Map.Entry<String, Entry>> entries;
+        synchronized (m_entries){
+            entries = new ArrayList<>(m_entries.entrySet());
+        }
+
+        Map<String, Entry> snapshot = new LinkedHashMap<>();
+        for (int i = entries.size() - 1; i >= 0; i--){
+            if (entries.get(i).getValue().m_persistent)
+                snapshot.put(entries.get(i).getKey(), entries.get(i).getValue());
+        }
+        return snapshot;
+    }
+
+    private static void scheduleSave(){
+        LibraryIndex index;
+        synchronized (LibraryCache.class){
+            index = m_index;
+        }
+
+        if (index != null)
+            index.scheduleSave();
+    }
+
+    /**
+     * Estimates the memory held by a query result. It is a cheap walk over the result rows,
+     * not an exact heap size.
+     * @param data a result in any result format.
+     * @return The estimated size in bytes.
+     */
+    static long estimateBytes(final Object data){
+        if (data instanceof String)
+            return 40 + 2L * ((String) data).length();
+
+        if (data instanceof List){
+            long bytes = 16 + 8L * ((List<?>) data).size();
+            for (Object item : (List<?>) data)
+                bytes += estimateBytes(item);
+
+            return bytes;
+        }
+
+        if (data instanceof Map){
+            long bytes = 48;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) data).entrySet())
+                // keys are the shared column name constants, only values are charged.
+                bytes += 32 + estimateBytes(entry.getValue());
+
+            return bytes;
+        }
+
+        if (data instanceof byte[])
+            return 16 + ((byte[]) data).length;
+
+        if (data instanceof int[])
+            return 16 + 4L * ((int[]) data).length;
+
+        if (data instanceof long[])
+            return 16 + 8L * ((long[]) data).length;
+
+        if (data instanceof double[])
+            return 16 + 8L * ((double[]) data).length;
+
+        // boxed numbers, booleans and null.
+        return 16;
+    }
+
+    /**
+     * A cached result and the tables it was made from.
+     */
+    static final class Entry {
+        final Object m_data;
+        final Set<Table> m_tables;
+        final long m_bytes;
+        // true if the entry is saved in the index file.
+        final boolean m_persistent;
+
+        Entry(final Object data, final Set<Table> tables, final boolean persistent){
+            m_data = data;
+            m_tables = EnumSet.copyOf(tables);
+            m_bytes = estimateBytes(data);
+            m_persistent = persistent;
+        }
+    }
+}
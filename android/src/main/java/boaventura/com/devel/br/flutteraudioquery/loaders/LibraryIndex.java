@@ -0,0 +1,340 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import boaventura.com.devel.br.flutteraudioquery.executor.QueryExecutor;
+import io.flutter.plugin.common.StandardMessageCodec;
+
+/**
+ * LibraryIndex saves the {@link LibraryCache} results in a file so they can be used again
+ * after the process restarts, without the media store queries and album art lookups.
+ *
+ * <p>The file is stamped with the media store state when it was saved. On API 30 and newer
+ * the stamp is the media store version and generation, that changes with any audio, genre or
+ * playlist file change. On older APIs it is a hash of the rows of every table cached results
+ * are made from: media ids and modification dates, album ids and art paths, artist ids, the
+ * members of every genre and playlist, and playlist modification dates. Members are only
+ * exposed by genre and playlist uri, so an old API stamp costs a query for each of them.
+ * The stamp only reads plain columns, so it works on API 29 where aggregate projections are
+ * refused. Saved results are used only if the stamp is the same when they are loaded.</p>
+ *
+ * <p>Only whole table results are saved, see {@link QueryCoalescer.Key#isFullTable()}. They are
+ * encoded with the platform channel codec and the most recently used are written first
+ * until the file has {@link #MAX_FILE_BYTES}, results that don't fit are left out. Saves are
+ * done in background {@link #SAVE_DELAY_MILLIS} after the last cache change.</p>
+ *
+ * File layout, all numbers are big endian:
+ * <pre>
+ *   int magic "FAQI", int version, UTF stamp, int entry count
+ *   entry: int key length, key UTF-8 bytes, int tables bit mask, int data length, data bytes
+ * </pre>
+ */
+final class LibraryIndex {
+
+    private static final String TAG = "LibraryIndex";
+    private static final String FILE_NAME = "flutter_audio_query_library.idx";
+    private static final int MAGIC = 0x46415149;
+    private static final int VERSION = 2;
+    static final long SAVE_DELAY_MILLIS = 2000L;
+    static final int MAX_FILE_BYTES = 4 * 1024 * 1024;
+
+    private final Context m_context;
+    private final File m_file;
+    // used in platform thread only.
+    private boolean m_saveScheduled = false;
+
+    private final Runnable m_save = new Runnable() {
+        @Override
+        public void run() {
+            m_saveScheduled = false;
+            QueryExecutor.instance().execute(QueryExecutor.Lane.IO, new Runnable() {
+                @Override
+                public void run() {
+                    save();
+                }
+            });
+        }
+    };
+
+    LibraryIndex(final Context context){
+        m_context = context;
+        m_file = new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    /**
+     * Reads the saved results. Called in a worker thread.
+     * @return The saved entries by query key id, or null if there is no file or the media store
+     * changed since it was saved.
+     */
+    Map<String, LibraryCache.Entry> load(){
+        if (!m_file.exists())
+            return null;
+
+        String stamp = stamp();
+        DataInputStream input = null;
+
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(m_file)));
+
+            if (input.readInt() != MAGIC || input.readInt() != VERSION
+                    || stamp == null || !stamp.equals(input.readUTF())){
+                input.close();
+                input = null;
+                m_file.delete();
+                return null;
+            }
+
+            int count = input.readInt();
+            Map<String, LibraryCache.Entry> entries = new LinkedHashMap<>();
+
+            for (int i = 0; i < count; i++){
+                String id = new String(readBytes(input), "UTF-8");
+                Set<LibraryCache.Table> tables = tables(input.readInt());
+                Object data = StandardMessageCodec.INSTANCE.decodeMessage(
+                        ByteBuffer.wrap(readBytes(input)));
+
+                entries.put(id, new LibraryCache.Entry(data, tables, true));
+            }
+
+            return entries;
+        }
+
+        catch (IOException | RuntimeException ex){
+            Log.w(TAG, "Discarding library index: " + ex.getMessage());
+            m_file.delete();
+            return null;
+        }
+
+        finally {
+            close(input);
+        }
+    }
+
+    /**
+     * Schedules a save of the current cache. Many changes in a short time make a single save.
+     */
+    void scheduleSave(){
+        QueryExecutor.instance().postResult(new Runnable() {
+            @Override
+            public void run() {
+                if (m_saveScheduled)
+                    return;
+
+                m_saveScheduled = true;
+                QueryExecutor.instance().postDelayed(m_save, SAVE_DELAY_MILLIS);
+            }
+        });
+    }
+
+    private synchronized void save(){
+        // the stamp is taken before the entries, so a change between both makes the
+        // file stale and it is discarded on load, never the other way.
+        String stamp = stamp();
+        Map<String, LibraryCache.Entry> entries = LibraryCache.snapshot();
+
+        if (stamp == null || entries.isEmpty()){
+            m_file.delete();
+            return;
+        }
+
+        File temp = new File(m_file.getPath() + ".tmp");
+        DataOutputStream output = null;
+
+        try {
+            List<byte[]> keys = new ArrayList<>();
+            List<LibraryCache.Entry> saved = new ArrayList<>();
+            List<byte[]> encoded = new ArrayList<>();
+            long size = 0;
+
+            for (Map.Entry<String, LibraryCache.Entry> entry : entries.entrySet()){
+                byte[] key = entry.getKey().getBytes("UTF-8");
+                ByteBuffer buffer = StandardMessageCodec.INSTANCE.encodeMessage(entry.getValue().m_data);
+                byte[] data = new byte[buffer.limit()];
+                buffer.position(0);
+                buffer.get(data);
+
+                if (size + key.length + data.length > MAX_FILE_BYTES)
+                    continue;
+
+                size += key.length + data.length;
+                keys.add(key);
+                saved.add(entry.getValue());
+                encoded.add(data);
+            }
+
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(stamp);
+            output.writeInt(saved.size());
+
+            for (int i = 0; i < saved.size(); i++){
+                writeBytes(output, keys.get(i));
+                output.writeInt(mask(saved.get(i).m_tables));
+                writeBytes(output, encoded.get(i));
+            }
+
+            output.close();
+            output = null;
+
+            if (!temp.renameTo(m_file))
+                throw new IOException("Can't rename " + temp);
+        }
+
+        catch (IOException | RuntimeException ex){
+            Log.w(TAG, "Library index not saved: " + ex.getMessage());
+            temp.delete();
+        }
+
+        finally {
+            close(output);
+        }
+    }
+
+    /**
+     * @return A text that changes when the media store content changes, or null if it can't
+     * be made.
+     */
+    private String stamp(){
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R){
+                return "g:" + MediaStore.getVersion(m_context, MediaStore.VOLUME_EXTERNAL)
+                        + ":" + MediaStore.getGeneration(m_context, MediaStore.VOLUME_EXTERNAL);
+            }
+
+            StringBuilder stamp = new StringBuilder("h");
+            stamp.append(':').append(tableStamp(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, null,
+                    MediaStore.Audio.Media._ID, MediaStore.Audio.Media.DATE_MODIFIED));
+            stamp.append(':').append(tableStamp(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI, null,
+                    MediaStore.Audio.Albums._ID, MediaStore.Audio.Albums.ALBUM_ART));
+            stamp.append(':').append(tableStamp(MediaStore.Audio.Artists.EXTERNAL_CONTENT_URI, null,
+                    MediaStore.Audio.Artists._ID));
+
+            List<Long> genreIds = new ArrayList<>();
+            stamp.append(':').append(tableStamp(MediaStore.Audio.Genres.EXTERNAL_CONTENT_URI, genreIds,
+                    MediaStore.Audio.Genres._ID, MediaStore.Audio.Genres.NAME));
+            for (Long genreId : genreIds){
+                stamp.append(':').append(tableStamp(
+                        MediaStore.Audio.Genres.Members.getContentUri("external", genreId), null,
+                        MediaStore.Audio.Genres.Members.AUDIO_ID));
+            }
+
+            List<Long> playlistIds = new ArrayList<>();
+            stamp.append(':').append(tableStamp(MediaStore.Audio.Playlists.EXTERNAL_CONTENT_URI, playlistIds,
+                    MediaStore.Audio.Playlists._ID, MediaStore.Audio.Playlists.DATE_MODIFIED));
+            for (Long playlistId : playlistIds){
+                stamp.append(':').append(tableStamp(
+                        MediaStore.Audio.Playlists.Members.getContentUri("external", playlistId), null,
+                        MediaStore.Audio.Playlists.Members.AUDIO_ID,
+                        MediaStore.Audio.Playlists.Members.PLAY_ORDER));
+            }
+
+            // one part for each genre and playlist, keep the saved stamp short.
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < stamp.length(); i++)
+                hash = (hash ^ stamp.charAt(i)) * 0x100000001b3L;
+
+            return "h:" + stamp.length() + ":" + Long.toHexString(hash);
+        }
+
+        catch (RuntimeException ex){
+            Log.w(TAG, "No media store stamp: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param uri table uri.
+     * @param ids receives the values of the first column, or null.
+     * @param columns columns that change when the table content changes.
+     * @return The row count and a hash of the column values of all rows.
+     */
+    private String tableStamp(final Uri uri, final List<Long> ids, final String... columns){
+        Cursor cursor = m_context.getContentResolver().query(uri, columns, null, null, null);
+
+        if (cursor == null)
+            throw new IllegalStateException("No cursor for " + uri);
+
+        try {
+            long hash = 17;
+            while (cursor.moveToNext()){
+                if (ids != null)
+                    ids.add(cursor.getLong(0));
+
+                // row order is not fixed, rows are added up so it doesn't matter.
+                long rowHash = 1;
+                for (int i = 0; i < columns.length; i++){
+                    String value = cursor.getString(i);
+                    rowHash = 31 * rowHash + ( (value == null) ? 0 : value.hashCode() );
+                }
+                hash += rowHash * 0x9E3779B97F4A7C15L;
+            }
+
+            return cursor.getCount() + "," + Long.toHexString(hash);
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    private static int mask(final Set<LibraryCache.Table> tables){
+        int mask = 0;
+        for (LibraryCache.Table table : tables)
+            mask |= (1 << table.ordinal());
+
+        return mask;
+    }
+
+    private static Set<LibraryCache.Table> tables(final int mask){
+        Set<LibraryCache.Table> tables = EnumSet.noneOf(LibraryCache.Table.class);
+        for (LibraryCache.Table table : LibraryCache.Table.values()){
+            if ( (mask & (1 << table.ordinal())) != 0 )
+                tables.add(table);
+        }
+
+        return tables;
+    }
+
+    private static byte[] readBytes(final DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBytes(final DataOutputStream output, final byte[] bytes) throws IOException {
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static void close(final Closeable closeable){
+        if (closeable == null)
+            return;
+
+        try {
+            closeable.close();
+        }
+        catch (IOException ignored){}
+    }
+}
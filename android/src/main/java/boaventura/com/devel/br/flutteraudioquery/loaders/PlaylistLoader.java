@@ -8,9 +8,11 @@ import android.net.Uri;
 import android.provider.MediaStore;
 import android.util.Log;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.AbstractLoadTask;
 import boaventura.com.devel.br.flutteraudioquery.sortingtypes.PlaylistSortType;
@@ -21,6 +23,9 @@ public class PlaylistLoader extends AbstractLoader {
 
     public enum PlayListMethodType { READ, WRITE }
 
+    // playlist song ids, made from playlist members query.
+    private static final String FIELD_MEMBER_IDS = "memberIds";
+
     private static final String[] PLAYLIST_PROJECTION = {
             MediaStore.Audio.Playlists._ID,
             MediaStore.Audio.Playlists.NAME,
@@ -28,13 +33,14 @@ public class PlaylistLoader extends AbstractLoader {
             MediaStore.Audio.Playlists.DATE_ADDED,
     };
 
-    private static final String[] PLAYLIST_MEMBERS_PROJECTION = {
-            MediaStore.Audio.Playlists.Members.AUDIO_ID,
-            MediaStore.Audio.Playlists.Members.PLAY_ORDER
-    };
-
     public PlaylistLoader(Context context) {
         super(context);
+        PlaylistMembers.observe(context);
+    }
+
+    @Override
+    Set<LibraryCache.Table> getCacheTables(){
+        return EnumSet.of(LibraryCache.Table.PLAYLISTS, LibraryCache.Table.MEDIA);
     }
 
 
@@ -44,8 +50,8 @@ public class PlaylistLoader extends AbstractLoader {
      * @param sortType PlaylistSortType object to define sort type for data queried.
      */
     public void getPlaylists(final MethodChannel.Result result, final PlaylistSortType sortType){
-        createLoadTask(result,null,null,
-                parseSortType(sortType),QUERY_TYPE_DEFAULT).execute();
+        runQuery(result,null,null,
+                parseSortType(sortType),QUERY_TYPE_DEFAULT);
     }
 
     /**
@@ -96,8 +102,8 @@ public class PlaylistLoader extends AbstractLoader {
     public void searchPlaylists(final MethodChannel.Result results, final String namedQuery,
                                 final PlaylistSortType sortType ){
         String[] args = new String[] { namedQuery + "%"};
-        createLoadTask(results,MediaStore.Audio.Playlists.NAME + " like ?", args,
-                parseSortType(sortType), QUERY_TYPE_DEFAULT ).execute();
+        runQuery(results,MediaStore.Audio.Playlists.NAME + " like ?", args,
+                parseSortType(sortType), QUERY_TYPE_DEFAULT );
     }
 
     /**
@@ -171,6 +177,7 @@ public class PlaylistLoader extends AbstractLoader {
         try {
             int rows = resolver.delete(MediaStore.Audio.Playlists.EXTERNAL_CONTENT_URI,
                     MediaStore.Audio.Playlists._ID + "=?", new String[]{playlistId});
+            PlaylistMembers.invalidate(Long.parseLong(playlistId));
             updateResolver();
             results.success("");
         }
@@ -200,6 +207,8 @@ public class PlaylistLoader extends AbstractLoader {
             values.put(MediaStore.Audio.Playlists.Members.AUDIO_ID, songId);
             values.put(MediaStore.Audio.Playlists.Members.PLAY_ORDER, base);
             resolver.insert(playlistUri, values);
+            LibraryCache.invalidate(LibraryCache.Table.PLAYLISTS);
+            PlaylistMembers.invalidate(Long.parseLong(playlistId));
             //updateResolver();
             getPlaylistById(results, playlistId);
         }
@@ -224,6 +233,7 @@ public class PlaylistLoader extends AbstractLoader {
                     Long.parseLong(playlistId), from, to);
 
             if (result){
+                PlaylistMembers.invalidate(Long.parseLong(playlistId));
                 updateResolver();
                 getPlaylistById(results, playlistId);
             }
@@ -240,6 +250,9 @@ public class PlaylistLoader extends AbstractLoader {
 
 
     private void updateResolver(){
+        // cached playlists are dropped now, the observer notification can arrive after
+        // the updated playlist is queried.
+        LibraryCache.invalidate(LibraryCache.Table.PLAYLISTS);
         getContentResolver().notifyChange(Uri.parse("content://media"), null);
     }
 
@@ -269,6 +282,7 @@ public class PlaylistLoader extends AbstractLoader {
                     new String[]{ songId } );
 
             if (deletedRows > 0 ){
+                PlaylistMembers.invalidate(Long.parseLong(playlistId));
                 updateResolver();
                 getPlaylistById(results, playlistId);
             }
@@ -341,7 +355,7 @@ public class PlaylistLoader extends AbstractLoader {
          */
          PlaylistLoadTask(final MethodChannel.Result result, final ContentResolver resolver,
                                 String selection, String[] selectionArgs, String sortOrder) {
-            super(selection, selectionArgs, sortOrder);
+            super(result, selection, selectionArgs, sortOrder);
 
             m_resolver = resolver;
             m_result = result;
@@ -349,23 +363,31 @@ public class PlaylistLoader extends AbstractLoader {
 
         @Override
         protected List<Map<String, Object>> loadData(String selection, String[] selectionArgs, String sortOrder) {
+            final boolean wantsMembers = getOptions().wants(FIELD_MEMBER_IDS);
+            final String[] projection = getOptions().projection(PLAYLIST_PROJECTION,
+                    wantsMembers ? PLAYLIST_PROJECTION[0] : null);
+
             Cursor cursor = m_resolver.query(MediaStore.Audio.Playlists.EXTERNAL_CONTENT_URI,
-                    PLAYLIST_PROJECTION, selection, selectionArgs, sortOrder);
+                    projection, selection, selectionArgs, sortOrder, getCancellationSignal());
 
             List<Map<String,Object>> dataList = new ArrayList<>();
+            List<Long> playlistIds = new ArrayList<>();
 
             if (cursor != null){
-                while (cursor.moveToNext()){
+                while ( !isCancelled() && cursor.moveToNext() ){
                     try {
                         Map<String,Object> playlistData = new HashMap<>();
-                        for (String key : PLAYLIST_PROJECTION){
+                        for (String key : projection){
+                            if (!getOptions().wants(key))
+                                continue;
+
                             String data = cursor.getString( cursor.getColumnIndex( key ));
                             //Log.d("MDBG"," READING " + key + " : " + data );
                             playlistData.put(key, data );
                         }
 
-                        playlistData.put("memberIds", getPlaylistMembersId(
-                                Long.parseLong( (String)playlistData.get(PLAYLIST_PROJECTION[0]))) );
+                        if (wantsMembers)
+                            playlistIds.add(cursor.getLong( cursor.getColumnIndex(PLAYLIST_PROJECTION[0])));
 
                         dataList.add(playlistData);
                     }
@@ -375,6 +397,15 @@ public class PlaylistLoader extends AbstractLoader {
                 }
                 cursor.close();
             }
+
+            // members of all playlists are attached after the playlists cursor is closed.
+            if (wantsMembers && !isCancelled()){
+                Map<Long, List<String>> members = PlaylistMembers.members(m_resolver, playlistIds,
+                        getCancellationSignal());
+
+                for (int i = 0; i < dataList.size(); i++)
+                    dataList.get(i).put(FIELD_MEMBER_IDS, members.get(playlistIds.get(i)));
+            }
             return dataList;
         }
 
@@ -385,44 +416,5 @@ public class PlaylistLoader extends AbstractLoader {
             m_result = null;
             m_resolver = null;
         }
-
-        /**
-         *
-         * This method fetch member ids of a specific playlist.
-         * @param playlistId Id of playlist
-         * @return List of strings with members Ids or empty list if
-         * the specified playlist has no members.
-         *
-         */
-        private List<String> getPlaylistMembersId(final long playlistId){
-             Cursor membersCursor = m_resolver.query(MediaStore.Audio.Playlists.Members.getContentUri(
-                     "external", playlistId),
-                     PLAYLIST_MEMBERS_PROJECTION,
-                     null,
-                     null,
-                     MediaStore.Audio.Playlists.Members.DEFAULT_SORT_ORDER,
-                     null );
-
-             List<String> memberIds = new ArrayList<>();
-
-             if (membersCursor != null){
-
-                 while ( membersCursor.moveToNext() ){
-                     try{
-                         //for(String column : PLAYLIST_MEMBERS_PROJECTION)
-                         // only getting member id yet.
-                         memberIds.add( membersCursor.getString(
-                                 membersCursor.getColumnIndex(PLAYLIST_MEMBERS_PROJECTION[0] )) );
-                     }
-                     catch (Exception ex){
-                         Log.e(TAG_ERROR, "PlaylistLoader::getPlaylistMembersId method exception");
-                         Log.e(TAG_ERROR, ex.getMessage());
-                     }
-                 }
-
-                 membersCursor.close();
-             }
-             return memberIds;
-         }
     }
 }
@@ -0,0 +1,136 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.provider.MediaStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PlaylistMembers keeps the member song ids of playlists by playlist id, in play order.
+ *
+ * <p>MediaStore only exposes playlist members by playlist uri, so the members of every
+ * playlist missing in the cache are read with one query for each of them and playlists
+ * already cached cost no query. Playlist writes drop the playlist they change, and a
+ * ContentObserver on the playlists uri drops all playlists when something else changes
+ * them. A load that runs while playlists change is used by its caller but is not kept.</p>
+ */
+final class PlaylistMembers {
+
+    private static final String[] PROJECTION = {
+            MediaStore.Audio.Playlists.Members.AUDIO_ID,
+            MediaStore.Audio.Playlists.Members.PLAY_ORDER
+    };
+
+    private static final Map<Long, List<String>> m_members = new HashMap<>();
+    private static long m_generation = 0;
+    private static boolean m_observing = false;
+
+    private PlaylistMembers(){}
+
+    /**
+     * Registers the playlists observer. Only the first call does something.
+     * @param context context.
+     */
+    static synchronized void observe(final Context context){
+        if (m_observing)
+            return;
+
+        m_observing = true;
+        context.getContentResolver().registerContentObserver(
+                MediaStore.Audio.Playlists.EXTERNAL_CONTENT_URI, true, new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        invalidateAll();
+                    }
+                });
+    }
+
+    /**
+     * Drops the cached members of a playlist.
+     * @param playlistId playlist id.
+     */
+    static synchronized void invalidate(final long playlistId){
+        m_members.remove(playlistId);
+        m_generation++;
+    }
+
+    static synchronized void invalidateAll(){
+        m_members.clear();
+        m_generation++;
+    }
+
+    /**
+     * @param resolver content resolver.
+     * @param playlistIds Ids of the playlists.
+     * @param signal cancellation signal of the caller query or null.
+     * @return The member song ids of every playlist by playlist id. Playlists without
+     * members have an empty list.
+     */
+    static Map<Long, List<String>> members(final ContentResolver resolver, final List<Long> playlistIds,
+                                           final CancellationSignal signal){
+        Map<Long, List<String>> members = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        long generation;
+
+        synchronized (PlaylistMembers.class){
+            for (Long playlistId : playlistIds){
+                List<String> cached = m_members.get(playlistId);
+                if (cached != null)
+                    members.put(playlistId, cached);
+                else
+                    missing.add(playlistId);
+            }
+            generation = m_generation;
+        }
+
+        if (missing.isEmpty())
+            return members;
+
+        Map<Long, List<String>> loaded = new HashMap<>();
+        for (Long playlistId : missing){
+            if (signal != null && signal.isCanceled())
+                break;
+
+            loaded.put(playlistId, load(resolver, playlistId, signal));
+        }
+
+        synchronized (PlaylistMembers.class){
+            if (generation == m_generation)
+                m_members.putAll(loaded);
+        }
+
+        members.putAll(loaded);
+        return members;
+    }
+
+    private static List<String> load(final ContentResolver resolver, final long playlistId,
+                                     final CancellationSignal signal){
+        List<String> memberIds = new ArrayList<>();
+        Cursor cursor = resolver.query(
+                MediaStore.Audio.Playlists.Members.getContentUri("external", playlistId),
+                PROJECTION, null, null,
+                MediaStore.Audio.Playlists.Members.DEFAULT_SORT_ORDER, signal);
+
+        if (cursor != null){
+            int idIndex = cursor.getColumnIndex(PROJECTION[0]);
+
+            try {
+                while (cursor.moveToNext())
+                    memberIds.add(cursor.getString(idIndex));
+            }
+            finally {
+                cursor.close();
+            }
+        }
+
+        return Collections.unmodifiableList(memberIds);
+    }
+}
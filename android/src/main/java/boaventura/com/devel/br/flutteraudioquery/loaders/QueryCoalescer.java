@@ -0,0 +1,265 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders;
+
+import android.os.CancellationSignal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.CancelListeners;
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.QueryOptions;
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.QueryRequest;
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * QueryCoalescer makes identical queries that are running at the same time share
+ * a single load task.
+ *
+ * <p>Two queries are identical when they have the same {@link Key}, made from the loader,
+ * selection, selection arguments, sort order, query type and query options. The first query creates a
+ * {@link Flight} and runs the task, later identical queries only wait for the flight result.
+ * The flight is removed before its result is delivered so a query that arrives after that
+ * always runs again.</p>
+ */
+final class QueryCoalescer {
+
+    private static final Map<Key, Flight> m_flights = new HashMap<>();
+
+    private QueryCoalescer(){}
+
+    /**
+     * Joins a query to the in flight query with the same key or starts a new flight.
+     * @param key query key.
+     * @param result result of the query.
+     * @return The flight result that must be given to the new load task, or null if the query
+     * joined a flight that is already running.
+     */
+    static Flight join(final Key key, final MethodChannel.Result result){
+        Flight flight;
+        boolean leader = false;
+
+        synchronized (m_flights){
+            flight = m_flights.get(key);
+
+            if (flight == null){
+                flight = new Flight(key);
+                m_flights.put(key, flight);
+                leader = true;
+            }
+
+            flight.addWaiter(result);
+        }
+
+        return leader ? flight : null;
+    }
+
+    private static void remove(final Flight flight){
+        synchronized (m_flights){
+            if (m_flights.get(flight.m_key) == flight)
+                m_flights.remove(flight.m_key);
+        }
+    }
+
+    static final class Key {
+        private static final char SEPARATOR = '\u0001';
+
+        private final String m_loader;
+        private final String m_selection;
+        private final String[] m_selectionArgs;
+        private final String m_sortOrder;
+        private final int m_type;
+        private final Object m_extra;
+        private final QueryOptions m_options;
+
+        /**
+         * @param loader loader class.
+         * @param selection SQL selection.
+         * @param selectionArgs SQL selection args.
+         * @param sortOrder SQL sort order.
+         * @param type query type.
+         * @param extra Any other value that makes the query result different or null.
+         * @param options query result options.
+         */
+        Key(final Class<?> loader, final String selection, final String[] selectionArgs,
+            final String sortOrder, final int type, final Object extra, final QueryOptions options){
+            m_loader = loader.getName();
+            m_selection = selection;
+            m_selectionArgs = selectionArgs;
+            m_sortOrder = sortOrder;
+            m_type = type;
+            m_extra = extra;
+            m_options = options;
+        }
+
+        /**
+         * @return true if the key is a whole table query, without selection or paging.
+         */
+        boolean isFullTable(){
+            return m_selection == null
+                    && (m_selectionArgs == null || m_selectionArgs.length == 0)
+                    && m_type == AbstractLoader.QUERY_TYPE_DEFAULT
+                    && m_extra == null
+                    && !m_options.isPaged();
+        }
+
+        /**
+         * @return A text that is the same for equal keys, also between process runs.
+         */
+        String id(){
+            StringBuilder builder = new StringBuilder(m_loader);
+            builder.append(SEPARATOR).append(m_selection)
+                    .append(SEPARATOR).append(Arrays.toString(m_selectionArgs))
+                    .append(SEPARATOR).append(m_sortOrder)
+                    .append(SEPARATOR).append(m_type)
+                    .append(SEPARATOR).append(m_extra)
+                    .append(SEPARATOR).append(m_options.toKeyString());
+            return builder.toString();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other)
+                return true;
+
+            if ( !(other instanceof Key) )
+                return false;
+
+            Key key = (Key) other;
+            return m_type == key.m_type
+                    && m_loader.equals(key.m_loader)
+                    && equalsOrNull(m_selection, key.m_selection)
+                    && Arrays.equals(m_selectionArgs, key.m_selectionArgs)
+                    && equalsOrNull(m_sortOrder, key.m_sortOrder)
+                    && equalsOrNull(m_extra, key.m_extra)
+                    && m_options.equals(key.m_options);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(new Object[]{ m_loader, m_selection,
+                    Arrays.hashCode(m_selectionArgs), m_sortOrder, m_type, m_extra, m_options });
+        }
+
+        private static boolean equalsOrNull(Object a, Object b){
+            return (a == null) ? (b == null) : a.equals(b);
+        }
+    }
+
+    /**
+     * The result object of a coalesced query. It forwards the reply to every waiting result.
+     * If all waiting requests are cancelled the flight itself is cancelled.
+     */
+    static final class Flight implements QueryRequest {
+        private final Key m_key;
+        private final List<MethodChannel.Result> m_waiters = new ArrayList<>();
+        private final CancellationSignal m_cancellationSignal = new CancellationSignal();
+        private final CancelListeners m_cancelListeners = new CancelListeners(m_cancellationSignal);
+        private String m_requestId;
+        private Set<LibraryCache.Table> m_cacheTables;
+        private long[] m_cacheTicket;
+
+        private Flight(final Key key){
+            m_key = key;
+        }
+
+        /**
+         * Makes this flight result be kept in {@link LibraryCache}.
+         * @param tables tables the result is made from.
+         * @param ticket cache ticket taken before the query starts.
+         */
+        void cacheAs(final Set<LibraryCache.Table> tables, final long[] ticket){
+            m_cacheTables = tables;
+            m_cacheTicket = ticket;
+        }
+
+        // called with coalescer lock held.
+        private void addWaiter(final MethodChannel.Result result){
+            synchronized (m_waiters){
+                m_waiters.add(result);
+            }
+
+            if (result instanceof QueryRequest){
+                if (m_requestId == null)
+                    m_requestId = ((QueryRequest) result).getRequestId();
+
+                ((QueryRequest) result).addOnCancelListener(new CancellationSignal.OnCancelListener() {
+                    @Override
+                    public void onCancel() {
+                        onWaiterCancelled(result);
+                    }
+                });
+            }
+        }
+
+        private void onWaiterCancelled(final MethodChannel.Result result){
+            boolean removed = false;
+
+            // the same lock as join, so no waiter can join between the check and the removal.
+            synchronized (m_flights){
+                synchronized (m_waiters){
+                    m_waiters.remove(result);
+
+                    if (m_waiters.isEmpty() && m_flights.get(m_key) == this){
+                        m_flights.remove(m_key);
+                        removed = true;
+                    }
+                }
+            }
+
+            if (removed)
+                m_cancellationSignal.cancel();
+        }
+
+        private List<MethodChannel.Result> finish(){
+            remove(this);
+
+            List<MethodChannel.Result> waiters;
+            synchronized (m_waiters){
+                waiters = new ArrayList<>(m_waiters);
+                m_waiters.clear();
+            }
+            return waiters;
+        }
+
+        @Override
+        public String getRequestId() { return m_requestId; }
+
+        @Override
+        public CancellationSignal getCancellationSignal() { return m_cancellationSignal; }
+
+        @Override
+        public void addOnCancelListener(final CancellationSignal.OnCancelListener listener) {
+            m_cancelListeners.add(listener);
+        }
+
+        @Override
+        public QueryOptions getOptions() { return m_key.m_options; }
+
+        @Override
+        public void success(final Object data) {
+            List<MethodChannel.Result> waiters = finish();
+
+            // an empty list means the flight was already answered.
+            if (m_cacheTables != null && data != null && !waiters.isEmpty())
+                LibraryCache.put(m_key, m_cacheTables, m_cacheTicket, data);
+
+            for (MethodChannel.Result result : waiters)
+                result.success(data);
+        }
+
+        @Override
+        public void error(final String errorCode, final String errorMessage, final Object errorDetails) {
+            for (MethodChannel.Result result : finish())
+                result.error(errorCode, errorMessage, errorDetails);
+        }
+
+        @Override
+        public void notImplemented() {
+            for (MethodChannel.Result result : finish())
+                result.notImplemented();
+        }
+    }
+}
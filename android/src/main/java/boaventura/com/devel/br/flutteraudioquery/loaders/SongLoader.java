@@ -6,15 +6,26 @@ import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.provider.MediaStore;
 import android.util.Log;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import boaventura.com.devel.br.flutteraudioquery.loaders.formats.ResultBuilder;
 import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.AbstractLoadTask;
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.QueryException;
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.QueryOptions;
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.RowPlan;
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.RowReader;
 import boaventura.com.devel.br.flutteraudioquery.sortingtypes.SongSortType;
 import io.flutter.plugin.common.MethodChannel;
 
@@ -25,14 +36,13 @@ public class SongLoader extends AbstractLoader {
     private static final int QUERY_TYPE_GENRE_SONGS = 0x01;
     private static final int QUERY_TYPE_ALBUM_SONGS = 0x02;
 
+    // fields that are not columns, they are made from other columns.
+    private static final String FIELD_URI = "uri";
+    private static final String FIELD_ALBUM_ARTWORK = "album_artwork";
+
     //private static final String MOST_PLAYED = "most_played"; //undocumented column
     //private static final String RECENTLY_PLAYED = "recently_played"; // undocumented column
 
-    private static final String[] SONG_ALBUM_PROJECTION = {
-            MediaStore.Audio.AlbumColumns.ALBUM,
-            MediaStore.Audio.AlbumColumns.ALBUM_ART
-    };
-
     static private final String[] SONG_PROJECTION = {
             MediaStore.Audio.Media._ID,// row id
             MediaStore.Audio.Media.ALBUM_ID,
@@ -55,33 +65,17 @@ public class SongLoader extends AbstractLoader {
             MediaStore.Audio.Media.SIZE, // string with file size in bytes
     };
 
+    private final Context m_context;
+
     public SongLoader(final Context context){
 
         super(context);
+        m_context = context.getApplicationContext();
+    }
 
-        /*getContentResolver().registerContentObserver(
-                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                true,
-                new ContentObserver(null){
-                    @Override
-                    public boolean deliverSelfNotifications() {
-                        return super.deliverSelfNotifications();
-                    }
-
-                    @Override
-                    public void onChange(boolean selfChange) {
-                        super.onChange(selfChange);
-                        Log.i("MDBG", "onChange(self) in SongLoaderObserver");
-                    }
-
-                    @Override
-                    public void onChange(boolean selfChange, Uri uri) {
-                        super.onChange(selfChange, uri);
-                        Log.i("MDBG", "onChange(self,uri) in SongLoaderObserver Uri: " + uri);
-                    }
-                }
-
-                );*/
+    @Override
+    Set<LibraryCache.Table> getCacheTables(){
+        return EnumSet.of(LibraryCache.Table.MEDIA, LibraryCache.Table.ALBUMS, LibraryCache.Table.GENRES);
     }
 
     /**
@@ -151,8 +145,8 @@ public class SongLoader extends AbstractLoader {
      */
     public void getSongs(final MethodChannel.Result result, final SongSortType sortType){
 
-        createLoadTask( result,null,null,
-                parseSortOrder(sortType), QUERY_TYPE_DEFAULT).execute();
+        runQuery( result,null,null,
+                parseSortOrder(sortType), QUERY_TYPE_DEFAULT);
     }
 
     /**
@@ -168,8 +162,29 @@ public class SongLoader extends AbstractLoader {
                             final SongSortType sortType){
 
         String[] args =  new String[]{namedQuery + "%"};
-        createLoadTask(result, MediaStore.Audio.Media.TITLE + " like ?",
-                args, parseSortOrder(sortType), QUERY_TYPE_DEFAULT).execute();
+        runQuery(result, MediaStore.Audio.Media.TITLE + " like ?",
+                args, parseSortOrder(sortType), QUERY_TYPE_DEFAULT);
+    }
+
+    /**
+     * This method fetch the songs that were inserted, updated or deleted since a change token.
+     * The reply is a map with the "inserted" and "updated" song lists, the "deleted" song ids
+     * and the "token" for the next call. If the token is null, too old or the media store was
+     * recreated "reset" is true and all songs are sent as inserted. The reply has two song
+     * lists, so it can't be streamed or virtual.
+     *
+     * @param result MethodChannel.Result object to send reply for dart.
+     * @param token A token of a previous call or null.
+     */
+    public void getChangesSince(final MethodChannel.Result result, final String token){
+        QueryOptions options = QueryOptions.of(result);
+        if (options.isStreaming() || options.isVirtual()){
+            result.error("INVALID_OPTIONS", "getChangesSince can't be streamed or virtual", null);
+            return;
+        }
+
+        // changes are never shared or cached, each token has its own answer.
+        new SongChangesTask(result, m_context, token).execute();
     }
 
     /**
@@ -184,45 +199,11 @@ public class SongLoader extends AbstractLoader {
 
         if ( (songIds != null) && (songIds.size() > 0) ){
              values = songIds.toArray(new String[songIds.size()] );
-             this.
-             createLoadTask(result, SONG_PROJECTION[0] + " =?", values, prepareIDsSongsSortOrder(songIds), QUERY_TYPE_DEFAULT)
-                     .execute();
+             runQuery(result, null, values, null, QUERY_TYPE_IDS_ORDER);
         }
         else result.success( new ArrayList<Map<String,Object>>() );
     }
 
-    /**
-     * This method creates a SQL CASE WHEN THEN in order to get specific songs
-     * from Media table where the query results is sorted matching [songIds] list values order.
-     *
-     * @param songIds Song ids list
-     * @return Sql String case when then or null if songIds size is not greater then 1.
-     */
-    private String prepareIDsSongsSortOrder(final List<String> songIds){
-        if (songIds.size() == 1)
-            return null;
-
-        StringBuilder orderStr = new StringBuilder("CASE ")
-                .append(MediaStore.MediaColumns._ID)
-                .append(" WHEN '")
-                .append(songIds.get(0))
-                .append("'")
-                .append(" THEN 0");
-
-        for(int i = 1; i < songIds.size(); i++){
-            orderStr.append(" WHEN '")
-                    .append( songIds.get(i) )
-                    .append("'")
-                    .append(" THEN ")
-                    .append(i);
-        }
-
-        orderStr.append(" END, ")
-                .append(MediaStore.MediaColumns._ID)
-                .append(" ASC");
-        return orderStr.toString();
-    }
-
     /**
      * This method queries for all songs that appears on specific album.
      *
@@ -236,8 +217,8 @@ public class SongLoader extends AbstractLoader {
        // Log.i("MFBG", "Art: " + artist + " album: " + albumId);
         String selection = MediaStore.Audio.Media.ALBUM_ID + " =?";
 
-       createLoadTask( result, selection, new String[] {albumId},
-               parseSortOrder(sortType), QUERY_TYPE_ALBUM_SONGS).execute();
+       runQuery( result, selection, new String[] {albumId},
+               parseSortOrder(sortType), QUERY_TYPE_ALBUM_SONGS);
     }
 
     /**
@@ -253,8 +234,8 @@ public class SongLoader extends AbstractLoader {
         String selection = MediaStore.Audio.Media.ALBUM_ID + " =?"
                 + " and " + MediaStore.Audio.Media.ARTIST + " =?";
 
-        createLoadTask( result, selection, new String[] {albumId, artist},
-                parseSortOrder(sortType), QUERY_TYPE_ALBUM_SONGS).execute();
+        runQuery( result, selection, new String[] {albumId, artist},
+                parseSortOrder(sortType), QUERY_TYPE_ALBUM_SONGS);
     }
     /**
      * This method queries songs from a specific artist.
@@ -265,9 +246,8 @@ public class SongLoader extends AbstractLoader {
     public void getSongsFromArtist(final MethodChannel.Result result, final String artistId,
                                    final SongSortType sortType ){
 
-        createLoadTask(result, MediaStore.Audio.Media.ARTIST_ID + " =?",
-                new String[] { artistId }, parseSortOrder(sortType), QUERY_TYPE_DEFAULT )
-                .execute();
+        runQuery(result, MediaStore.Audio.Media.ARTIST_ID + " =?",
+                new String[] { artistId }, parseSortOrder(sortType), QUERY_TYPE_DEFAULT );
     }
 
     /**
@@ -280,9 +260,8 @@ public class SongLoader extends AbstractLoader {
     public void getSongsFromGenre(final MethodChannel.Result result, final String genre,
                                   final SongSortType sortType){
 
-        createLoadTask(result, genre, null,
-                parseSortOrder( sortType), QUERY_TYPE_GENRE_SONGS )
-                .execute();
+        runQuery(result, genre, null,
+                parseSortOrder( sortType), QUERY_TYPE_GENRE_SONGS );
     }
 
     /**
@@ -296,6 +275,7 @@ public class SongLoader extends AbstractLoader {
 
         String[] selectionArgs;
         String sortOrder = null;
+        int type = QUERY_TYPE_DEFAULT;
         String selection = MediaStore.Audio.Media._ID;
 
         if (ids == null || ids.isEmpty()) {
@@ -307,7 +287,7 @@ public class SongLoader extends AbstractLoader {
             selectionArgs = ids.toArray( new String[ ids.size() ]);
 
             if(sortType == SongSortType.CURRENT_IDs_ORDER)
-                sortOrder = prepareIDsSongsSortOrder( ids );
+                type = QUERY_TYPE_IDS_ORDER;
         }
 
         else{
@@ -316,8 +296,8 @@ public class SongLoader extends AbstractLoader {
             selectionArgs = new String[]{ ids.get(0) };
         }
 
-        createLoadTask(result, selection, selectionArgs,
-                sortOrder, QUERY_TYPE_DEFAULT).execute();
+        runQuery(result, selection, selectionArgs,
+                sortOrder, type);
     }
 
 
@@ -330,8 +310,178 @@ public class SongLoader extends AbstractLoader {
 
     }
 
+    /**
+     * Reads song rows. It is used by load tasks and by window reads of virtual song results,
+     * so it must not depend on the task that created it.
+     */
+    private static class SongRowReader implements RowReader {
+        private final ContentResolver m_resolver;
+        private final CancellationSignal m_signal;
+        private final RowPlan m_plan;
+        private final boolean m_wantsUri, m_wantsArtwork;
+        private final int m_idIndex, m_albumIdIndex;
+        // loaded at the first row that needs it.
+        private Map<Long, String> m_artPaths;
+
+        SongRowReader(final ContentResolver resolver, final CancellationSignal signal,
+                      final Cursor cursor, final RowPlan plan,
+                      final boolean wantsUri, final boolean wantsArtwork){
+            m_resolver = resolver;
+            m_signal = signal;
+            m_plan = plan;
+            m_wantsUri = wantsUri;
+            m_wantsArtwork = wantsArtwork;
+            m_idIndex = cursor.getColumnIndex(MediaStore.Audio.Media._ID);
+            m_albumIdIndex = cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM_ID);
+        }
+
+        @Override
+        public void read(final Cursor cursor, final ResultBuilder builder) {
+            if (m_wantsUri) {
+                final Uri uri = ContentUris.appendId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI.buildUpon(),
+                        cursor.getLong(m_idIndex)).build();
+                builder.putString(FIELD_URI, uri.toString());
+            }
+
+            m_plan.decode(cursor, builder);
+
+            if (m_wantsArtwork) {
+                if (m_artPaths == null)
+                    m_artPaths = AlbumArtCache.paths(m_resolver, m_signal);
 
-    private static class SongTaskLoad extends AbstractLoadTask< List< Map<String,Object> > > {
+                builder.putString(FIELD_ALBUM_ARTWORK, m_artPaths.get(cursor.getLong(m_albumIdIndex)));
+            }
+        }
+    }
+
+    private static class SongChangesTask extends AbstractLoadTask<Map<String, Object>> {
+        private MethodChannel.Result m_result;
+        private final Context m_context;
+        private final String m_token;
+
+        SongChangesTask(final MethodChannel.Result result, final Context context, final String token){
+            super(result, null, null, null);
+            m_result = result;
+            m_context = context;
+            m_token = token;
+        }
+
+        @Override
+        protected void onPostExecute(Map<String, Object> data) {
+            super.onPostExecute(data);
+
+            if (data != null)
+                m_result.success(data);
+
+            m_result = null;
+        }
+
+        @Override
+        protected Map<String, Object> loadData(final String selection, final String[] selectionArgs,
+                                               final String sortOrder) {
+            final ChangeSnapshot previous = ChangeSnapshot.fromToken(m_context, m_token);
+            final ChangeSnapshot current = ChangeSnapshot.current(m_context, getCancellationSignal());
+            final boolean reset = (previous == null) || !previous.isComparableTo(current);
+
+            final ContentResolver resolver = m_context.getContentResolver();
+            final boolean wantsUri = getOptions().wants(FIELD_URI);
+            final boolean wantsArtwork = getOptions().wants(FIELD_ALBUM_ARTWORK);
+            final String insertedColumn = reset ? null : previous.insertedColumn();
+            final String[] projection = withColumn(getOptions().projection(SongLoader.SONG_PROJECTION,
+                    MediaStore.Audio.Media._ID,
+                    wantsArtwork ? MediaStore.Audio.Media.ALBUM_ID : null), insertedColumn);
+
+            ResultBuilder inserted = createResultBuilder();
+            ResultBuilder updated = createResultBuilder();
+            Cursor cursor;
+
+            try {
+                cursor = resolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, projection,
+                        reset ? null : previous.changedSelection(),
+                        reset ? null : previous.changedSelectionArgs(),
+                        MediaStore.Audio.Media._ID + " ASC", getCancellationSignal());
+            }
+
+            catch (OperationCanceledException ex){
+                throw ex;
+            }
+
+            catch (RuntimeException ex){
+                Log.e(TAG_ERROR, "SongLoader::SongChangesTask " + ex);
+                throw new QueryException("SONG_READ_ERROR", ex.getMessage());
+            }
+
+            if (cursor != null){
+                final RowReader reader = new SongRowReader(resolver, getCancellationSignal(), cursor,
+                        createRowPlan(cursor, getOptions().projection(SongLoader.SONG_PROJECTION),
+                                MediaStore.Audio.Media.IS_MUSIC,
+                                MediaStore.Audio.Media.IS_PODCAST,
+                                MediaStore.Audio.Media.IS_RINGTONE,
+                                MediaStore.Audio.Media.IS_ALARM,
+                                MediaStore.Audio.Media.IS_NOTIFICATION),
+                        wantsUri, wantsArtwork);
+                final int idIndex = cursor.getColumnIndex(MediaStore.Audio.Media._ID);
+                final int insertedIndex = (insertedColumn == null) ? -1 : cursor.getColumnIndex(insertedColumn);
+
+                while ( !isCancelled() && cursor.moveToNext() ){
+                    ResultBuilder builder = (reset || previous.isInserted(cursor, idIndex, insertedIndex)) ?
+                            inserted : updated;
+                    try {
+                        builder.beginRow();
+                        reader.read(cursor, builder);
+                        builder.endRow();
+                    }
+
+                    // a cancelled stream or query is not a row read error.
+                    catch (OperationCanceledException | QueryException ex){
+                        cursor.close();
+                        throw ex;
+                    }
+
+                    catch (Exception ex){
+                        builder.discardRow();
+                        Log.e(TAG_ERROR, "SongLoader::SongChangesTask exception");
+                        Log.e(TAG_ERROR, String.valueOf(ex.getMessage()) );
+                    }
+                }
+
+                cursor.close();
+            }
+
+            Map<String, Object> data = new HashMap<>();
+
+            try {
+                data.put(ChangeSnapshot.KEY_TOKEN, current.save(m_context));
+            }
+
+            catch (IOException ex){
+                // without a token the next call sends all songs again.
+                Log.e(TAG_ERROR, "SongLoader::SongChangesTask token not saved " + ex.getMessage());
+                data.put(ChangeSnapshot.KEY_TOKEN, null);
+            }
+
+            data.put(ChangeSnapshot.KEY_RESET, reset);
+            data.put(ChangeSnapshot.KEY_INSERTED, inserted.build());
+            data.put(ChangeSnapshot.KEY_UPDATED, updated.build());
+            data.put(ChangeSnapshot.KEY_DELETED,
+                    reset ? new ArrayList<String>() : previous.deletedIn(current));
+            return data;
+        }
+
+        /**
+         * @return projection with column at the end, or projection if column is null.
+         */
+        private static String[] withColumn(final String[] projection, final String column){
+            if (column == null)
+                return projection;
+
+            String[] columns = Arrays.copyOf(projection, projection.length + 1);
+            columns[projection.length] = column;
+            return columns;
+        }
+    }
+
+    private static class SongTaskLoad extends AbstractLoadTask<Object> {
         private MethodChannel.Result m_result;
         private ContentResolver m_resolver;
         private int m_queryType;
@@ -347,22 +497,22 @@ public class SongLoader extends AbstractLoader {
         SongTaskLoad(MethodChannel.Result result, ContentResolver m_resolver, String selection,
                      String[] selectionArgs, String sortOrder, int type){
 
-            super(selection, selectionArgs, sortOrder);
+            super(result, selection, selectionArgs, sortOrder);
             this.m_resolver = m_resolver;
             this.m_result =result;
             this.m_queryType = type;
         }
 
         @Override
-        protected void onPostExecute(List<Map<String, Object>> map) {
-            super.onPostExecute(map);
-            m_result.success(map);
+        protected void onPostExecute(Object data) {
+            super.onPostExecute(data);
+            m_result.success(pageResult(data));
             this.m_resolver = null;
             this.m_result = null;
         }
 
         @Override
-        protected List< Map<String,Object> > loadData(
+        protected Object loadData(
                 final String selection, final String [] selectionArgs,
                 final String sortOrder ){
 
@@ -371,187 +521,127 @@ public class SongLoader extends AbstractLoader {
                     // In this case the selection will be always by id.
                     // used for fetch songs for playlist or songs by id.
                     if ( (selectionArgs!=null) && (selectionArgs.length > 1) ){
-                        return basicLoad( createMultipleValueSelectionArgs(MediaStore.Audio.Media._ID,
-                                selectionArgs), selectionArgs, sortOrder);
+                        return idsLoad(selectionArgs, sortOrder);
 
                     } else
                         return  basicLoad(selection, selectionArgs, sortOrder);
 
+                case QUERY_TYPE_IDS_ORDER:
+                    return idsLoad(selectionArgs, null);
+
                 case QUERY_TYPE_ALBUM_SONGS:
                     //Log.i("MDBG", "new way");
                     return basicLoad(selection,selectionArgs,sortOrder);
 
                 case QUERY_TYPE_GENRE_SONGS:
-                    List<String> songIds = getSongIdsFromGenre(selection);
-                    int idCount = songIds.size();
-                    if ( idCount > 0){
-
-                        if (idCount > 1 ){
-                            String[] args = songIds.toArray( new String[idCount] );
-                            String createdSelection = createMultipleValueSelectionArgs(
-                                    MediaStore.Audio.Media._ID, args);
-                            return  basicLoad(
-                                    createdSelection,
-                                    args,sortOrder );
-                        }
-
-                        else {
-                            return basicLoad(MediaStore.Audio.Media._ID + " =?",
-                                    new String[]{ songIds.get(0)},
-                                    sortOrder );
-                        }
-                    }
+                    // in this case the genre name comes from selection param
+                    String[] songIds = GenreIndex.genre(m_resolver, selection, getCancellationSignal()).songIds();
+                    if (songIds.length > 0)
+                        return idsLoad(songIds, sortOrder);
                     break;
 
                 default:
                     break;
             }
 
-            return new ArrayList<>();
+            return getOptions().isVirtual() ? CursorHandles.emptyResult() : createResultBuilder().build();
+        }
+
+        private Object basicLoad(final String selection, final String[] selectionArgs,
+                                 final String sortOrder){
+            return basicLoad(null, selection, selectionArgs, sortOrder);
         }
 
         /**
-         * This method fetch song ids that appears on specific genre.
-         * @param genre genre name
-         * @return List of ids in string.
+         * Loads the songs whose ids are in ids. Large id lists are queried in chunks.
+         * Songs of {@link #QUERY_TYPE_IDS_ORDER} tasks come in the ids order.
+         * @param ids Song ids.
+         * @param sortOrder SQL sort order.
          */
-        private List<String> getSongIdsFromGenre(final String genre){
-           Cursor songIdsCursor = m_resolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                    new String[] {"Distinct " + MediaStore.Audio.Media._ID, "genre_name" },
-                    "genre_name" + " =?",new String[] {genre},null);
-
-           List<String> songIds = new ArrayList<>();
-
-           if (songIdsCursor != null){
-
-               while ( songIdsCursor.moveToNext() ){
-                   try {
-                       String id = songIdsCursor.getString(songIdsCursor.getColumnIndex(MediaStore.Audio.Media._ID));
-                       songIds.add(id);
-                   }
-                   catch (Exception ex){
-                       Log.e(TAG_ERROR, "SongLoader::getSonIdsFromGenre method exception");
-                       Log.e(TAG_ERROR, ex.getMessage() );
-                   }
-               }
-               songIdsCursor.close();
-           }
-
-           return songIds;
+        private Object idsLoad(final String[] ids, final String sortOrder){
+            return basicLoad(ids, null, null, sortOrder);
         }
 
-        private List<Map<String,Object>> basicLoad(final String selection, final String[] selectionArgs,
-                                                   final String sortOrder){
+        private Object basicLoad(final String[] ids, final String selection, final String[] selectionArgs,
+                                 final String sortOrder){
 
-            List< Map<String, Object> > dataList = new ArrayList<>();
+            ResultBuilder builder = createResultBuilder();
             Cursor songsCursor = null;
 
+            final boolean wantsUri = getOptions().wants(FIELD_URI);
+            final boolean wantsArtwork = getOptions().wants(FIELD_ALBUM_ARTWORK);
+
+            final String[] projection = getOptions().projection(SongLoader.SONG_PROJECTION,
+                    wantsUri ? MediaStore.Audio.Media._ID : null,
+                    wantsArtwork ? MediaStore.Audio.Media.ALBUM_ID : null);
+
             try{
-                songsCursor = m_resolver.query(
-                        MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                        SongLoader.SONG_PROJECTION, selection, selectionArgs, sortOrder );
+                if (ids == null)
+                    songsCursor = query(m_resolver, MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                            projection, selection, selectionArgs, sortOrder);
+
+                else if (m_queryType == QUERY_TYPE_IDS_ORDER)
+                    songsCursor = queryInIdsOrder(m_resolver, MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                            projection, MediaStore.Audio.Media._ID, ids);
+
+                else
+                    songsCursor = queryIds(m_resolver, MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                            projection, MediaStore.Audio.Media._ID, ids, sortOrder);
             }
 
-            catch (RuntimeException ex){
+            catch (OperationCanceledException | QueryException ex){
+                throw ex;
+            }
 
-                System.out.println("SongLoader::basicLoad " + ex);
-                m_result.error("SONG_READ_ERROR", ex.getMessage() , null);
+            catch (RuntimeException ex){
+                Log.e(TAG_ERROR, "SongLoader::basicLoad " + ex);
+                throw new QueryException("SONG_READ_ERROR", ex.getMessage());
             }
 
             if (songsCursor != null){
-                Map<String,String> albumArtMap = new HashMap<>();
-
-                while( songsCursor.moveToNext() ){
+                final RowReader reader = new SongRowReader(m_resolver,
+                        getOptions().isVirtual() ? null : getCancellationSignal(),
+                        songsCursor,
+                        createRowPlan(songsCursor, projection,
+                                MediaStore.Audio.Media.IS_MUSIC,
+                                MediaStore.Audio.Media.IS_PODCAST,
+                                MediaStore.Audio.Media.IS_RINGTONE,
+                                MediaStore.Audio.Media.IS_ALARM,
+                                MediaStore.Audio.Media.IS_NOTIFICATION),
+                        wantsUri, wantsArtwork);
+
+                // rows are read later by windows.
+                if (getOptions().isVirtual())
+                    return CursorHandles.open(songsCursor, reader, getOptions());
+
+                while ( !isCancelled() && songsCursor.moveToNext() ){
                     try {
-                        Map<String, Object> songData = new HashMap<>();
-                        for (String column : songsCursor.getColumnNames()){
-                            switch (column ){
-                                case MediaStore.Audio.Media._ID:
-                                    String id = songsCursor.getString( songsCursor.getColumnIndex(column));
-                                    final Uri uri = ContentUris.appendId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI.buildUpon(),
-                                            Long.parseLong( id )).build();
-                                    songData.put("uri" , uri.toString() );
-                                    songData.put(column, id);
-                                    break;
-                                    
-                                case MediaStore.Audio.Media.IS_MUSIC:
-                                case MediaStore.Audio.Media.IS_PODCAST:
-                                case MediaStore.Audio.Media.IS_RINGTONE:
-                                case MediaStore.Audio.Media.IS_ALARM:
-                                case MediaStore.Audio.Media.IS_NOTIFICATION:
-                                    songData.put(column,
-                                            (songsCursor.getInt(songsCursor.getColumnIndex(column)) != 0));
-                                    break;
-                                default:
-                                    songData.put(column, songsCursor.getString( songsCursor.getColumnIndex(column)) );
-                            }
-
-                        }
-
-
-                        String albumKey = songsCursor.getString(
-                                songsCursor.getColumnIndex(SONG_PROJECTION[4]));
-
-                        String artPath;
-                        if (!albumArtMap.containsKey(albumKey)) {
-
-                            artPath = getAlbumArtPathForSong(albumKey);
-                            albumArtMap.put(albumKey, artPath);
-
-                            //Log.i("MDBG", "song for album  " + albumKey + "adding path: " + artPath);
-                        }
-
-                        artPath = albumArtMap.get(albumKey);
-                        songData.put("album_artwork", artPath);
-                        dataList.add(songData);
+                        builder.beginRow();
+                        reader.read(songsCursor, builder);
+                        builder.endRow();
+                    }
+
+                    // a cancelled stream or query is not a row read error.
+                    catch (OperationCanceledException | QueryException ex){
+                        songsCursor.close();
+                        throw ex;
                     }
 
                     catch(Exception ex){
+                        builder.discardRow();
                         Log.e(TAG_ERROR, "SongLoader::basicLoad method exception");
                         Log.e(TAG_ERROR, ex.getMessage() );
                     }
                 }
 
+                endPage(songsCursor);
                 songsCursor.close();
             }
 
-            return dataList;
-        }
-
-        /**
-         * This method the image of the album if exists. If there is no album artwork
-         * null is returned
-         * @param album Album name that we want the artwork
-         * @return String with image path or null if there is no image.
-         */
-        private String getAlbumArtPathForSong(String album){
-            Cursor artCursor = m_resolver.query(
-                    MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI,
-                    SONG_ALBUM_PROJECTION,
-                    SONG_ALBUM_PROJECTION[0] +  " =?",
-                    new String[] {album},
-                    null);
-
-            String artPath = null;
-
-            if (artCursor !=null){
-                while (artCursor.moveToNext()) {
-
-                    try {
-                        artPath = artCursor.getString(artCursor.getColumnIndex(SONG_ALBUM_PROJECTION[1]));
-
-                    }
-
-                    catch (Exception ex) {
-                        Log.e(TAG_ERROR, "SongLoader::getAlbumArtPathForSong method exception");
-                        Log.e(TAG_ERROR, ex.getMessage());
-                    }
-                }
-
-                artCursor.close();
-            }
+            else if (getOptions().isVirtual())
+                return CursorHandles.emptyResult();
 
-            return artPath;
+            return builder.build();
         }
 
     }
@@ -0,0 +1,80 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders.formats;
+
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.ChunkSink;
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.QueryOptions;
+
+/**
+ * ChunkedResultBuilder is used for streamed queries. Rows are kept in a builder of the
+ * requested format and every time it has a chunk size of rows they are built and sent to
+ * a {@link ChunkSink}, so at most one chunk of rows is in memory while the cursor is read.
+ *
+ * <p>{@link #build()} sends the last rows and returns null, all rows were already sent.</p>
+ */
+public class ChunkedResultBuilder extends ResultBuilder {
+
+    private final QueryOptions m_options;
+    private final ChunkSink m_sink;
+    private ResultBuilder m_chunk;
+    private int m_sentRows = 0;
+
+    public ChunkedResultBuilder(final QueryOptions options, final ChunkSink sink){
+        m_options = options;
+        m_sink = sink;
+        m_chunk = create(options);
+    }
+
+    @Override
+    public void beginRow() {
+        m_chunk.beginRow();
+    }
+
+    @Override
+    public void putString(String column, String value) {
+        m_chunk.putString(column, value);
+    }
+
+    @Override
+    public void putLong(String column, long value) {
+        m_chunk.putLong(column, value);
+    }
+
+    @Override
+    public void putBoolean(String column, boolean value) {
+        m_chunk.putBoolean(column, value);
+    }
+
+    @Override
+    public void endRow() {
+        m_chunk.endRow();
+
+        if (m_chunk.getRowCount() >= m_options.getChunkSize())
+            flush();
+    }
+
+    @Override
+    public void discardRow() {
+        m_chunk.discardRow();
+    }
+
+    @Override
+    public int getRowCount() {
+        return m_sentRows + m_chunk.getRowCount();
+    }
+
+    @Override
+    public Object build() {
+        if (m_chunk.getRowCount() > 0)
+            flush();
+
+        return null;
+    }
+
+    private void flush(){
+        int rows = m_chunk.getRowCount();
+
+        // a failed send throws before the rows are counted as sent.
+        m_sink.send(m_chunk.build());
+        m_sentRows += rows;
+        m_chunk = create(m_options);
+    }
+}
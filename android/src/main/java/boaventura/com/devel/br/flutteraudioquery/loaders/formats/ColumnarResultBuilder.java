@@ -0,0 +1,265 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders.formats;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a column oriented binary result. Column names are written once and
+ * all strings, names included, are stored once in a string dictionary.
+ *
+ * <p>Payload layout, all numbers are big endian:</p>
+ * <pre>
+ * int32  magic "FAQC"
+ * int8   version
+ * int32  row count
+ * int32  dictionary size, then for each string: int32 byte length + UTF-8 bytes
+ * int32  column count, then for each column:
+ *        int32 name dictionary index, int8 type, values:
+ *        STRING  row count * int32 dictionary index, -1 for null
+ *        LONG    (row count + 7) / 8 null bitmap bytes + row count * int64
+ *        BOOLEAN row count * int8, 0 false, 1 true, -1 null
+ * </pre>
+ */
+public final class ColumnarResultBuilder extends ResultBuilder {
+
+    static final int MAGIC = 0x46415143;
+    static final byte VERSION = 1;
+
+    static final byte TYPE_STRING = 0;
+    static final byte TYPE_LONG = 1;
+    static final byte TYPE_BOOLEAN = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Map<String, Column> m_columns = new LinkedHashMap<>();
+    private final Map<String, Integer> m_dictionary = new HashMap<>();
+    private final List<String> m_strings = new ArrayList<>();
+    private int m_rowCount;
+
+    @Override
+    public void beginRow() {}
+
+    @Override
+    public void putString(final String column, final String value) {
+        // rows without value are null in columns of any type.
+        if (value == null)
+            return;
+
+        ((StringColumn) column(column, TYPE_STRING)).set(m_rowCount, intern(value));
+    }
+
+    @Override
+    public void putLong(final String column, final long value) {
+        ((LongColumn) column(column, TYPE_LONG)).set(m_rowCount, value);
+    }
+
+    @Override
+    public void putBoolean(final String column, final boolean value) {
+        ((BooleanColumn) column(column, TYPE_BOOLEAN)).set(m_rowCount, value);
+    }
+
+    @Override
+    public void endRow() {
+        m_rowCount++;
+    }
+
+    @Override
+    public void discardRow() {
+        for (Column column : m_columns.values())
+            column.truncate(m_rowCount);
+    }
+
+    @Override
+    public int getRowCount() {
+        return m_rowCount;
+    }
+
+    @Override
+    public Object build() {
+        byte[][] encoded = new byte[m_strings.size()][];
+        int size = 4 + 1 + 4 + 4 + 4;
+
+        for (int i = 0; i < encoded.length; i++){
+            encoded[i] = m_strings.get(i).getBytes(UTF_8);
+            size += 4 + encoded[i].length;
+        }
+
+        for (Column column : m_columns.values())
+            size += 4 + 1 + column.encodedSize(m_rowCount);
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+        buffer.putInt(m_rowCount);
+
+        buffer.putInt(encoded.length);
+        for (byte[] bytes : encoded){
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+
+        buffer.putInt(m_columns.size());
+        for (Column column : m_columns.values()){
+            buffer.putInt(column.m_name);
+            buffer.put(column.m_type);
+            column.write(buffer, m_rowCount);
+        }
+
+        return buffer.array();
+    }
+
+    private int intern(final String value){
+        Integer index = m_dictionary.get(value);
+
+        if (index == null){
+            index = m_strings.size();
+            m_strings.add(value);
+            m_dictionary.put(value, index);
+        }
+        return index;
+    }
+
+    private Column column(final String name, final byte type){
+        Column column = m_columns.get(name);
+
+        if (column == null){
+            switch (type){
+                case TYPE_LONG:
+                    column = new LongColumn(intern(name));
+                    break;
+
+                case TYPE_BOOLEAN:
+                    column = new BooleanColumn(intern(name));
+                    break;
+
+                default:
+                    column = new StringColumn(intern(name));
+            }
+            m_columns.put(name, column);
+        }
+
+        else if (column.m_type != type)
+            throw new IllegalArgumentException("Column " + name + " has values of different types");
+
+        return column;
+    }
+
+    private static int grow(final int capacity, final int minCapacity){
+        return Math.max(minCapacity, Math.max(16, capacity * 2));
+    }
+
+    /**
+     * Values of a single column. Rows without value are null.
+     */
+    private static abstract class Column {
+        final int m_name;
+        final byte m_type;
+        int m_size;
+
+        Column(final int name, final byte type){
+            m_name = name;
+            m_type = type;
+        }
+
+        void truncate(final int rows){
+            m_size = Math.min(m_size, rows);
+        }
+
+        abstract int encodedSize(final int rows);
+
+        abstract void write(final ByteBuffer buffer, final int rows);
+    }
+
+    private static final class StringColumn extends Column {
+        private int[] m_values = new int[0];
+
+        StringColumn(final int name){ super(name, TYPE_STRING); }
+
+        void set(final int row, final int value){
+            if (row >= m_values.length)
+                m_values = Arrays.copyOf(m_values, grow(m_values.length, row + 1));
+
+            Arrays.fill(m_values, m_size, row, -1);
+            m_values[row] = value;
+            m_size = row + 1;
+        }
+
+        @Override
+        int encodedSize(final int rows) { return rows * 4; }
+
+        @Override
+        void write(final ByteBuffer buffer, final int rows) {
+            for (int i = 0; i < rows; i++)
+                buffer.putInt( (i < m_size) ? m_values[i] : -1 );
+        }
+    }
+
+    private static final class LongColumn extends Column {
+        private long[] m_values = new long[0];
+        private boolean[] m_present = new boolean[0];
+
+        LongColumn(final int name){ super(name, TYPE_LONG); }
+
+        void set(final int row, final long value){
+            if (row >= m_values.length){
+                int capacity = grow(m_values.length, row + 1);
+                m_values = Arrays.copyOf(m_values, capacity);
+                m_present = Arrays.copyOf(m_present, capacity);
+            }
+
+            Arrays.fill(m_present, m_size, row, false);
+            m_values[row] = value;
+            m_present[row] = true;
+            m_size = row + 1;
+        }
+
+        @Override
+        int encodedSize(final int rows) { return ((rows + 7) / 8) + rows * 8; }
+
+        @Override
+        void write(final ByteBuffer buffer, final int rows) {
+            // bit set means null.
+            for (int i = 0; i < rows; i += 8){
+                int bits = 0;
+                for (int bit = 0; bit < 8 && (i + bit) < rows; bit++){
+                    if ( (i + bit) >= m_size || !m_present[i + bit] )
+                        bits |= 1 << bit;
+                }
+                buffer.put((byte) bits);
+            }
+
+            for (int i = 0; i < rows; i++)
+                buffer.putLong( (i < m_size && m_present[i]) ? m_values[i] : 0L );
+        }
+    }
+
+    private static final class BooleanColumn extends Column {
+        private byte[] m_values = new byte[0];
+
+        BooleanColumn(final int name){ super(name, TYPE_BOOLEAN); }
+
+        void set(final int row, final boolean value){
+            if (row >= m_values.length)
+                m_values = Arrays.copyOf(m_values, grow(m_values.length, row + 1));
+
+            Arrays.fill(m_values, m_size, row, (byte) -1);
+            m_values[row] = (byte) (value ? 1 : 0);
+            m_size = row + 1;
+        }
+
+        @Override
+        int encodedSize(final int rows) { return rows; }
+
+        @Override
+        void write(final ByteBuffer buffer, final int rows) {
+            for (int i = 0; i < rows; i++)
+                buffer.put( (i < m_size) ? m_values[i] : (byte) -1 );
+        }
+    }
+}
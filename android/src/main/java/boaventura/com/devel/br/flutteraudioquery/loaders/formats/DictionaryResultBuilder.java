@@ -0,0 +1,93 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders.formats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds a list of row maps like {@link MapResultBuilder} but values of columns that
+ * repeat a lot across rows, like artist and album names, are replaced by an index in a
+ * per response string table.
+ *
+ * <p>The result is a map with the string table in {@link #KEY_STRING_TABLE} and the rows
+ * in {@link #KEY_ROWS}. Each distinct value is kept once in memory and sent once.</p>
+ */
+public final class DictionaryResultBuilder extends ResultBuilder {
+
+    public static final String KEY_STRING_TABLE = "string_table";
+    public static final String KEY_ROWS = "rows";
+    public static final String KEY_DICTIONARY_COLUMNS = "dictionary_columns";
+
+    /** Columns that are sent as string table references. */
+    static final Set<String> DICTIONARY_COLUMNS = new HashSet<>(Arrays.asList(
+            "artist", "album", "composer", "album_artwork", "genre_name"));
+
+    private final List<Map<String, Object>> m_rows = new ArrayList<>();
+    private final List<String> m_strings = new ArrayList<>();
+    private final Map<String, Integer> m_references = new HashMap<>();
+    private Map<String, Object> m_row;
+
+    @Override
+    public void beginRow() {
+        m_row = new HashMap<>();
+    }
+
+    @Override
+    public void putString(final String column, final String value) {
+        if (value != null && DICTIONARY_COLUMNS.contains(column))
+            m_row.put(column, intern(value));
+        else
+            m_row.put(column, value);
+    }
+
+    @Override
+    public void putLong(final String column, final long value) {
+        m_row.put(column, value);
+    }
+
+    @Override
+    public void putBoolean(final String column, final boolean value) {
+        m_row.put(column, value);
+    }
+
+    @Override
+    public void endRow() {
+        m_rows.add(m_row);
+        m_row = null;
+    }
+
+    @Override
+    public void discardRow() {
+        m_row = null;
+    }
+
+    @Override
+    public int getRowCount() {
+        return m_rows.size();
+    }
+
+    @Override
+    public Object build() {
+        Map<String, Object> result = new HashMap<>();
+        result.put(KEY_STRING_TABLE, m_strings);
+        result.put(KEY_DICTIONARY_COLUMNS, new ArrayList<>(DICTIONARY_COLUMNS));
+        result.put(KEY_ROWS, m_rows);
+        return result;
+    }
+
+    // the same Integer instance is used by every row with this value.
+    private Integer intern(final String value){
+        Integer reference = m_references.get(value);
+
+        if (reference == null){
+            reference = m_strings.size();
+            m_strings.add(value);
+            m_references.put(value, reference);
+        }
+        return reference;
+    }
+}
@@ -0,0 +1,56 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders.formats;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the default result format, a list with one map for each row.
+ */
+public final class MapResultBuilder extends ResultBuilder {
+
+    private final List<Map<String, Object>> m_rows = new ArrayList<>();
+    private Map<String, Object> m_row;
+
+    @Override
+    public void beginRow() {
+        m_row = new HashMap<>();
+    }
+
+    @Override
+    public void putString(final String column, final String value) {
+        m_row.put(column, value);
+    }
+
+    @Override
+    public void putLong(final String column, final long value) {
+        m_row.put(column, value);
+    }
+
+    @Override
+    public void putBoolean(final String column, final boolean value) {
+        m_row.put(column, value);
+    }
+
+    @Override
+    public void endRow() {
+        m_rows.add(m_row);
+        m_row = null;
+    }
+
+    @Override
+    public void discardRow() {
+        m_row = null;
+    }
+
+    @Override
+    public int getRowCount() {
+        return m_rows.size();
+    }
+
+    @Override
+    public Object build() {
+        return m_rows;
+    }
+}
@@ -0,0 +1,53 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders.formats;
+
+import boaventura.com.devel.br.flutteraudioquery.loaders.tasks.QueryOptions;
+
+/**
+ * ResultBuilder receives query rows cell by cell and builds the object that is
+ * sent to dart as the query result. Each {@link QueryOptions.ResultFormat} has its own builder.
+ *
+ * <p>A row starts with {@link #beginRow()} and is kept only after {@link #endRow()}.
+ * A row that fails while it is being read can be dropped with {@link #discardRow()}.</p>
+ */
+public abstract class ResultBuilder {
+
+    /**
+     * @param options query options.
+     * @return A new builder for the result format in options.
+     */
+    public static ResultBuilder create(final QueryOptions options){
+        switch (options.getFormat()){
+            case COLUMNAR:
+                return new ColumnarResultBuilder();
+
+            case DICTIONARY:
+                return new DictionaryResultBuilder();
+
+            case MAP:
+            default:
+                return new MapResultBuilder();
+        }
+    }
+
+    public abstract void beginRow();
+
+    public abstract void putString(final String column, final String value);
+
+    public abstract void putLong(final String column, final long value);
+
+    public abstract void putBoolean(final String column, final boolean value);
+
+    public abstract void endRow();
+
+    public abstract void discardRow();
+
+    /**
+     * @return How many rows were kept until now.
+     */
+    public abstract int getRowCount();
+
+    /**
+     * @return The result object that will be sent to dart.
+     */
+    public abstract Object build();
+}
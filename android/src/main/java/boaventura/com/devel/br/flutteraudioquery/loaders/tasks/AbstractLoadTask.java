@@ -1,32 +1,59 @@
 package boaventura.com.devel.br.flutteraudioquery.loaders.tasks;
 
-import android.os.AsyncTask;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import boaventura.com.devel.br.flutteraudioquery.executor.QueryExecutor;
+import boaventura.com.devel.br.flutteraudioquery.loaders.formats.ChunkedResultBuilder;
+import boaventura.com.devel.br.flutteraudioquery.loaders.formats.ResultBuilder;
+import io.flutter.plugin.common.MethodChannel;
 
 /**
  *
  * This is the base class for classes that will do load data job on
- * background thread.
+ * background thread. The tasks are scheduled in {@link QueryExecutor} worker pool
+ * and the results are delivered in platform thread by {@link #onPostExecute(Object)}.
+ *
+ * <p>A task can be cancelled through its {@link CancellationSignal}. Subclasses must pass
+ * {@link #getCancellationSignal()} to ContentResolver queries and check {@link #isCancelled()}
+ * while reading cursors. Cancelled tasks never deliver a result.</p>
  *
  * @param <T> return type data
  */
-public abstract class AbstractLoadTask<T> extends AsyncTask<Void, Void, T>
+public abstract class AbstractLoadTask<T> implements Runnable
 {
 
-    //private MethodChannel.Result m_result;
+    private final MethodChannel.Result m_requestResult;
     private String m_selection, m_sortOrder;
     private String[] m_selectionArgs;
+    private final CancellationSignal m_cancellationSignal;
+    private final QueryOptions m_options;
+    private PageQuery m_page;
+    private String m_nextPageToken;
 
     /**
      * Constructor for AbstractLoadTask.
+     * @param result The result where data will be delivered. If it is a {@link QueryRequest}
+     *               this task is cancelled together with the request.
      * @param selection SQL selection param. WHERE clauses.
      * @param selectionArgs SQL Where clauses query values.
      * @param sortOrder Ordering.
      */
-    public AbstractLoadTask(final String selection, final String[] selectionArgs,
-                            final String sortOrder){
+    public AbstractLoadTask(final MethodChannel.Result result, final String selection,
+                            final String[] selectionArgs, final String sortOrder){
         this.m_selection =selection;
         this.m_sortOrder =sortOrder;
         this.m_selectionArgs = selectionArgs;
+        this.m_cancellationSignal = (result instanceof QueryRequest) ?
+                ((QueryRequest) result).getCancellationSignal() : new CancellationSignal();
+        this.m_options = QueryOptions.of(result);
+        this.m_requestResult = result;
     }
 
 
@@ -40,12 +67,237 @@ public abstract class AbstractLoadTask<T> extends AsyncTask<Void, Void, T>
     protected abstract T loadData(final String selection,
                                   final String[] selectionArgs, final String sortOrder);
 
+    /**
+     * The executor lane where this task should run. Tasks that only wait on
+     * ContentResolver queries should use the default {@link QueryExecutor.Lane#IO} lane.
+     * Streamed tasks wait on dart while they send chunks, so they run in the
+     * {@link QueryExecutor.Lane#STREAM} lane.
+     * @return The lane for this task.
+     */
+    protected QueryExecutor.Lane getLane(){
+        if (m_options.isStreaming() && (m_requestResult instanceof ChunkSink))
+            return QueryExecutor.Lane.STREAM;
+
+        return QueryExecutor.Lane.IO;
+    }
+
+    /**
+     * Schedules this task in the query executor.
+     */
+    public final void execute(){
+        QueryExecutor.instance().execute(getLane(), this);
+    }
+
+    /**
+     * Cancels this task. Running queries are aborted and no result is delivered.
+     */
+    public final void cancel(){
+        m_cancellationSignal.cancel();
+    }
+
+    public final boolean isCancelled(){
+        return m_cancellationSignal.isCanceled();
+    }
+
+    /**
+     * @return The signal that must be given to ContentResolver queries of this task.
+     */
+    protected final CancellationSignal getCancellationSignal(){
+        return m_cancellationSignal;
+    }
+
+    /**
+     * @return The options of the request that created this task.
+     */
+    protected final QueryOptions getOptions(){
+        return m_options;
+    }
+
+    /**
+     * @return A new builder for this task result as requested by {@link #getOptions()}.
+     * For streamed requests rows are sent in chunks by the builder and its build method
+     * returns null.
+     */
+    protected final ResultBuilder createResultBuilder(){
+        if (m_options.isStreaming() && (m_requestResult instanceof ChunkSink))
+            return new ChunkedResultBuilder(m_options, (ChunkSink) m_requestResult);
+
+        return ResultBuilder.create(m_options);
+    }
+
+    /**
+     * Reads a column value of the current cursor row. Numeric columns are read as Long
+     * when the request asked for typed values, other way values are read as String.
+     * @param cursor the cursor.
+     * @param column column name.
+     * @return Column value or null.
+     */
+    protected final Object readColumn(final Cursor cursor, final String column){
+        int index = cursor.getColumnIndex(column);
+
+        if (m_options.isTyped(column))
+            return cursor.isNull(index) ? null : cursor.getLong(index);
+
+        return cursor.getString(index);
+    }
+
+    /**
+     * Creates the row decoding plan for a cursor of this task.
+     * @param cursor the cursor.
+     * @param columns Columns to decode, in result order.
+     * @param booleanColumns Columns holding 0/1 values that are sent as booleans.
+     * @return The row plan.
+     */
+    protected final RowPlan createRowPlan(final Cursor cursor, final String[] columns,
+                                          final String... booleanColumns){
+        return new RowPlan(cursor, columns, m_options, booleanColumns);
+    }
+
+    /**
+     * Runs the main query of this task. If the request asked for a page only that page
+     * is queried, see {@link #endPage(Cursor)} and {@link #pageResult(Object)}.
+     * @param resolver content resolver.
+     * @param uri content uri.
+     * @param projection query projection.
+     * @param selection query selection.
+     * @param selectionArgs query selection args.
+     * @param sortOrder query sort order.
+     * @return The query cursor.
+     */
+    protected final Cursor query(final ContentResolver resolver, final Uri uri, final String[] projection,
+                                 final String selection, final String[] selectionArgs, final String sortOrder){
+        if (!m_options.isPaged())
+            return resolver.query(uri, projection, selection, selectionArgs, sortOrder, m_cancellationSignal);
+
+        m_page = new PageQuery(m_options, selection, selectionArgs, sortOrder);
+        return m_page.query(resolver, uri, projection, m_cancellationSignal);
+    }
+
+    /**
+     * Runs the main query of this task for the rows whose idColumn is in ids. Large id lists
+     * are queried in parallel chunks by {@link IdSetQuery} and merged in the requested order,
+     * paged requests of large lists get their page from the merged rows in memory. Lists that
+     * fit in a single chunk use {@link #query(ContentResolver, Uri, String[], String, String[], String)}.
+     * @param resolver content resolver.
+     * @param uri content uri.
+     * @param projection query projection.
+     * @param idColumn the column matched with the ids.
+     * @param ids the ids.
+     * @param sortOrder query sort order. A chunked query without sort order keeps the ids order.
+     * @return The query cursor.
+     */
+    protected final Cursor queryIds(final ContentResolver resolver, final Uri uri, final String[] projection,
+                                    final String idColumn, final String[] ids, final String sortOrder){
+        if (ids.length <= IdSetQuery.MAX_CHUNK_IDS)
+            return query(resolver, uri, projection, IdSetQuery.inSelection(idColumn, ids.length), ids, sortOrder);
+
+        if (!m_options.isPaged())
+            return IdSetQuery.query(resolver, uri, projection, idColumn, ids, sortOrder, m_cancellationSignal);
+
+        // the page is checked before the chunks are queried, a bad token costs no query.
+        m_page = new PageQuery(m_options, idColumn, ids, sortOrder, false);
+        return m_page.window(
+                IdSetQuery.query(resolver, uri, projection, idColumn, ids, sortOrder, m_cancellationSignal));
+    }
+
+    /**
+     * Runs the main query of this task for the rows whose idColumn is in ids. Rows come in
+     * the same order of ids, see {@link IdSetQuery#queryInIdsOrder}. The result is never paged.
+     * @param resolver content resolver.
+     * @param uri content uri.
+     * @param projection query projection.
+     * @param idColumn the column matched with the ids.
+     * @param ids the ids.
+     * @return The query cursor.
+     */
+    protected final Cursor queryInIdsOrder(final ContentResolver resolver, final Uri uri,
+                                           final String[] projection, final String idColumn,
+                                           final String[] ids){
+        return IdSetQuery.queryInIdsOrder(resolver, uri, projection, idColumn, ids, m_cancellationSignal);
+    }
+
+    /**
+     * Runs a secondary query of this task for all rows whose idColumn is in ids, in no given
+     * order. Large id lists are queried in chunks, see {@link IdSetQuery#queryAll}.
+     * @param resolver content resolver.
+     * @param uri content uri.
+     * @param projection query projection.
+     * @param idColumn the column matched with the ids, it can repeat in many rows.
+     * @param ids the ids.
+     * @return The query cursor.
+     */
+    protected final Cursor queryAllIds(final ContentResolver resolver, final Uri uri,
+                                       final String[] projection, final String idColumn,
+                                       final String[] ids){
+        return IdSetQuery.queryAll(resolver, uri, projection, idColumn, ids, m_cancellationSignal);
+    }
+
+    /**
+     * Must be called with the cursor returned by {@link #query(ContentResolver, Uri, String[], String, String[], String)}
+     * before it is closed, so the next page token can be made.
+     * @param cursor the main query cursor.
+     */
+    protected final void endPage(final Cursor cursor){
+        if (m_page != null && cursor != null)
+            m_nextPageToken = m_page.nextToken(cursor);
+    }
+
+    /**
+     * @param data The task data.
+     * @return data as it is, or a map with the data rows and the next page token if the
+     * request asked for a page.
+     */
+    protected final Object pageResult(final Object data){
+        if (!m_options.isPaged())
+            return data;
+
+        Map<String, Object> page = new HashMap<>();
+        page.put(PageQuery.KEY_ROWS, data);
+        page.put(PageQuery.KEY_NEXT_PAGE_TOKEN, m_nextPageToken);
+        return page;
+    }
+
     @Override
-    protected T doInBackground(Void... voids) {
+    public final void run() {
+        if (isCancelled())
+            return;
+
+        final T data;
+        try {
+            data = doInBackground();
+        }
+        catch (OperationCanceledException ex){
+            return;
+        }
+        catch (final QueryException ex){
+            QueryExecutor.instance().postResult(new Runnable() {
+                @Override
+                public void run() {
+                    m_requestResult.error(ex.getCode(), ex.getMessage(), null);
+                }
+            });
+            return;
+        }
+
+        if (isCancelled())
+            return;
+
+        QueryExecutor.instance().postResult(new Runnable() {
+            @Override
+            public void run() {
+                onPostExecute(data);
+            }
+        });
+    }
+
+    protected T doInBackground() {
         return loadData(m_selection, m_selectionArgs, m_sortOrder);
     }
 
-    @Override
+    /**
+     * Called on platform thread with the data loaded in background.
+     * @param data Data returned by {@link #loadData(String, String[], String)}.
+     */
     protected void onPostExecute(T data){
         m_selectionArgs = null;
         m_selection = null;
@@ -0,0 +1,60 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders.tasks;
+
+import android.os.CancellationSignal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CancelListeners lets many listeners wait on a single CancellationSignal. A signal keeps
+ * only one OnCancelListener, so the signal owner installs this object as that listener and
+ * everyone else registers here through {@link QueryRequest#addOnCancelListener}.
+ *
+ * <p>Each listener runs once. Listeners added after the signal was cancelled run at once.</p>
+ */
+public final class CancelListeners {
+
+    private final List<CancellationSignal.OnCancelListener> m_listeners = new ArrayList<>();
+    private boolean m_cancelled = false;
+
+    /**
+     * Takes the listener slot of signal. Only the signal owner should create it.
+     * @param signal the signal.
+     */
+    public CancelListeners(final CancellationSignal signal){
+        signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                fire();
+            }
+        });
+    }
+
+    /**
+     * @param listener listener that runs when the signal is cancelled.
+     */
+    public void add(final CancellationSignal.OnCancelListener listener){
+        synchronized (m_listeners){
+            if (!m_cancelled){
+                m_listeners.add(listener);
+                return;
+            }
+        }
+        listener.onCancel();
+    }
+
+    private void fire(){
+        List<CancellationSignal.OnCancelListener> listeners;
+        synchronized (m_listeners){
+            if (m_cancelled)
+                return;
+
+            m_cancelled = true;
+            listeners = new ArrayList<>(m_listeners);
+            m_listeners.clear();
+        }
+
+        for (CancellationSignal.OnCancelListener listener : listeners)
+            listener.onCancel();
+    }
+}
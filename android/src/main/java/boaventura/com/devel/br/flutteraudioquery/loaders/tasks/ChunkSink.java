@@ -0,0 +1,16 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders.tasks;
+
+/**
+ * ChunkSink receives the pieces of a streamed query result while the query cursor
+ * is still being read. See {@link QueryOptions#isStreaming()}.
+ */
+public interface ChunkSink {
+
+    /**
+     * Sends a chunk of result rows to dart. It is called in the task worker thread and
+     * waits while dart has too many chunks that it has not read yet.
+     * @param chunk The chunk rows in the request result format.
+     * @throws android.os.OperationCanceledException if the request is cancelled while waiting.
+     */
+    void send(final Object chunk);
+}
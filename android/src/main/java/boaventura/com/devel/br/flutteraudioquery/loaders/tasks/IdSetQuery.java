@@ -0,0 +1,529 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders.tasks;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.MergeCursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import boaventura.com.devel.br.flutteraudioquery.executor.QueryExecutor;
+
+/**
+ * IdSetQuery queries the rows of a large id list without binding all ids in a single
+ * "IN(?,?,...)" selection, which fails over the SQLite bound variables limit.
+ *
+ * <p>The ids are split in chunks of at most {@link #MAX_CHUNK_IDS} and each chunk is queried
+ * in parallel in the {@link QueryExecutor.Lane#IO} lane. The caller thread runs the chunks that
+ * no worker took yet, so a busy pool never blocks it. The chunk cursors are merged in a single
+ * cursor and their rows are put in order in memory: by the sort order columns when there is
+ * a sort order, other way in the id list order. Only the requested rows are read, the table
+ * is never scanned to rank them.</p>
+ *
+ * <p>Sort orders must be a list of plain columns with an optional ASC or DESC, like all the
+ * loader sort orders. Values are compared like SQLite does without a collation: nulls first,
+ * then numbers, then text. Other sort orders keep the id list order.</p>
+ *
+ * <p>{@link #queryInIdsOrder} keeps the id list order for lists of any size, so callers never
+ * need a "CASE _id WHEN ... THEN" sort order.</p>
+ */
+final class IdSetQuery {
+
+    /** Ids bound in each chunk query, well under the SQLite limit of 999 variables. */
+    static final int MAX_CHUNK_IDS = 500;
+
+    private static final Pattern SORT_TERM =
+            Pattern.compile("^\\s*(\\w+)(?:\\s+(ASC|DESC))?\\s*$", Pattern.CASE_INSENSITIVE);
+
+    private IdSetQuery(){}
+
+    /**
+     * @param resolver content resolver.
+     * @param uri content uri.
+     * @param projection query projection. The id and sort columns are added when they are missing.
+     * @param idColumn the column matched with the ids.
+     * @param ids the ids.
+     * @param sortOrder query sort order or null to keep the ids order.
+     * @param signal cancellation signal.
+     * @return A cursor with the rows in the requested order. Rows of duplicated ids come once.
+     */
+    static Cursor query(final ContentResolver resolver, final Uri uri, final String[] projection,
+                        final String idColumn, final String[] ids, final String sortOrder,
+                        final CancellationSignal signal){
+
+        List<String> sortColumns = new ArrayList<>();
+        List<Boolean> descending = new ArrayList<>();
+        boolean sorted = (sortOrder != null) && parseSortOrder(sortOrder, sortColumns, descending);
+
+        String[] chunkProjection = withColumn(projection, idColumn);
+        if (sorted){
+            for (String column : sortColumns)
+                chunkProjection = withColumn(chunkProjection, column);
+        }
+
+        Cursor merged = queryChunks(resolver, uri, chunkProjection, idColumn, ids, signal);
+        int[] order = rowOrder(merged, merged.getColumnIndex(idColumn), ids);
+
+        if (sorted)
+            order = sortRows(merged, order, sortColumns, descending);
+
+        return new OrderedCursor(merged, order);
+    }
+
+    /**
+     * Queries every row whose idColumn is in ids, in no given order. Unlike
+     * {@link #query} rows are not deduplicated, so idColumn can be a column shared by many
+     * rows like an album id.
+     * @param resolver content resolver.
+     * @param uri content uri.
+     * @param projection query projection.
+     * @param idColumn the column matched with the ids.
+     * @param ids the ids.
+     * @param signal cancellation signal.
+     * @return The rows cursor.
+     */
+    static Cursor queryAll(final ContentResolver resolver, final Uri uri, final String[] projection,
+                           final String idColumn, final String[] ids, final CancellationSignal signal){
+        if (ids.length <= MAX_CHUNK_IDS)
+            return resolver.query(uri, projection, inSelection(idColumn, ids.length), ids, null, signal);
+
+        return queryChunks(resolver, uri, projection, idColumn, ids, signal);
+    }
+
+    /**
+     * Queries the chunks of ids in parallel.
+     * @return The chunk cursors merged in a single cursor, in chunk order.
+     */
+    private static Cursor queryChunks(final ContentResolver resolver, final Uri uri, final String[] projection,
+                                      final String idColumn, final String[] ids,
+                                      final CancellationSignal signal){
+        List<FutureTask<Cursor>> chunks = new ArrayList<>();
+
+        for (int from = 0; from < ids.length; from += MAX_CHUNK_IDS){
+            final String[] args = Arrays.copyOfRange(ids, from, Math.min(ids.length, from + MAX_CHUNK_IDS));
+            final String selection = inSelection(idColumn, args.length);
+
+            chunks.add(new FutureTask<>(new Callable<Cursor>() {
+                @Override
+                public Cursor call() {
+                    return resolver.query(uri, projection, selection, args, null, signal);
+                }
+            }));
+        }
+
+        QueryExecutor executor = QueryExecutor.instance();
+        for (FutureTask<Cursor> chunk : chunks)
+            executor.execute(QueryExecutor.Lane.IO, chunk);
+
+        // tasks already taken by a worker return at once here.
+        for (FutureTask<Cursor> chunk : chunks)
+            chunk.run();
+
+        List<Cursor> cursors = new ArrayList<>();
+        try {
+            for (FutureTask<Cursor> chunk : chunks){
+                Cursor cursor = await(chunk);
+                if (cursor != null)
+                    cursors.add(cursor);
+            }
+        }
+        catch (RuntimeException ex){
+            closeAll(chunks);
+            throw ex;
+        }
+
+        return new MergeCursor(cursors.toArray(new Cursor[cursors.size()]));
+    }
+
+    /**
+     * @param cursor a cursor.
+     * @param offset first row of the window.
+     * @param limit max rows of the window.
+     * @return A cursor with the rows of cursor from offset, at most limit. Closing it closes cursor.
+     */
+    static Cursor window(final Cursor cursor, final int offset, final int limit){
+        int from = Math.min(Math.max(offset, 0), cursor.getCount());
+        int to = Math.min(cursor.getCount(), from + limit);
+
+        int[] order = new int[to - from];
+        for (int i = 0; i < order.length; i++)
+            order[i] = from + i;
+
+        return new OrderedCursor(cursor, order);
+    }
+
+    static String inSelection(final String column, final int count){
+        StringBuilder builder = new StringBuilder(column).append(" IN(?");
+        for (int i = 1; i < count; i++)
+            builder.append(",?");
+
+        return builder.append(')').toString();
+    }
+
+    private static String[] withColumn(final String[] projection, final String column){
+        if (projection == null || Arrays.asList(projection).contains(column))
+            return projection;
+
+        String[] columns = Arrays.copyOf(projection, projection.length + 1);
+        columns[projection.length] = column;
+        return columns;
+    }
+
+    /**
+     * Queries the rows of ids and shows them in the same order of ids, without a SQL
+     * sort expression. Rows are put in place in memory with an id to row map.
+     * @param resolver content resolver.
+     * @param uri content uri.
+     * @param projection query projection. The id column is added when it is missing.
+     * @param idColumn the column matched with the ids.
+     * @param ids the ids.
+     * @param signal cancellation signal.
+     * @return A cursor with the rows in ids order. Rows of duplicated ids come once.
+     */
+    static Cursor queryInIdsOrder(final ContentResolver resolver, final Uri uri, final String[] projection,
+                                  final String idColumn, final String[] ids, final CancellationSignal signal){
+        if (ids.length > MAX_CHUNK_IDS)
+            return query(resolver, uri, projection, idColumn, ids, null, signal);
+
+        Cursor cursor = resolver.query(uri, withColumn(projection, idColumn),
+                inSelection(idColumn, ids.length), ids, null, signal);
+        if (cursor == null)
+            return null;
+
+        return new OrderedCursor(cursor, rowOrder(cursor, cursor.getColumnIndex(idColumn), ids));
+    }
+
+    /**
+     * @return The cursor row of each result position, in ids order.
+     */
+    private static int[] rowOrder(final Cursor cursor, final int idIndex, final String[] ids){
+        long[] rowIds = new long[cursor.getCount()];
+        for (int row = 0; cursor.moveToPosition(row); row++)
+            rowIds[row] = cursor.getLong(idIndex);
+
+        return rowOrder(rowIds, ids);
+    }
+
+    /**
+     * @param rowIds the id of each row.
+     * @param ids the requested ids.
+     * @return The row of each result position, in ids order. An id comes once, with its first
+     * row, and ids that no row has are left out.
+     */
+    static int[] rowOrder(final long[] rowIds, final String[] ids){
+        LongIntMap rows = new LongIntMap(rowIds.length);
+        for (int row = 0; row < rowIds.length; row++){
+            if (rows.get(rowIds[row]) < 0)
+                rows.put(rowIds[row], row);
+        }
+
+        int[] order = new int[rows.size()];
+        int size = 0;
+
+        for (String id : ids){
+            try {
+                size = take(rows, Long.parseLong(id), order, size);
+            }
+            catch (NumberFormatException ex){
+                // not an id, no row has it.
+            }
+        }
+
+        return (size == order.length) ? order : Arrays.copyOf(order, size);
+    }
+
+    /**
+     * @param sortOrder SQL sort order.
+     * @param columns receives the sort columns.
+     * @param descending receives the direction of each sort column.
+     * @return false if the sort order is not a list of plain columns.
+     */
+    private static boolean parseSortOrder(final String sortOrder, final List<String> columns,
+                                          final List<Boolean> descending){
+        for (String term : sortOrder.split(",")){
+            Matcher matcher = SORT_TERM.matcher(term);
+            if (!matcher.matches())
+                return false;
+
+            columns.add(matcher.group(1));
+            descending.add("DESC".equalsIgnoreCase(matcher.group(2)));
+        }
+
+        return !columns.isEmpty();
+    }
+
+    /**
+     * Sorts rows by the values of the sort columns. Rows with the same values keep their order.
+     * @return The sorted rows.
+     */
+    private static int[] sortRows(final Cursor cursor, final int[] rows, final List<String> columns,
+                                  final List<Boolean> descending){
+        int keyCount = columns.size();
+        Object[][] keys = new Object[rows.length][keyCount];
+        boolean[] desc = new boolean[keyCount];
+        int[] indexes = new int[keyCount];
+
+        for (int k = 0; k < keyCount; k++){
+            indexes[k] = cursor.getColumnIndex(columns.get(k));
+            desc[k] = descending.get(k);
+        }
+
+        for (int i = 0; i < rows.length; i++){
+            cursor.moveToPosition(rows[i]);
+            for (int k = 0; k < keyCount; k++)
+                keys[i][k] = sortValue(cursor, indexes[k]);
+        }
+
+        int[] positions = sortedPositions(keys, desc);
+        int[] sorted = new int[rows.length];
+        for (int i = 0; i < rows.length; i++)
+            sorted[i] = rows[positions[i]];
+
+        return sorted;
+    }
+
+    /**
+     * Sorts the key rows with {@link #compareValues}. Rows with the same keys keep their order.
+     * @param keys the sort values of each row.
+     * @param descending the direction of each sort column.
+     * @return The positions of the key rows in sorted order.
+     */
+    static int[] sortedPositions(final Object[][] keys, final boolean[] descending){
+        final int keyCount = descending.length;
+        Integer[] positions = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++)
+            positions[i] = i;
+
+        Arrays.sort(positions, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                for (int k = 0; k < keyCount; k++){
+                    int result = compareValues(keys[a][k], keys[b][k]);
+                    if (result != 0)
+                        return descending[k] ? -result : result;
+                }
+                return 0;
+            }
+        });
+
+        int[] sorted = new int[keys.length];
+        for (int i = 0; i < keys.length; i++)
+            sorted[i] = positions[i];
+
+        return sorted;
+    }
+
+    private static Object sortValue(final Cursor cursor, final int index){
+        if (index < 0)
+            return null;
+
+        switch (cursor.getType(index)){
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(index);
+
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(index);
+
+            default:
+                return cursor.getString(index);
+        }
+    }
+
+    /**
+     * Compares two values like SQLite with the BINARY collation: null, then numbers, then text.
+     * Text is compared by code point, which is the order of its UTF-8 bytes.
+     */
+    static int compareValues(final Object a, final Object b){
+        int rankA = valueRank(a);
+        int rankB = valueRank(b);
+        if (rankA != rankB)
+            return (rankA < rankB) ? -1 : 1;
+
+        if (rankA == 0)
+            return 0;
+
+        if (rankA == 1){
+            if (a instanceof Long && b instanceof Long){
+                long longA = (Long) a;
+                long longB = (Long) b;
+                return (longA < longB) ? -1 : ((longA == longB) ? 0 : 1);
+            }
+
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+
+        return compareText((String) a, (String) b);
+    }
+
+    /**
+     * String.compareTo compares UTF-16 chars, so it puts characters out of the basic plane,
+     * stored as surrogate pairs, before characters like U+FF5E. SQLite compares UTF-8 bytes,
+     * which give the code point order.
+     */
+    private static int compareText(final String a, final String b){
+        int i = 0;
+        int j = 0;
+
+        while (i < a.length() && j < b.length()){
+            int codePointA = a.codePointAt(i);
+            int codePointB = b.codePointAt(j);
+            if (codePointA != codePointB)
+                return (codePointA < codePointB) ? -1 : 1;
+
+            i += Character.charCount(codePointA);
+            j += Character.charCount(codePointB);
+        }
+
+        int restA = a.length() - i;
+        int restB = b.length() - j;
+        return (restA < restB) ? -1 : ((restA == restB) ? 0 : 1);
+    }
+
+    private static int valueRank(final Object value){
+        if (value == null)
+            return 0;
+
+        return (value instanceof Number) ? 1 : 2;
+    }
+
+    /**
+     * Appends the row of id to order, once.
+     * @return The new order size.
+     */
+    private static int take(final LongIntMap rows, final long id, final int[] order, final int size){
+        int row = rows.get(id);
+        if (row < 0)
+            return size;
+
+        rows.put(id, -1);
+        order[size] = row;
+        return size + 1;
+    }
+
+    private static <T> T await(final FutureTask<T> task){
+        try {
+            return task.get();
+        }
+        catch (InterruptedException ex){
+            Thread.currentThread().interrupt();
+            throw new OperationCanceledException();
+        }
+        catch (ExecutionException ex){
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    private static void closeAll(final List<FutureTask<Cursor>> chunks){
+        for (FutureTask<Cursor> chunk : chunks){
+            try {
+                Cursor cursor = await(chunk);
+                if (cursor != null)
+                    cursor.close();
+            }
+            catch (RuntimeException ignored){
+                // this chunk failed, nothing to close.
+            }
+        }
+    }
+
+    /**
+     * A cursor that shows the rows of another cursor in a given order.
+     */
+    private static final class OrderedCursor extends CursorWrapper {
+        private final int[] m_order;
+        private int m_position = -1;
+
+        OrderedCursor(final Cursor cursor, final int[] order){
+            super(cursor);
+            m_order = order;
+        }
+
+        @Override
+        public int getCount() {
+            return m_order.length;
+        }
+
+        @Override
+        public int getPosition() {
+            return m_position;
+        }
+
+        @Override
+        public boolean moveToPosition(final int position) {
+            if (position < 0){
+                m_position = -1;
+                return false;
+            }
+
+            if (position >= m_order.length){
+                m_position = m_order.length;
+                return false;
+            }
+
+            m_position = position;
+            return super.moveToPosition(m_order[position]);
+        }
+
+        @Override
+        public boolean move(final int offset) {
+            return moveToPosition(m_position + offset);
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            return moveToPosition(0);
+        }
+
+        @Override
+        public boolean moveToLast() {
+            return moveToPosition(m_order.length - 1);
+        }
+
+        @Override
+        public boolean moveToNext() {
+            return moveToPosition(m_position + 1);
+        }
+
+        @Override
+        public boolean moveToPrevious() {
+            return moveToPosition(m_position - 1);
+        }
+
+        @Override
+        public boolean isFirst() {
+            return m_order.length > 0 && m_position == 0;
+        }
+
+        @Override
+        public boolean isLast() {
+            return m_order.length > 0 && m_position == m_order.length - 1;
+        }
+
+        @Override
+        public boolean isBeforeFirst() {
+            return m_order.length == 0 || m_position == -1;
+        }
+
+        @Override
+        public boolean isAfterLast() {
+            return m_order.length == 0 || m_position == m_order.length;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders.tasks;
+
+/**
+ * LongIntMap is a small open addressing map from long ids to int positions. It keeps keys
+ * and values in primitive arrays so a map of thousands of ids creates no boxed objects.
+ * Values must not be negative, {@link #get(long)} returns -1 for missing keys.
+ */
+final class LongIntMap {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] m_keys;
+    private int[] m_values;
+    private boolean[] m_used;
+    private int m_size = 0;
+
+    /**
+     * @param expectedSize How many keys the map will hold.
+     */
+    LongIntMap(final int expectedSize){
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize)
+            capacity <<= 1;
+
+        m_keys = new long[capacity];
+        m_values = new int[capacity];
+        m_used = new boolean[capacity];
+    }
+
+    int size(){ return m_size; }
+
+    /**
+     * @param key the key.
+     * @return The value of key or -1 if the map has no key.
+     */
+    int get(final long key){
+        int slot = slot(key);
+        return m_used[slot] ? m_values[slot] : -1;
+    }
+
+    /**
+     * Puts or replaces the value of key.
+     * @param key the key.
+     * @param value a value greater or equal to 0, or -1 to mark key as taken.
+     */
+    void put(final long key, final int value){
+        int slot = slot(key);
+        if (!m_used[slot]){
+            if ( (m_size + 1) > m_keys.length * LOAD_FACTOR ){
+                grow();
+                slot = slot(key);
+            }
+
+            m_used[slot] = true;
+            m_keys[slot] = key;
+            m_size++;
+        }
+        m_values[slot] = value;
+    }
+
+    private int slot(final long key){
+        int mask = m_keys.length - 1;
+        int slot = hash(key) & mask;
+
+        while (m_used[slot] && m_keys[slot] != key)
+            slot = (slot + 1) & mask;
+
+        return slot;
+    }
+
+    private void grow(){
+        long[] keys = m_keys;
+        int[] values = m_values;
+        boolean[] used = m_used;
+
+        m_keys = new long[keys.length << 1];
+        m_values = new int[keys.length << 1];
+        m_used = new boolean[keys.length << 1];
+
+        for (int i = 0; i < keys.length; i++){
+            if (used[i]){
+                int slot = slot(keys[i]);
+                m_used[slot] = true;
+                m_keys[slot] = keys[i];
+                m_values[slot] = values[i];
+            }
+        }
+    }
+
+    private static int hash(final long key){
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
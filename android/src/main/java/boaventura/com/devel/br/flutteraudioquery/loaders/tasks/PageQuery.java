@@ -0,0 +1,259 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders.tasks;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.util.Base64;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * PageQuery turns a query into the query of a single page with at most "limit" rows.
+ *
+ * <p>When the query is sorted by a single column the next pages are found by keyset, rows
+ * after the (sort value, _id) of the last row, so each page costs the same no matter how
+ * deep it is. Other sort orders fall back to offset paging. The position of the next page
+ * is sent to dart as an opaque token that is only valid for the same selection, selection
+ * args and sort order.</p>
+ *
+ * <p>On Android R and above the limit and offset go in the ContentResolver query Bundle
+ * arguments, older versions get them appended to the SQL sort order.</p>
+ *
+ * <p>Queries of long id lists can't be paged in SQL because all ids would be bound in a
+ * single selection. They page in memory: the whole id list is queried in chunks and
+ * {@link #window(Cursor)} shows the page rows, always in offset mode.</p>
+ */
+final class PageQuery {
+
+    static final String KEY_ROWS = "rows";
+    static final String KEY_NEXT_PAGE_TOKEN = "next_page_token";
+
+    private static final int TOKEN_VERSION = 2;
+    private static final String ID = "_id";
+    private static final Pattern SIMPLE_SORT_ORDER =
+            Pattern.compile("^\\s*(\\w+)(?:\\s+(ASC|DESC))?\\s*$", Pattern.CASE_INSENSITIVE);
+
+    private final int m_limit;
+    private final int m_offset;
+    private final String m_signature;
+
+    // keyset sort column or null in offset mode.
+    private final String m_sortColumn;
+    private final boolean m_descending;
+
+    private final String m_selection;
+    private final String[] m_selectionArgs;
+    private final String m_sortOrder;
+
+    /**
+     * @param options paged query options.
+     * @param selection query selection.
+     * @param selectionArgs query selection args.
+     * @param sortOrder query sort order.
+     * @throws InvalidPageTokenException if the options page token can't be used with this query.
+     */
+    PageQuery(final QueryOptions options, final String selection,
+              final String[] selectionArgs, final String sortOrder){
+        this(options, selection, selectionArgs, sortOrder, true);
+    }
+
+    /**
+     * @param options paged query options.
+     * @param selection query selection.
+     * @param selectionArgs query selection args.
+     * @param sortOrder query sort order.
+     * @param allowKeyset false to page by offset only, as {@link #window(Cursor)} needs.
+     * @throws InvalidPageTokenException if the options page token can't be used with this query.
+     */
+    PageQuery(final QueryOptions options, final String selection,
+              final String[] selectionArgs, final String sortOrder, final boolean allowKeyset){
+        m_limit = options.getLimit();
+        m_signature = signature(selection, selectionArgs, sortOrder);
+
+        Matcher matcher = SIMPLE_SORT_ORDER.matcher( (sortOrder == null) ? ID : sortOrder );
+        if (allowKeyset && matcher.matches()){
+            m_sortColumn = matcher.group(1);
+            m_descending = "DESC".equalsIgnoreCase(matcher.group(2));
+            m_sortOrder = m_sortColumn + (m_descending ? " DESC" : " ASC")
+                    + (ID.equals(m_sortColumn) ? "" : ", " + ID + " ASC");
+        }
+        else {
+            m_sortColumn = null;
+            m_descending = false;
+            m_sortOrder = sortOrder;
+        }
+
+        String token = options.getPageToken();
+        if (token == null){
+            m_offset = options.getOffset();
+            m_selection = selection;
+            m_selectionArgs = selectionArgs;
+            return;
+        }
+
+        try {
+            DataInputStream input = new DataInputStream(
+                    new ByteArrayInputStream(Base64.decode(token, Base64.URL_SAFE | Base64.NO_WRAP)));
+
+            if (input.readInt() != TOKEN_VERSION || !m_signature.equals(input.readUTF()))
+                throw new InvalidPageTokenException();
+
+            boolean keyset = input.readBoolean();
+            if (keyset != (m_sortColumn != null))
+                throw new InvalidPageTokenException();
+
+            if (!keyset){
+                m_offset = input.readInt();
+                m_selection = selection;
+                m_selectionArgs = selectionArgs;
+                return;
+            }
+
+            boolean nullKey = input.readBoolean();
+            String key = nullKey ? null : input.readUTF();
+            String id = String.valueOf(input.readLong());
+
+            List<String> args = new ArrayList<>();
+            if (selectionArgs != null)
+                args.addAll(Arrays.asList(selectionArgs));
+
+            String after;
+            if (nullKey){
+                // SQLite sorts nulls first in ASC and last in DESC.
+                after = "(" + m_sortColumn + " IS NULL AND " + ID + " > ?)"
+                        + (m_descending ? "" : " OR " + m_sortColumn + " IS NOT NULL");
+                args.add(id);
+            }
+            else {
+                after = m_sortColumn + (m_descending ? " < ?" : " > ?")
+                        + " OR (" + m_sortColumn + " = ? AND " + ID + " > ?)"
+                        + (m_descending ? " OR " + m_sortColumn + " IS NULL" : "");
+                args.add(key);
+                args.add(key);
+                args.add(id);
+            }
+
+            m_offset = 0;
+            m_selection = (selection == null) ? after : "(" + selection + ") AND (" + after + ")";
+            m_selectionArgs = args.toArray(new String[args.size()]);
+        }
+        catch (IOException | IllegalArgumentException ex){
+            throw new InvalidPageTokenException();
+        }
+    }
+
+    /**
+     * @return A short text that changes when the query selection, its args or its sort order change.
+     */
+    private static String signature(final String selection, final String[] selectionArgs,
+                                    final String sortOrder){
+        int hash = (selection == null) ? 0 : selection.hashCode();
+        hash = 31 * hash + Arrays.hashCode(selectionArgs);
+        hash = 31 * hash + ( (sortOrder == null) ? 0 : sortOrder.hashCode() );
+        return Integer.toHexString(hash);
+    }
+
+    /**
+     * @param projection task projection.
+     * @return The projection with the columns needed to make the next page token.
+     */
+    String[] projection(final String[] projection){
+        if (m_sortColumn == null)
+            return projection;
+
+        List<String> columns = new ArrayList<>(Arrays.asList(projection));
+        if (!columns.contains(ID))
+            columns.add(ID);
+        if (!columns.contains(m_sortColumn))
+            columns.add(m_sortColumn);
+
+        return columns.toArray(new String[columns.size()]);
+    }
+
+    Cursor query(final ContentResolver resolver, final Uri uri, final String[] projection,
+                 final CancellationSignal signal){
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R){
+            Bundle args = new Bundle();
+            args.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, m_selection);
+            args.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, m_selectionArgs);
+            args.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, m_sortOrder);
+            args.putInt(ContentResolver.QUERY_ARG_LIMIT, m_limit);
+            args.putInt(ContentResolver.QUERY_ARG_OFFSET, m_offset);
+            return resolver.query(uri, projection(projection), args, signal);
+        }
+
+        String sortOrder = ( (m_sortOrder == null) ? ID + " ASC" : m_sortOrder )
+                + " LIMIT " + m_limit + " OFFSET " + m_offset;
+
+        return resolver.query(uri, projection(projection), m_selection, m_selectionArgs, sortOrder, signal);
+    }
+
+    /**
+     * @param cursor the cursor with all the query rows, in order.
+     * @return A cursor with the rows of this page only. Closing it closes cursor.
+     */
+    Cursor window(final Cursor cursor){
+        return IdSetQuery.window(cursor, m_offset, m_limit);
+    }
+
+    /**
+     * Makes the token of the page after this one. It must be called before the cursor is closed.
+     * @param cursor The cursor of this page.
+     * @return The next page token or null if this is the last page.
+     */
+    String nextToken(final Cursor cursor){
+        int count = cursor.getCount();
+        if (count < m_limit)
+            return null;
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(TOKEN_VERSION);
+            output.writeUTF(m_signature);
+            output.writeBoolean(m_sortColumn != null);
+
+            if (m_sortColumn == null)
+                output.writeInt(m_offset + count);
+
+            else {
+                cursor.moveToLast();
+                int keyIndex = cursor.getColumnIndex(m_sortColumn);
+                boolean nullKey = cursor.isNull(keyIndex);
+
+                output.writeBoolean(nullKey);
+                if (!nullKey)
+                    output.writeUTF(cursor.getString(keyIndex));
+                output.writeLong(cursor.getLong(cursor.getColumnIndex(ID)));
+            }
+
+            output.flush();
+            return Base64.encodeToString(bytes.toByteArray(), Base64.URL_SAFE | Base64.NO_WRAP);
+        }
+        catch (IOException ex){
+            return null;
+        }
+    }
+
+    /**
+     * Thrown when a page token is malformed or was made for a different query.
+     */
+    static final class InvalidPageTokenException extends QueryException {
+        InvalidPageTokenException(){
+            super("INVALID_PAGE_TOKEN", "Invalid page token");
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders.tasks;
+
+/**
+ * QueryException is thrown by a task in background when its query fails. The task does not
+ * reply by itself, {@link AbstractLoadTask} sends the error code and message to dart on
+ * the platform thread.
+ */
+public class QueryException extends RuntimeException {
+
+    private final String m_code;
+
+    /**
+     * @param code error code sent to dart.
+     * @param message error message.
+     */
+    public QueryException(final String code, final String message){
+        super(message);
+        m_code = code;
+    }
+
+    public String getCode(){ return m_code; }
+}
@@ -0,0 +1,254 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders.tasks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * QueryOptions holds the per call arguments that change how query results are
+ * built and sent to dart, but not which rows are queried.
+ *
+ * <p>Options are read once from the method call and travel with its {@link QueryRequest}
+ * so loaders and load tasks don't need extra parameters for them.</p>
+ */
+public final class QueryOptions {
+
+    public static final String RESULT_FORMAT = "result_format";
+    public static final String TYPED_VALUES = "typed_values";
+    public static final String FIELDS = "fields";
+    public static final String LIMIT = "limit";
+    public static final String OFFSET = "offset";
+    public static final String PAGE_TOKEN = "page_token";
+    public static final String STREAM = "stream";
+    public static final String CHUNK_SIZE = "chunk_size";
+    public static final String VIRTUAL = "virtual";
+    public static final String IDLE_TIMEOUT = "idle_timeout";
+
+    /** Rows in each chunk of a streamed result if the call doesn't say it. */
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    /** Milliseconds a virtual result is kept without window reads if the call doesn't say it. */
+    public static final long DEFAULT_IDLE_TIMEOUT = 60000L;
+
+    /** Numeric columns that are sent as numbers when typed values are requested. */
+    private static final Set<String> NUMERIC_COLUMNS = new HashSet<>(Arrays.asList(
+            "_id", "duration", "_size", "year", "track", "bookmark",
+            "numsongs", "number_of_tracks", "number_of_albums", "minyear", "maxyear"));
+
+    /**
+     * How a query result is sent to dart.
+     */
+    public enum ResultFormat {
+        /** A list with one map for each row. */
+        MAP,
+
+        /** A column oriented binary payload. See ColumnarResultBuilder. */
+        COLUMNAR,
+
+        /** Row maps with repeated strings sent once in a string table. See DictionaryResultBuilder. */
+        DICTIONARY
+    }
+
+    public static final QueryOptions DEFAULT = new QueryOptions(ResultFormat.MAP, false, null, 0, 0, null, 0, 0L);
+
+    private final ResultFormat m_format;
+    private final boolean m_typedValues;
+    // null means all fields.
+    private final Set<String> m_fields;
+    // paging, limit 0 means no paging.
+    private final int m_limit;
+    private final int m_offset;
+    private final String m_pageToken;
+    // streaming, chunk size 0 means the result is sent in a single reply.
+    private final int m_chunkSize;
+    // virtual results, idle timeout 0 means the rows are read and sent in the reply.
+    private final long m_idleTimeout;
+
+    private QueryOptions(final ResultFormat format, final boolean typedValues, final Set<String> fields,
+                         final int limit, final int offset, final String pageToken, final int chunkSize,
+                         final long idleTimeout){
+        m_format = format;
+        m_typedValues = typedValues;
+        m_fields = fields;
+        m_limit = limit;
+        m_offset = offset;
+        m_pageToken = pageToken;
+        m_chunkSize = chunkSize;
+        m_idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Reads the options of a method call. Missing arguments get default values.
+     * @param call method call.
+     * @return call options.
+     */
+    public static QueryOptions from(final MethodCall call){
+        Integer format = call.argument(RESULT_FORMAT);
+        Boolean typedValues = call.argument(TYPED_VALUES);
+        List<String> fields = call.argument(FIELDS);
+        Integer limit = call.argument(LIMIT);
+        Integer offset = call.argument(OFFSET);
+        String pageToken = call.argument(PAGE_TOKEN);
+        Boolean stream = call.argument(STREAM);
+        Integer chunkSize = call.argument(CHUNK_SIZE);
+        Boolean virtual = call.argument(VIRTUAL);
+        Integer idleTimeout = call.argument(IDLE_TIMEOUT);
+
+        ResultFormat resultFormat = (format == null || format < 0 || format >= ResultFormat.values().length) ?
+                ResultFormat.MAP : ResultFormat.values()[format];
+        boolean typed = (typedValues != null) && typedValues;
+
+        long virtualTimeout = (virtual == null || !virtual) ? 0L :
+                ( (idleTimeout == null || idleTimeout <= 0) ? DEFAULT_IDLE_TIMEOUT : idleTimeout );
+
+        // a virtual result sends no rows, they are read later by windows.
+        int streamChunkSize = (stream == null || !stream || virtualTimeout > 0) ? 0 :
+                ( (chunkSize == null || chunkSize <= 0) ? DEFAULT_CHUNK_SIZE : chunkSize );
+
+        // a streamed or virtual result already arrives in pieces, so it is never paged.
+        int pageLimit = (limit == null || limit < 0 || streamChunkSize > 0 || virtualTimeout > 0) ? 0 : limit;
+
+        if (resultFormat == ResultFormat.MAP && !typed && fields == null && pageLimit == 0
+                && streamChunkSize == 0 && virtualTimeout == 0)
+            return DEFAULT;
+
+        return new QueryOptions(resultFormat, typed,
+                (fields == null) ? null : new HashSet<>(fields),
+                pageLimit,
+                (pageLimit == 0 || offset == null || offset < 0) ? 0 : offset,
+                (pageLimit == 0) ? null : pageToken,
+                streamChunkSize, virtualTimeout);
+    }
+
+    /**
+     * @param result a result object.
+     * @return The options of result if it is a {@link QueryRequest} or default options.
+     */
+    public static QueryOptions of(final MethodChannel.Result result){
+        if (result instanceof QueryRequest){
+            QueryOptions options = ((QueryRequest) result).getOptions();
+            if (options != null)
+                return options;
+        }
+        return DEFAULT;
+    }
+
+    public ResultFormat getFormat(){ return m_format; }
+
+    public boolean isTypedValues(){ return m_typedValues; }
+
+    /**
+     * @return true if only a page of the query rows was requested.
+     */
+    public boolean isPaged(){ return m_limit > 0; }
+
+    public int getLimit(){ return m_limit; }
+
+    public int getOffset(){ return m_offset; }
+
+    public String getPageToken(){ return m_pageToken; }
+
+    /**
+     * @return true if the result rows must be sent in chunks through the stream channel.
+     */
+    public boolean isStreaming(){ return m_chunkSize > 0; }
+
+    public int getChunkSize(){ return m_chunkSize; }
+
+    /**
+     * @return true if the query cursor must be kept open under a handle and its rows
+     * read later by windows, see CursorHandles.
+     */
+    public boolean isVirtual(){ return m_idleTimeout > 0; }
+
+    public long getIdleTimeout(){ return m_idleTimeout; }
+
+    /**
+     * @param column column name.
+     * @return true if column values must be read and sent as numbers.
+     */
+    public boolean isTyped(final String column){
+        return m_typedValues && NUMERIC_COLUMNS.contains(column);
+    }
+
+    /**
+     * @param field a column name or derived field name like "uri".
+     * @return true if the request wants this field in the result.
+     */
+    public boolean wants(final String field){
+        return m_fields == null || m_fields.contains(field);
+    }
+
+    /**
+     * Narrows a loader projection to the requested fields.
+     * @param projection full loader projection.
+     * @param required columns that must be queried even if they are not requested, usually
+     *                 because a requested derived field is made from them. Null values are ignored.
+     * @return The projection that must be given to the ContentResolver query.
+     */
+    public String[] projection(final String[] projection, final String... required){
+        if (m_fields == null)
+            return projection;
+
+        Set<String> columns = new LinkedHashSet<>();
+        for (String column : projection){
+            if (m_fields.contains(column))
+                columns.add(column);
+        }
+
+        for (String column : required){
+            if (column != null)
+                columns.add(column);
+        }
+
+        // an empty projection would mean all columns.
+        if (columns.isEmpty())
+            columns.add(projection[0]);
+
+        return columns.toArray(new String[columns.size()]);
+    }
+
+    /**
+     * @return A text made from all options that is the same for equal options, also between
+     * process runs. It is used to store results by their query.
+     */
+    public String toKeyString(){
+        List<String> fields = null;
+        if (m_fields != null){
+            fields = new ArrayList<>(m_fields);
+            Collections.sort(fields);
+        }
+
+        return m_format + "|" + m_typedValues + "|" + fields + "|" + m_limit + "|" + m_offset
+                + "|" + m_pageToken + "|" + m_chunkSize + "|" + m_idleTimeout;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+
+        if ( !(other instanceof QueryOptions) )
+            return false;
+
+        QueryOptions options = (QueryOptions) other;
+        return m_format == options.m_format && m_typedValues == options.m_typedValues
+                && m_limit == options.m_limit && m_offset == options.m_offset
+                && m_chunkSize == options.m_chunkSize && m_idleTimeout == options.m_idleTimeout
+                && ( (m_fields == null) ? (options.m_fields == null) : m_fields.equals(options.m_fields) )
+                && ( (m_pageToken == null) ? (options.m_pageToken == null) : m_pageToken.equals(options.m_pageToken) );
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(new Object[]{ m_format, m_typedValues, m_fields,
+                m_limit, m_offset, m_pageToken, m_chunkSize, m_idleTimeout });
+    }
+}
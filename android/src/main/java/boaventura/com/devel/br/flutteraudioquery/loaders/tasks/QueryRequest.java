@@ -0,0 +1,35 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders.tasks;
+
+import android.os.CancellationSignal;
+
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * QueryRequest is a MethodChannel.Result that belongs to a tracked request.
+ * Load tasks created with a QueryRequest share its CancellationSignal so a
+ * request cancellation reaches the running ContentResolver queries.
+ */
+public interface QueryRequest extends MethodChannel.Result {
+
+    /**
+     * @return The id of this request.
+     */
+    String getRequestId();
+
+    /**
+     * @return The signal that is triggered when this request is cancelled. Its
+     * OnCancelListener slot belongs to the request, use {@link #addOnCancelListener} instead.
+     */
+    CancellationSignal getCancellationSignal();
+
+    /**
+     * @param listener listener that runs once when this request is cancelled, or at once
+     *                 if it is already cancelled.
+     */
+    void addOnCancelListener(CancellationSignal.OnCancelListener listener);
+
+    /**
+     * @return The options of this request.
+     */
+    QueryOptions getOptions();
+}
@@ -0,0 +1,116 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders.tasks;
+
+import android.database.Cursor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import boaventura.com.devel.br.flutteraudioquery.loaders.formats.ResultBuilder;
+
+/**
+ * RowPlan is a row decoding plan made once for a cursor. Column indexes and the way
+ * each column value is read are resolved when the plan is created, so decoding a row
+ * is a loop over arrays without column name lookups.
+ *
+ * <p>Only columns wanted by the query options and present in the cursor are part of the plan.</p>
+ */
+public final class RowPlan {
+
+    private static final int KIND_STRING = 0;
+    private static final int KIND_LONG = 1;
+    private static final int KIND_BOOLEAN = 2;
+
+    private final String[] m_names;
+    private final int[] m_indexes;
+    private final int[] m_kinds;
+
+    /**
+     * @param cursor The cursor whose rows will be decoded.
+     * @param columns Columns to decode, in result order.
+     * @param options query options, they define which columns are wanted and typed.
+     * @param booleanColumns Columns holding 0/1 values that are sent as booleans.
+     */
+    RowPlan(final Cursor cursor, final String[] columns, final QueryOptions options,
+            final String... booleanColumns){
+        List<String> booleans = Arrays.asList(booleanColumns);
+        String[] names = new String[columns.length];
+        int[] indexes = new int[columns.length];
+        int[] kinds = new int[columns.length];
+        int size = 0;
+
+        for (String column : columns){
+            int index = cursor.getColumnIndex(column);
+
+            if (index < 0 || !options.wants(column))
+                continue;
+
+            names[size] = column;
+            indexes[size] = index;
+
+            if (booleans.contains(column))
+                kinds[size] = KIND_BOOLEAN;
+            else if (options.isTyped(column))
+                kinds[size] = KIND_LONG;
+            else
+                kinds[size] = KIND_STRING;
+
+            size++;
+        }
+
+        m_names = Arrays.copyOf(names, size);
+        m_indexes = Arrays.copyOf(indexes, size);
+        m_kinds = Arrays.copyOf(kinds, size);
+    }
+
+    /**
+     * Decodes the current cursor row into builder. The row must be already started.
+     * @param cursor plan cursor.
+     * @param builder result builder.
+     */
+    public void decode(final Cursor cursor, final ResultBuilder builder){
+        for (int i = 0; i < m_indexes.length; i++){
+            final int index = m_indexes[i];
+
+            switch (m_kinds[i]){
+                case KIND_LONG:
+                    if (cursor.isNull(index))
+                        builder.putString(m_names[i], null);
+                    else
+                        builder.putLong(m_names[i], cursor.getLong(index));
+                    break;
+
+                case KIND_BOOLEAN:
+                    builder.putBoolean(m_names[i], cursor.getInt(index) != 0);
+                    break;
+
+                default:
+                    builder.putString(m_names[i], cursor.getString(index));
+            }
+        }
+    }
+
+    /**
+     * Decodes the current cursor row into a row map.
+     * @param cursor plan cursor.
+     * @param row row map.
+     */
+    public void decode(final Cursor cursor, final Map<String, Object> row){
+        for (int i = 0; i < m_indexes.length; i++){
+            final int index = m_indexes[i];
+
+            switch (m_kinds[i]){
+                case KIND_LONG:
+                    row.put(m_names[i], cursor.isNull(index) ? null : cursor.getLong(index));
+                    break;
+
+                case KIND_BOOLEAN:
+                    row.put(m_names[i], cursor.getInt(index) != 0);
+                    break;
+
+                default:
+                    row.put(m_names[i], cursor.getString(index));
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders.tasks;
+
+import android.database.Cursor;
+
+import boaventura.com.devel.br.flutteraudioquery.loaders.formats.ResultBuilder;
+
+/**
+ * RowReader puts the values of the current cursor row in a result builder. The caller
+ * begins and ends the builder row, so the same reader can be used by a load task and later
+ * by window reads of a virtual result.
+ */
+public interface RowReader {
+
+    /**
+     * @param cursor a cursor in a valid row.
+     * @param builder builder with a row already begun.
+     */
+    void read(final Cursor cursor, final ResultBuilder builder);
+}
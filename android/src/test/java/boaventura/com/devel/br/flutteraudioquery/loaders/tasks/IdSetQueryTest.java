@@ -0,0 +1,104 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders.tasks;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link IdSetQuery} sorts rows in memory the way SQLite sorts them with the
+ * BINARY collation, so a chunked query gives the same order as a single query.
+ */
+public class IdSetQueryTest {
+
+    /** U+1F600, stored in Java as a surrogate pair. */
+    private static final String EMOJI = "\uD83D\uDE00";
+
+    /** U+FF5E, a single char above the surrogate range. */
+    private static final String FULLWIDTH_TILDE = "\uFF5E";
+
+    @Test
+    public void nullsComeBeforeNumbersAndNumbersBeforeText(){
+        assertEquals(0, IdSetQuery.compareValues(null, null));
+        assertTrue(IdSetQuery.compareValues(null, 0L) < 0);
+        assertTrue(IdSetQuery.compareValues(null, "") < 0);
+        assertTrue(IdSetQuery.compareValues(Long.MAX_VALUE, "") < 0);
+        assertTrue(IdSetQuery.compareValues(1.5, "0") < 0);
+        assertTrue(IdSetQuery.compareValues("1", 2L) > 0);
+    }
+
+    @Test
+    public void integersAndRealsCompareByValue(){
+        assertTrue(IdSetQuery.compareValues(1L, 1.5) < 0);
+        assertTrue(IdSetQuery.compareValues(3L, 2.5) > 0);
+        assertEquals(0, IdSetQuery.compareValues(2.0, 2L));
+        assertTrue(IdSetQuery.compareValues(-1L, 0L) < 0);
+        assertTrue(IdSetQuery.compareValues(Long.MAX_VALUE - 1, Long.MAX_VALUE) < 0);
+    }
+
+    @Test
+    public void textComparesByCodePoint(){
+        assertTrue(IdSetQuery.compareValues("ab", "abc") < 0);
+        assertTrue(IdSetQuery.compareValues("B", "a") < 0);
+        assertEquals(0, IdSetQuery.compareValues("same", "same"));
+
+        // UTF-16 puts the surrogate pair first, SQLite puts it last.
+        assertTrue(EMOJI.compareTo(FULLWIDTH_TILDE) < 0);
+        assertTrue(IdSetQuery.compareValues(EMOJI, FULLWIDTH_TILDE) > 0);
+        assertTrue(IdSetQuery.compareValues("a" + EMOJI, "a" + FULLWIDTH_TILDE + "z") > 0);
+    }
+
+    @Test
+    public void rowOrderFollowsTheIds(){
+        long[] rowIds = {30, 10, 20};
+
+        assertArrayEquals(new int[]{1, 2, 0},
+                IdSetQuery.rowOrder(rowIds, new String[]{"10", "20", "30"}));
+        assertArrayEquals(new int[]{0, 2, 1},
+                IdSetQuery.rowOrder(rowIds, new String[]{"30", "20", "10"}));
+    }
+
+    @Test
+    public void rowOrderGivesDuplicatedIdsOnce(){
+        // A row id found twice, as chunks of a merged query can give, keeps its first row.
+        long[] rowIds = {10, 20, 10};
+
+        assertArrayEquals(new int[]{1, 0},
+                IdSetQuery.rowOrder(rowIds, new String[]{"20", "10", "20", "10", "10"}));
+    }
+
+    @Test
+    public void rowOrderLeavesOutMissingIds(){
+        long[] rowIds = {10, 20};
+
+        assertArrayEquals(new int[]{1, 0},
+                IdSetQuery.rowOrder(rowIds, new String[]{"5", "20", "not an id", "10", "30"}));
+        assertArrayEquals(new int[0], IdSetQuery.rowOrder(rowIds, new String[]{"1", "2"}));
+        assertArrayEquals(new int[0], IdSetQuery.rowOrder(new long[0], new String[]{"10"}));
+    }
+
+    @Test
+    public void sortKeepsTheOrderOfTies(){
+        Object[][] keys = {
+                {"b"}, {"a"}, {"b"}, {null}, {"a"}, {1L}
+        };
+
+        assertArrayEquals(new int[]{3, 5, 1, 4, 0, 2},
+                IdSetQuery.sortedPositions(keys, new boolean[]{false}));
+        assertArrayEquals(new int[]{0, 2, 1, 4, 5, 3},
+                IdSetQuery.sortedPositions(keys, new boolean[]{true}));
+    }
+
+    @Test
+    public void sortUsesTheNextColumnOnTies(){
+        Object[][] keys = {
+                {"album", 3L}, {"album", 1L}, {"other", 2L}, {"album", 2L}, {"other", 2L}
+        };
+
+        assertArrayEquals(new int[]{1, 3, 0, 2, 4},
+                IdSetQuery.sortedPositions(keys, new boolean[]{false, false}));
+        assertArrayEquals(new int[]{0, 3, 1, 2, 4},
+                IdSetQuery.sortedPositions(keys, new boolean[]{false, true}));
+    }
+}
@@ -0,0 +1,81 @@
+package boaventura.com.devel.br.flutteraudioquery.loaders.tasks;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks {@link LongIntMap} against a HashMap, with colliding keys and past its first capacity.
+ */
+public class LongIntMapTest {
+
+    @Test
+    public void missingKeysGiveMinusOne(){
+        LongIntMap map = new LongIntMap(0);
+        assertEquals(-1, map.get(0));
+
+        map.put(0, 7);
+        assertEquals(7, map.get(0));
+        assertEquals(-1, map.get(1));
+        assertEquals(-1, map.get(-1));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void putReplacesTheValue(){
+        LongIntMap map = new LongIntMap(4);
+        map.put(42, 1);
+        map.put(42, 2);
+        assertEquals(2, map.get(42));
+        assertEquals(1, map.size());
+
+        // -1 marks the key as taken, the key stays in the map.
+        map.put(42, -1);
+        assertEquals(-1, map.get(42));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void keysWithTheSameLowBitsKeepTheirValues(){
+        LongIntMap map = new LongIntMap(0);
+        for (int i = 0; i < 64; i++)
+            map.put((long) i << 32, i);
+
+        assertEquals(64, map.size());
+        for (int i = 0; i < 64; i++)
+            assertEquals(i, map.get((long) i << 32));
+        assertEquals(-1, map.get(64L << 32));
+    }
+
+    @Test
+    public void growsPastTheExpectedSize(){
+        // Ten thousand keys in a map sized for none: the map grows many times and keys
+        // collide in every capacity.
+        LongIntMap map = new LongIntMap(0);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(1);
+
+        for (int i = 0; i < 10000; i++){
+            long key = (i % 2 == 0) ? random.nextLong() : random.nextInt(20000) - 10000;
+            map.put(key, i);
+            expected.put(key, i);
+        }
+        map.put(Long.MIN_VALUE, 1);
+        map.put(Long.MAX_VALUE, 2);
+        expected.put(Long.MIN_VALUE, 1);
+        expected.put(Long.MAX_VALUE, 2);
+
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Integer> entry : expected.entrySet())
+            assertEquals((int) entry.getValue(), map.get(entry.getKey()));
+
+        for (long key = 10000; key < 10100; key++){
+            if (!expected.containsKey(key))
+                assertEquals(-1, map.get(key));
+        }
+    }
+}
@@ -22,6 +22,9 @@
 
 library flutter_audio_query;
 
+import 'dart:async';
+import 'dart:collection';
+import 'dart:convert';
 import 'dart:typed_data';
 
 import 'package:flutter/foundation.dart';
@@ -32,11 +35,18 @@ part 'src/album_info.dart';
 part 'src/album_sort_type.dart';
 part 'src/artist_info.dart';
 part 'src/artist_sort_type.dart';
+part 'src/batch_query.dart';
+part 'src/columnar_result.dart';
 part 'src/data_model.dart';
 part 'src/flutter_audio_query.dart';
 part 'src/genre_info.dart';
 part 'src/genre_sort_type.dart';
 part 'src/playlist_info.dart';
 part 'src/playlist_sort_type.dart';
+part 'src/query_page.dart';
+part 'src/query_stream.dart';
+part 'src/result_format.dart';
+part 'src/song_changes.dart';
 part 'src/song_info.dart';
 part 'src/song_sort_type.dart';
+part 'src/virtual_result.dart';
@@ -14,10 +14,10 @@ class AlbumInfo extends DataModel {
   ///Returns the artist name that songs appears in this album.
   String get artist => _data['artist'];
 
-  String get firstYear => _data['minyear'];
+  String get firstYear => _numberText('minyear');
 
-  String get lastYear => _data['maxyear'];
+  String get lastYear => _numberText('maxyear');
 
   /// Returns the number of songs that this album contains.
-  String get numberOfSongs => _data['numsongs'];
+  String get numberOfSongs => _numberText('numsongs');
 }
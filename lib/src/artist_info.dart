@@ -9,10 +9,10 @@ class ArtistInfo extends DataModel {
   String get name => _data['artist'];
 
   /// Returns the number of tracks of current artist
-  String get numberOfTracks => _data['number_of_tracks'];
+  String get numberOfTracks => _numberText('number_of_tracks');
 
   /// Returns the number of albums of current artist
-  String get numberOfAlbums => _data['number_of_albums'];
+  String get numberOfAlbums => _numberText('number_of_albums');
 
   /// Returns the path from an image file that can be used as
   /// artist art or null if there is no one. The image file
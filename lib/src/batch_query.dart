@@ -0,0 +1,129 @@
+//The MIT License
+//
+//Copyright (C) <2019>  <Marcos Antonio Boaventura Feitoza> <scavenger.gnu@gmail.com>
+//
+//Permission is hereby granted, free of charge, to any person obtaining a copy
+//of this software and associated documentation files (the "Software"), to deal
+//in the Software without restriction, including without limitation the rights
+//to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//copies of the Software, and to permit persons to whom the Software is
+//furnished to do so, subject to the following conditions:
+//
+//The above copyright notice and this permission notice shall be included in
+//all copies or substantial portions of the Software.
+//
+//THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//THE SOFTWARE.
+
+
+part of flutter_audio_query;
+
+/// A read only query that can be sent with other queries in a single
+/// [FlutterAudioQuery.batch] call.
+class BatchQuery {
+  final String method;
+  final Map<String, dynamic> arguments;
+  final dynamic Function(dynamic data) _parser;
+
+  BatchQuery._(this.method, this.arguments, this._parser);
+
+  /// Query for all artists. See [FlutterAudioQuery.getArtists].
+  factory BatchQuery.artists(
+          {ArtistSortType sortType = ArtistSortType.DEFAULT}) =>
+      BatchQuery._("getArtists", {
+        FlutterAudioQuery.SORT_TYPE: sortType.index,
+      }, (data) => _parseList(data, (item) => ArtistInfo._(item)));
+
+  /// Query for all albums. See [FlutterAudioQuery.getAlbums].
+  factory BatchQuery.albums({AlbumSortType sortType = AlbumSortType.DEFAULT}) =>
+      BatchQuery._("getAlbums", {
+        FlutterAudioQuery.SORT_TYPE: sortType.index,
+      }, (data) => _parseList(data, (item) => AlbumInfo._(item)));
+
+  /// Query for albums of [artist]. See [FlutterAudioQuery.getAlbumsFromArtist].
+  factory BatchQuery.albumsFromArtist(
+          {@required final String artist,
+          AlbumSortType sortType = AlbumSortType.DEFAULT}) =>
+      BatchQuery._("getAlbumsFromArtist", {
+        'artist': artist,
+        FlutterAudioQuery.SORT_TYPE: sortType.index,
+      }, (data) => _parseList(data, (item) => AlbumInfo._(item)));
+
+  /// Query for all songs. See [FlutterAudioQuery.getSongs].
+  factory BatchQuery.songs(
+          {SongSortType sortType = SongSortType.DEFAULT,
+          ResultFormat format = ResultFormat.MAP}) =>
+      BatchQuery._("getSongs", {
+        FlutterAudioQuery.SORT_TYPE: sortType.index,
+        FlutterAudioQuery.RESULT_FORMAT_KEY: format.index,
+      }, (data) => FlutterAudioQuery._parseSongDataList(data));
+
+  /// Query for songs of an album. See [FlutterAudioQuery.getSongsFromAlbum].
+  factory BatchQuery.songsFromAlbum(
+          {@required final String albumId,
+          SongSortType sortType = SongSortType.DEFAULT,
+          ResultFormat format = ResultFormat.MAP}) =>
+      BatchQuery._("getSongsFromAlbum", {
+        'album_id': albumId,
+        FlutterAudioQuery.SORT_TYPE: sortType.index,
+        FlutterAudioQuery.RESULT_FORMAT_KEY: format.index,
+      }, (data) => FlutterAudioQuery._parseSongDataList(data));
+
+  /// Query for all genres. See [FlutterAudioQuery.getGenres].
+  factory BatchQuery.genres({GenreSortType sortType = GenreSortType.DEFAULT}) =>
+      BatchQuery._("getGenres", {
+        FlutterAudioQuery.SORT_TYPE: sortType.index,
+      }, (data) => _parseList(data, (item) => GenreInfo._(item)));
+
+  /// Query for all playlists. See [FlutterAudioQuery.getPlaylists].
+  factory BatchQuery.playlists(
+          {PlaylistSortType sortType = PlaylistSortType.DEFAULT}) =>
+      BatchQuery._("getPlaylists", {
+        FlutterAudioQuery.SORT_TYPE: sortType.index,
+      }, (data) => _parseList(data, (item) => PlaylistInfo._(item)));
+
+  /// Query for an artwork. See [FlutterAudioQuery.getArtwork].
+  factory BatchQuery.artwork(
+      {@required final ResourceType type,
+      @required final String id,
+      final Size size}) {
+    assert(id != null && type != null);
+    return BatchQuery._("getArtwork", {
+      "resource": type.index,
+      "id": id,
+      "width": size?.width?.round() ?? 250,
+      "height": size?.height?.round() ?? 250,
+    }, (data) {
+      final image = data == null ? null : data["image"];
+      return Uint8List.fromList(image == null ? [] : List<int>.from(image));
+    });
+  }
+
+  Map<String, dynamic> _toMap() => {
+        "method": method,
+        "arguments": arguments,
+      };
+
+  static List<T> _parseList<T>(dynamic data, T Function(dynamic) parser) {
+    return (data as List<dynamic>).map<T>(parser).toList();
+  }
+}
+
+/// The reply of a [BatchQuery]. Each query of a batch call succeed or fail
+/// independently.
+class BatchResult {
+  /// The parsed query data. It is null if the query failed.
+  final dynamic data;
+
+  /// The query error or null if the query succeed.
+  final PlatformException error;
+
+  BatchResult._(this.data, this.error);
+
+  bool get hasError => error != null;
+}
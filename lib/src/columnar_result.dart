@@ -0,0 +1,163 @@
+//The MIT License
+//
+//Copyright (C) <2019>  <Marcos Antonio Boaventura Feitoza> <scavenger.gnu@gmail.com>
+//
+//Permission is hereby granted, free of charge, to any person obtaining a copy
+//of this software and associated documentation files (the "Software"), to deal
+//in the Software without restriction, including without limitation the rights
+//to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//copies of the Software, and to permit persons to whom the Software is
+//furnished to do so, subject to the following conditions:
+//
+//The above copyright notice and this permission notice shall be included in
+//all copies or substantial portions of the Software.
+//
+//THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//THE SOFTWARE.
+
+
+part of flutter_audio_query;
+
+/// Lazy decoder for the columnar result format. See [ResultFormat.COLUMNAR].
+///
+/// Only the payload header is read when the result is created. Cell values and
+/// dictionary strings are decoded when they are read for the first time.
+class _ColumnarResult {
+  static const int _MAGIC = 0x46415143;
+  static const int _VERSION = 1;
+
+  static const int _TYPE_STRING = 0;
+  static const int _TYPE_LONG = 1;
+  static const int _TYPE_BOOLEAN = 2;
+
+  final ByteData _bytes;
+  final int length;
+
+  /// offset of each dictionary string.
+  final List<int> _stringOffsets;
+  final List<String> _strings;
+
+  /// column name to column index.
+  final Map<String, int> _columns = {};
+  final List<int> _columnTypes = [];
+  final List<int> _columnOffsets = [];
+
+  _ColumnarResult._(this._bytes, this.length, this._stringOffsets)
+      : _strings = List<String>.filled(_stringOffsets.length, null);
+
+  factory _ColumnarResult(Uint8List data) {
+    final bytes =
+        ByteData.view(data.buffer, data.offsetInBytes, data.lengthInBytes);
+
+    if (bytes.getInt32(0) != _MAGIC || bytes.getInt8(4) != _VERSION)
+      throw FormatException("Unknown columnar result payload");
+
+    final rowCount = bytes.getInt32(5);
+    int offset = 9;
+
+    final stringCount = bytes.getInt32(offset);
+    offset += 4;
+    final stringOffsets = List<int>.filled(stringCount, 0);
+    for (int i = 0; i < stringCount; i++) {
+      stringOffsets[i] = offset;
+      offset += 4 + bytes.getInt32(offset);
+    }
+
+    final result = _ColumnarResult._(bytes, rowCount, stringOffsets);
+
+    final columnCount = bytes.getInt32(offset);
+    offset += 4;
+    for (int i = 0; i < columnCount; i++) {
+      final name = result._string(bytes.getInt32(offset));
+      final type = bytes.getInt8(offset + 4);
+      offset += 5;
+
+      result._columns[name] = i;
+      result._columnTypes.add(type);
+      result._columnOffsets.add(offset);
+
+      switch (type) {
+        case _TYPE_STRING:
+          offset += rowCount * 4;
+          break;
+        case _TYPE_LONG:
+          offset += ((rowCount + 7) ~/ 8) + rowCount * 8;
+          break;
+        case _TYPE_BOOLEAN:
+          offset += rowCount;
+          break;
+        default:
+          throw FormatException("Unknown columnar result column type $type");
+      }
+    }
+    return result;
+  }
+
+  String _string(int index) {
+    if (index < 0) return null;
+
+    String value = _strings[index];
+    if (value == null) {
+      final offset = _stringOffsets[index];
+      final length = _bytes.getInt32(offset);
+      value = utf8.decode(Uint8List.view(
+          _bytes.buffer, _bytes.offsetInBytes + offset + 4, length));
+      _strings[index] = value;
+    }
+    return value;
+  }
+
+  dynamic _value(int column, int row) {
+    final offset = _columnOffsets[column];
+
+    switch (_columnTypes[column]) {
+      case _TYPE_STRING:
+        return _string(_bytes.getInt32(offset + row * 4));
+
+      case _TYPE_LONG:
+        final isNull = (_bytes.getUint8(offset + (row ~/ 8)) >> (row % 8)) & 1;
+        if (isNull == 1) return null;
+        return _bytes.getInt64(offset + ((length + 7) ~/ 8) + row * 8);
+
+      case _TYPE_BOOLEAN:
+        final value = _bytes.getInt8(offset + row);
+        return value < 0 ? null : value == 1;
+    }
+    return null;
+  }
+
+  /// Returns a map view of [row]. Values are decoded when they are read.
+  Map<dynamic, dynamic> row(int row) => _ColumnarRow(this, row);
+}
+
+class _ColumnarRow extends MapBase<dynamic, dynamic> {
+  final _ColumnarResult _result;
+  final int _row;
+
+  _ColumnarRow(this._result, this._row);
+
+  @override
+  dynamic operator [](Object key) {
+    final column = _result._columns[key];
+    return column == null ? null : _result._value(column, _row);
+  }
+
+  @override
+  void operator []=(key, value) =>
+      throw UnsupportedError("Columnar result rows are read only");
+
+  @override
+  void clear() => throw UnsupportedError("Columnar result rows are read only");
+
+  @override
+  Iterable<dynamic> get keys => _result._columns.keys;
+
+  @override
+  dynamic remove(Object key) =>
+      throw UnsupportedError("Columnar result rows are read only");
+}
@@ -11,7 +11,19 @@ abstract class DataModel {
   DataModel._(this._data);
 
   /// The data model id
-  String get id => _data[ID] ?? "";
+  String get id => _numberText(ID) ?? "";
+
+  /// Returns the value of a numeric [key] as int. Values of typed results
+  /// are returned as they are, String values are parsed.
+  int intValue(String key) {
+    final value = _data[key];
+    if (value == null || value is int) return value;
+    return int.tryParse(value.toString());
+  }
+
+  /// Returns the value of a numeric [key] as String. Typed results send
+  /// numbers, other results send strings.
+  String _numberText(String key) => _data[key]?.toString();
 
   @override
   String toString() {
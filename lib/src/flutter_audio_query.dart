@@ -51,13 +51,46 @@ class FlutterAudioQuery {
   static const String SORT_TYPE = "sort_type";
   static const String PLAYLIST_METHOD_TYPE = "method_type";
   static const String SOURCE_PLAYLIST = 'playlist';
+  static const String SOURCE_BATCH = 'batch';
+
+  /// key used to identify a call. See [cancel].
+  static const String REQUEST_ID_KEY = "request_id";
+
+  /// key used for the result format param. See [ResultFormat].
+  static const String RESULT_FORMAT_KEY = "result_format";
+
+  /// key used for the typed values param.
+  static const String TYPED_VALUES_KEY = "typed_values";
+
+  /// key used for the fields param.
+  static const String FIELDS_KEY = "fields";
+
+  /// keys used for paging params.
+  static const String LIMIT_KEY = "limit";
+  static const String OFFSET_KEY = "offset";
+  static const String PAGE_TOKEN_KEY = "page_token";
+
+  /// keys used for streamed calls params.
+  static const String STREAM_KEY = "stream";
+  static const String CHUNK_SIZE_KEY = "chunk_size";
+  static const String MAX_PENDING_CHUNKS_KEY = "max_pending_chunks";
+
+  /// keys used for virtual results params.
+  static const String VIRTUAL_KEY = "virtual";
+  static const String IDLE_TIMEOUT_KEY = "idle_timeout";
 
   /// This method returns all artists info available on device storage
   Future<List<ArtistInfo>> getArtists(
-      {ArtistSortType sortType = ArtistSortType.DEFAULT}) async {
+      {ArtistSortType sortType = ArtistSortType.DEFAULT,
+      String requestId,
+      bool typedValues = false,
+      List<String> fields}) async {
     List<dynamic> dataList = await channel.invokeMethod('getArtists', {
       SOURCE_KEY: SOURCE_ARTIST,
       SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
     });
     return _parseArtistDataList(dataList);
   }
@@ -67,11 +100,17 @@ class FlutterAudioQuery {
   /// parameter use [sortType] param with ArtistSortType.CURRENT_IDs_ORDER value.
   Future<List<ArtistInfo>> getArtistsById(
       {@required final List<String> ids,
-      ArtistSortType sortType = ArtistSortType.DEFAULT}) async {
+      ArtistSortType sortType = ArtistSortType.DEFAULT,
+      String requestId,
+      bool typedValues = false,
+      List<String> fields}) async {
     List<dynamic> dataList = await channel.invokeMethod("getArtistsById", {
       SOURCE_KEY: SOURCE_ARTIST,
       'artist_ids': ids,
       SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
     });
 
     return _parseArtistDataList(dataList);
@@ -82,11 +121,17 @@ class FlutterAudioQuery {
   /// [genre] Genre name that we want fetch artists. Must not be null
   Future<List<ArtistInfo>> getArtistsFromGenre(
       {@required final String genre,
-      ArtistSortType sortType = ArtistSortType.DEFAULT}) async {
+      ArtistSortType sortType = ArtistSortType.DEFAULT,
+      String requestId,
+      bool typedValues = false,
+      List<String> fields}) async {
     List<dynamic> dataList = await channel.invokeMethod('getArtistsFromGenre', {
       SOURCE_KEY: SOURCE_ARTIST,
       'genre_name': genre,
       SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
     });
     return _parseArtistDataList(dataList);
   }
@@ -97,11 +142,17 @@ class FlutterAudioQuery {
   /// [query] String used to make the search
   Future<List<ArtistInfo>> searchArtists(
       {@required String query,
-      ArtistSortType sortType = ArtistSortType.DEFAULT}) async {
+      ArtistSortType sortType = ArtistSortType.DEFAULT,
+      String requestId,
+      bool typedValues = false,
+      List<String> fields}) async {
     List<dynamic> dataList = await channel.invokeMethod("searchArtistsByName", {
       SOURCE_KEY: SOURCE_ARTIST,
       SORT_TYPE: sortType.index,
-      QUERY_KEY: query
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
+      QUERY_KEY: query,
     });
     return _parseArtistDataList(dataList);
   }
@@ -109,10 +160,16 @@ class FlutterAudioQuery {
   /// This method returns a list of albums with all albums available in device storage.
   /// [sortType] The type sorting.The default type is AlbumSortType.DEFAULT
   Future<List<AlbumInfo>> getAlbums(
-      {AlbumSortType sortType = AlbumSortType.DEFAULT}) async {
+      {AlbumSortType sortType = AlbumSortType.DEFAULT,
+      String requestId,
+      bool typedValues = false,
+      List<String> fields}) async {
     List<dynamic> dataList = await channel.invokeMethod('getAlbums', {
       SOURCE_KEY: SOURCE_ALBUM,
       SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
     });
     return _parseAlbumDataList(dataList);
   }
@@ -122,10 +179,16 @@ class FlutterAudioQuery {
   /// parameter use [sortType] param with AlbumSortType.CURRENT_IDs_ORDER value.
   Future<List<AlbumInfo>> getAlbumsById(
       {@required final List<String> ids,
-      AlbumSortType sortType = AlbumSortType.DEFAULT}) async {
+      AlbumSortType sortType = AlbumSortType.DEFAULT,
+      String requestId,
+      bool typedValues = false,
+      List<String> fields}) async {
     List<dynamic> dataList = await channel.invokeMethod("getAlbumsById", {
       SOURCE_KEY: SOURCE_ALBUM,
       SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
       "album_ids": ids,
     });
 
@@ -137,11 +200,17 @@ class FlutterAudioQuery {
   /// [genre] Genre name that we want fetch albums. Genre must not be null.
   Future<List<AlbumInfo>> getAlbumsFromGenre(
       {@required final String genre,
-      AlbumSortType sortType = AlbumSortType.DEFAULT}) async {
+      AlbumSortType sortType = AlbumSortType.DEFAULT,
+      String requestId,
+      bool typedValues = false,
+      List<String> fields}) async {
     List<dynamic> dataList = await channel.invokeMethod('getAlbumsFromGenre', {
       SOURCE_KEY: SOURCE_ALBUM,
       'genre_name': genre,
       SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
     });
     return _parseAlbumDataList(dataList);
   }
@@ -151,11 +220,17 @@ class FlutterAudioQuery {
   /// [artist] Artist name must be non null.
   Future<List<AlbumInfo>> getAlbumsFromArtist(
       {@required final String artist,
-      AlbumSortType sortType = AlbumSortType.DEFAULT}) async {
+      AlbumSortType sortType = AlbumSortType.DEFAULT,
+      String requestId,
+      bool typedValues = false,
+      List<String> fields}) async {
     List<dynamic> dataList = await channel.invokeMethod('getAlbumsFromArtist', {
       'artist': artist,
       SOURCE_KEY: SOURCE_ALBUM,
       SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
     });
     return _parseAlbumDataList(dataList);
   }
@@ -166,10 +241,16 @@ class FlutterAudioQuery {
   /// [query] String used to make the search
   Future<List<AlbumInfo>> searchAlbums(
       {@required final String query,
-      AlbumSortType sortType = AlbumSortType.DEFAULT}) async {
+      AlbumSortType sortType = AlbumSortType.DEFAULT,
+      String requestId,
+      bool typedValues = false,
+      List<String> fields}) async {
     List<dynamic> dataList = await channel.invokeMethod('searchAlbums', {
       SOURCE_KEY: SOURCE_ALBUM,
       SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
       QUERY_KEY: query,
     });
     return _parseAlbumDataList(dataList);
@@ -177,24 +258,124 @@ class FlutterAudioQuery {
 
   /// This method returns a list with all songs available on device storage.
   Future<List<SongInfo>> getSongs(
-      {SongSortType sortType = SongSortType.DEFAULT}) async {
-    List<dynamic> dataList = await channel.invokeMethod("getSongs", {
+      {SongSortType sortType = SongSortType.DEFAULT,
+      String requestId,
+      ResultFormat format = ResultFormat.MAP,
+      bool typedValues = false,
+      List<String> fields}) async {
+    dynamic dataList = await channel.invokeMethod("getSongs", {
       SOURCE_KEY: SOURCE_SONGS,
       SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
+      RESULT_FORMAT_KEY: format.index,
     });
     return _parseSongDataList(dataList);
   }
 
+  /// This method returns a stream with all songs available on device storage
+  /// sent in chunks of at most [chunkSize] songs. Chunks are sent while the
+  /// native query is read, so the first songs arrive before the query is done
+  /// and the whole song list is never kept in memory.
+  ///
+  /// At most [maxPendingChunks] chunks are sent ahead of the stream listener.
+  /// Pausing the subscription pauses the native query and cancelling it
+  /// cancels the native query.
+  Stream<List<SongInfo>> streamSongs(
+      {SongSortType sortType = SongSortType.DEFAULT,
+      String requestId,
+      ResultFormat format = ResultFormat.MAP,
+      bool typedValues = false,
+      List<String> fields,
+      int chunkSize = 500,
+      int maxPendingChunks = 2}) {
+    assert(chunkSize != null && chunkSize > 0);
+    return _QueryStream<SongInfo>(requestId, _parseSongDataList)
+        .start("getSongs", <String, dynamic>{
+      SOURCE_KEY: SOURCE_SONGS,
+      SORT_TYPE: sortType.index,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
+      RESULT_FORMAT_KEY: format.index,
+      CHUNK_SIZE_KEY: chunkSize,
+      MAX_PENDING_CHUNKS_KEY: maxPendingChunks,
+    });
+  }
+
+  /// This method queries all songs available on device storage but doesn't
+  /// read them. The returned [VirtualResult] reads only the row windows that are
+  /// requested, so the work is proportional to the rows that are shown and not
+  /// to the library size.
+  ///
+  /// The native cursor is released by [VirtualResult.release] or after
+  /// [idleTimeout] without window reads.
+  Future<VirtualResult<SongInfo>> getSongsVirtual(
+      {SongSortType sortType = SongSortType.DEFAULT,
+      String requestId,
+      ResultFormat format = ResultFormat.MAP,
+      bool typedValues = false,
+      List<String> fields,
+      Duration idleTimeout = const Duration(seconds: 60)}) async {
+    final Map<dynamic, dynamic> data = await channel.invokeMethod("getSongs", {
+      SOURCE_KEY: SOURCE_SONGS,
+      SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
+      RESULT_FORMAT_KEY: format.index,
+      VIRTUAL_KEY: true,
+      IDLE_TIMEOUT_KEY: idleTimeout.inMilliseconds,
+    });
+    return VirtualResult<SongInfo>._(
+        data["handle"], data["count"], _parseSongDataList);
+  }
+
+  /// This method returns the songs inserted, updated or deleted since [token],
+  /// a token returned by a previous call. With a null token all songs are
+  /// returned as inserted. Inserted and updated songs should be handled as
+  /// upserts, a song that changes while the call runs can be sent again by the
+  /// next call.
+  Future<SongChanges> getChangesSince(final String token,
+      {String requestId,
+      ResultFormat format = ResultFormat.MAP,
+      bool typedValues = false,
+      List<String> fields}) async {
+    final Map<dynamic, dynamic> data =
+        await channel.invokeMethod("getChangesSince", {
+      SOURCE_KEY: SOURCE_SONGS,
+      "token": token,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
+      RESULT_FORMAT_KEY: format.index,
+    });
+    return SongChanges._(
+        data["token"],
+        data["reset"],
+        _parseSongDataList(data["inserted"]),
+        _parseSongDataList(data["updated"]),
+        List<String>.from(data["deleted"]));
+  }
+
   /// This method returns list with  all songs info from a specific artist.
   /// using his name.
   /// [artistId] Artist id must be non null
   Future<List<SongInfo>> getSongsFromArtist(
       {@required final String artistId,
-      SongSortType sortType = SongSortType.DEFAULT}) async {
-    List<dynamic> dataList = await channel.invokeMethod("getSongsFromArtist", {
+      SongSortType sortType = SongSortType.DEFAULT,
+      String requestId,
+      ResultFormat format = ResultFormat.MAP,
+      bool typedValues = false,
+      List<String> fields}) async {
+    dynamic dataList = await channel.invokeMethod("getSongsFromArtist", {
       'artist': artistId,
       SOURCE_KEY: SOURCE_SONGS,
       SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
+      RESULT_FORMAT_KEY: format.index,
     });
 
     return _parseSongDataList(dataList);
@@ -210,11 +391,19 @@ class FlutterAudioQuery {
   /// [album] Represents the album that we want to fetch all songs. Must be non null.
   Future<List<SongInfo>> getSongsFromAlbum(
       {@required final String albumId,
-      SongSortType sortType = SongSortType.DEFAULT}) async {
-    List<dynamic> dataList = await channel.invokeMethod("getSongsFromAlbum", {
+      SongSortType sortType = SongSortType.DEFAULT,
+      String requestId,
+      ResultFormat format = ResultFormat.MAP,
+      bool typedValues = false,
+      List<String> fields}) async {
+    dynamic dataList = await channel.invokeMethod("getSongsFromAlbum", {
       'album_id': albumId,
       SOURCE_KEY: SOURCE_SONGS,
       SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
+      RESULT_FORMAT_KEY: format.index,
     });
     return _parseSongDataList(dataList);
   }
@@ -230,13 +419,21 @@ class FlutterAudioQuery {
   Future<List<SongInfo>> getSongsFromArtistAlbum(
       {@required final String albumId,
       @required final String artist,
-      SongSortType sortType = SongSortType.DEFAULT}) async {
-    List<dynamic> dataList =
+      SongSortType sortType = SongSortType.DEFAULT,
+      String requestId,
+      ResultFormat format = ResultFormat.MAP,
+      bool typedValues = false,
+      List<String> fields}) async {
+    dynamic dataList =
         await channel.invokeMethod("getSongsFromArtistAlbum", {
       'album_id': albumId,
       'artist': artist,
       SOURCE_KEY: SOURCE_SONGS,
       SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
+      RESULT_FORMAT_KEY: format.index,
     });
     return _parseSongDataList(dataList);
   }
@@ -247,11 +444,19 @@ class FlutterAudioQuery {
   /// [genre] Genre name must be non null.
   Future<List<SongInfo>> getSongsFromGenre(
       {@required final String genre,
-      SongSortType sortType = SongSortType.DEFAULT}) async {
-    List<dynamic> dataList = await channel.invokeMethod("getSongsFromGenre", {
+      SongSortType sortType = SongSortType.DEFAULT,
+      String requestId,
+      ResultFormat format = ResultFormat.MAP,
+      bool typedValues = false,
+      List<String> fields}) async {
+    dynamic dataList = await channel.invokeMethod("getSongsFromGenre", {
       SOURCE_KEY: SOURCE_SONGS,
       'genre_name': genre,
       SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
+      RESULT_FORMAT_KEY: format.index,
     });
     return _parseSongDataList(dataList);
   }
@@ -261,9 +466,18 @@ class FlutterAudioQuery {
   /// The song order is the same that the playlist defines.
   /// An empty list is returned if the playlist has no songs.
   Future<List<SongInfo>> getSongsFromPlaylist(
-      {@required final PlaylistInfo playlist}) async {
-    List<dynamic> dataList = await channel.invokeMethod("getSongsFromPlaylist",
-        {SOURCE_KEY: SOURCE_SONGS, 'memberIds': playlist.memberIds});
+      {@required final PlaylistInfo playlist, String requestId,
+      ResultFormat format = ResultFormat.MAP,
+      bool typedValues = false,
+      List<String> fields}) async {
+    dynamic dataList = await channel.invokeMethod("getSongsFromPlaylist", {
+      SOURCE_KEY: SOURCE_SONGS,
+      'memberIds': playlist.memberIds,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
+      RESULT_FORMAT_KEY: format.index,
+    });
 
     return _parseSongDataList(dataList);
   }
@@ -276,10 +490,18 @@ class FlutterAudioQuery {
   /// [sortType] Data sort Type.
   Future<List<SongInfo>> getSongsById(
       {@required List<String> ids,
-      SongSortType sortType = SongSortType.DEFAULT}) async {
-    List<dynamic> dataList = await channel.invokeMethod("getSongsById", {
+      SongSortType sortType = SongSortType.DEFAULT,
+      String requestId,
+      ResultFormat format = ResultFormat.MAP,
+      bool typedValues = false,
+      List<String> fields}) async {
+    dynamic dataList = await channel.invokeMethod("getSongsById", {
       SOURCE_KEY: SOURCE_SONGS,
       SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
+      RESULT_FORMAT_KEY: format.index,
       'song_ids': ids,
     });
     return _parseSongDataList(dataList);
@@ -291,21 +513,107 @@ class FlutterAudioQuery {
   /// [query] String used to make the search
   Future<List<SongInfo>> searchSongs(
       {@required String query,
-      SongSortType sortType = SongSortType.DEFAULT}) async {
-    List<dynamic> dataList = await channel.invokeMethod("searchSongs", {
+      SongSortType sortType = SongSortType.DEFAULT,
+      String requestId,
+      ResultFormat format = ResultFormat.MAP,
+      bool typedValues = false,
+      List<String> fields}) async {
+    dynamic dataList = await channel.invokeMethod("searchSongs", {
       SOURCE_KEY: SOURCE_SONGS,
       SORT_TYPE: sortType.index,
-      QUERY_KEY: query
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
+      RESULT_FORMAT_KEY: format.index,
+      QUERY_KEY: query,
     });
     return _parseSongDataList(dataList);
   }
 
+  /// This method returns a page with at most [limit] artists. Give the page
+  /// [QueryPage.nextPageToken] as [pageToken] with the same [sortType] to get the
+  /// next page. [offset] skips artists of the first page only.
+  Future<QueryPage<ArtistInfo>> getArtistsPage(
+      {@required final int limit,
+      final int offset = 0,
+      final String pageToken,
+      ArtistSortType sortType = ArtistSortType.DEFAULT,
+      String requestId,
+      bool typedValues = false,
+      List<String> fields}) async {
+    assert(limit != null && limit > 0);
+    final Map<dynamic, dynamic> page = await channel.invokeMethod('getArtists', {
+      SOURCE_KEY: SOURCE_ARTIST,
+      SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
+      LIMIT_KEY: limit,
+      OFFSET_KEY: offset,
+      PAGE_TOKEN_KEY: pageToken,
+    });
+    return QueryPage<ArtistInfo>._(
+        _parseArtistDataList(page["rows"]), page["next_page_token"]);
+  }
+
+  /// This method returns a page with at most [limit] albums. See [getArtistsPage].
+  Future<QueryPage<AlbumInfo>> getAlbumsPage(
+      {@required final int limit,
+      final int offset = 0,
+      final String pageToken,
+      AlbumSortType sortType = AlbumSortType.DEFAULT,
+      String requestId,
+      bool typedValues = false,
+      List<String> fields}) async {
+    assert(limit != null && limit > 0);
+    final Map<dynamic, dynamic> page = await channel.invokeMethod('getAlbums', {
+      SOURCE_KEY: SOURCE_ALBUM,
+      SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
+      LIMIT_KEY: limit,
+      OFFSET_KEY: offset,
+      PAGE_TOKEN_KEY: pageToken,
+    });
+    return QueryPage<AlbumInfo>._(
+        _parseAlbumDataList(page["rows"]), page["next_page_token"]);
+  }
+
+  /// This method returns a page with at most [limit] songs. See [getArtistsPage].
+  Future<QueryPage<SongInfo>> getSongsPage(
+      {@required final int limit,
+      final int offset = 0,
+      final String pageToken,
+      SongSortType sortType = SongSortType.DEFAULT,
+      String requestId,
+      ResultFormat format = ResultFormat.MAP,
+      bool typedValues = false,
+      List<String> fields}) async {
+    assert(limit != null && limit > 0);
+    final Map<dynamic, dynamic> page = await channel.invokeMethod('getSongs', {
+      SOURCE_KEY: SOURCE_SONGS,
+      SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
+      TYPED_VALUES_KEY: typedValues,
+      RESULT_FORMAT_KEY: format.index,
+      LIMIT_KEY: limit,
+      OFFSET_KEY: offset,
+      PAGE_TOKEN_KEY: pageToken,
+    });
+    return QueryPage<SongInfo>._(
+        _parseSongDataList(page["rows"]), page["next_page_token"]);
+  }
+
   /// This method returns a list of genre info with all genres available in device storage.
   Future<List<GenreInfo>> getGenres(
-      {GenreSortType sortType = GenreSortType.DEFAULT}) async {
+      {GenreSortType sortType = GenreSortType.DEFAULT,
+      String requestId}) async {
     List<dynamic> dataList = await channel.invokeMethod('getGenres', {
       SOURCE_KEY: SOURCE_GENRE,
       SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
     });
     return _parseGenreDataList(dataList);
   }
@@ -316,10 +624,12 @@ class FlutterAudioQuery {
   /// [query] String used to make the search
   Future<List<GenreInfo>> searchGenres(
       {@required final String query,
-      GenreSortType sortType = GenreSortType.DEFAULT}) async {
+      GenreSortType sortType = GenreSortType.DEFAULT,
+      String requestId}) async {
     List<dynamic> dataList = await channel.invokeMethod("searchGenres", {
       SOURCE_KEY: SOURCE_GENRE,
       SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
       QUERY_KEY: query,
     });
 
@@ -329,11 +639,15 @@ class FlutterAudioQuery {
   /// This method returns a list of PlaylistInfo with all playlists available
   /// in device storage.
   Future<List<PlaylistInfo>> getPlaylists(
-      {PlaylistSortType sortType = PlaylistSortType.DEFAULT}) async {
+      {PlaylistSortType sortType = PlaylistSortType.DEFAULT,
+      String requestId,
+      List<String> fields}) async {
     List<dynamic> dataList = await channel.invokeListMethod("getPlaylists", {
       SOURCE_KEY: SOURCE_PLAYLIST,
       PLAYLIST_METHOD_TYPE: PlayListMethodType.READ.index,
-      SORT_TYPE: sortType.index
+      SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
     });
     return _parsePlaylistsDataList(dataList);
   }
@@ -344,12 +658,16 @@ class FlutterAudioQuery {
   /// [query] String used to make the search
   Future<List<PlaylistInfo>> searchPlaylists(
       {@required final String query,
-      PlaylistSortType sortType = PlaylistSortType.DEFAULT}) async {
+      PlaylistSortType sortType = PlaylistSortType.DEFAULT,
+      String requestId,
+      List<String> fields}) async {
     List<dynamic> dataList = await channel.invokeMethod("searchPlaylists", {
       SOURCE_KEY: SOURCE_PLAYLIST,
       PLAYLIST_METHOD_TYPE: PlayListMethodType.READ.index,
       QUERY_KEY: query,
       SORT_TYPE: sortType.index,
+      REQUEST_ID_KEY: requestId,
+      FIELDS_KEY: fields,
     });
 
     return _parsePlaylistsDataList(dataList);
@@ -372,6 +690,7 @@ class FlutterAudioQuery {
     @required final ResourceType type,
     @required final String id,
     final Size size,
+    final String requestId,
   }) async {
     assert(id != null && type != null);
     final data = await channel.invokeMethod("getArtwork", {
@@ -380,6 +699,7 @@ class FlutterAudioQuery {
       "id": id,
       "width": size?.width?.round() ?? 250,
       "height": size?.height?.round() ?? 250,
+      REQUEST_ID_KEY: requestId,
     });
 
     Map<String, dynamic> dataMap = Map<String, dynamic>.from(data);
@@ -390,6 +710,51 @@ class FlutterAudioQuery {
     return Uint8List.fromList([]);
   }
 
+  /// Runs all [queries] at the same time in native side and returns all results
+  /// in a single reply. The results are in the same order of [queries] and each one
+  /// holds the query data or its error.
+  ///
+  /// The whole batch can be cancelled with [cancel] using [requestId].
+  Future<List<BatchResult>> batch(
+      {@required final List<BatchQuery> queries, String requestId}) async {
+    assert(queries != null);
+    List<dynamic> replies = await channel.invokeMethod("batch", {
+      SOURCE_KEY: SOURCE_BATCH,
+      "queries": queries.map((query) => query._toMap()).toList(),
+      REQUEST_ID_KEY: requestId,
+    });
+
+    final results = <BatchResult>[];
+    for (int i = 0; i < replies.length; i++) {
+      final Map<dynamic, dynamic> reply = replies[i];
+      final error = reply["error"];
+
+      if (error != null)
+        results.add(BatchResult._(
+            null,
+            PlatformException(
+                code: error["code"],
+                message: error["message"],
+                details: error["details"])));
+      else
+        results.add(BatchResult._(queries[i]._parser(reply["result"]), null));
+    }
+    return results;
+  }
+
+  /// Cancels an in flight call that was made with [requestId]. The cancelled call
+  /// throws a PlatformException with "CANCELLED" code and its native query is aborted.
+  ///
+  /// It returns true if the call was cancelled or false if there is no in flight
+  /// call with this [requestId].
+  static Future<bool> cancel(final String requestId) async {
+    assert(requestId != null);
+    final bool cancelled = await channel.invokeMethod("cancel", {
+      REQUEST_ID_KEY: requestId,
+    });
+    return cancelled ?? false;
+  }
+
   /// This method creates a new empty playlist named [playlistName].
   /// If already exist a playlist with same name as [playlistName] an
   /// exception is throw.
@@ -426,8 +791,37 @@ class FlutterAudioQuery {
         .toList();
   }
 
-  List<SongInfo> _parseSongDataList(List<dynamic> dataList) {
-    return dataList.map<SongInfo>((dynamic item) => SongInfo._(item)).toList();
+  /// Parses songs data in any [ResultFormat].
+  static List<SongInfo> _parseSongDataList(dynamic data) {
+    if (data is Uint8List) {
+      final result = _ColumnarResult(data);
+      return List<SongInfo>.generate(
+          result.length, (int index) => SongInfo._(result.row(index)));
+    }
+    if (data is Map) return _parseDictionaryData(data, (row) => SongInfo._(row));
+
+    return (data as List<dynamic>)
+        .map<SongInfo>((dynamic item) => SongInfo._(item))
+        .toList();
+  }
+
+  /// Parses data in [ResultFormat.DICTIONARY] format. String table references
+  /// are replaced by the table strings, so each distinct value is a single
+  /// dart String shared by all rows.
+  static List<T> _parseDictionaryData<T>(
+      Map<dynamic, dynamic> data, T Function(Map<dynamic, dynamic>) parser) {
+    final List<dynamic> table = data["string_table"];
+    final List<dynamic> columns = data["dictionary_columns"];
+    final List<dynamic> rows = data["rows"];
+
+    return rows.map<T>((dynamic item) {
+      final Map<dynamic, dynamic> row = item;
+      for (final column in columns) {
+        final reference = row[column];
+        if (reference is int) row[column] = table[reference];
+      }
+      return parser(row);
+    }).toList();
   }
 
   List<GenreInfo> _parseGenreDataList(List<dynamic> dataList) {
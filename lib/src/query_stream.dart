@@ -0,0 +1,111 @@
+//The MIT License
+//
+//Copyright (C) <2019>  <Marcos Antonio Boaventura Feitoza> <scavenger.gnu@gmail.com>
+//
+//Permission is hereby granted, free of charge, to any person obtaining a copy
+//of this software and associated documentation files (the "Software"), to deal
+//in the Software without restriction, including without limitation the rights
+//to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//copies of the Software, and to permit persons to whom the Software is
+//furnished to do so, subject to the following conditions:
+//
+//The above copyright notice and this permission notice shall be included in
+//all copies or substantial portions of the Software.
+//
+//THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//THE SOFTWARE.
+
+
+part of flutter_audio_query;
+
+/// Dart side of a streamed call. All streamed calls share one event channel and
+/// the native side tags each event with the call request id.
+///
+/// Each chunk is acknowledged after it is added to the stream. While the stream
+/// subscription is paused chunks are not acknowledged, so the native query waits
+/// after max pending chunks.
+class _QueryStream<T> {
+  static const EventChannel _channel =
+      const EventChannel("boaventura.com.devel.br.flutteraudioquery/stream");
+  static Stream<dynamic> _events;
+  static int _nextId = 0;
+
+  final String _id;
+  final List<T> Function(dynamic) _parser;
+  StreamController<List<T>> _controller;
+  StreamSubscription<dynamic> _subscription;
+  int _pendingAcks = 0;
+  bool _done = false;
+
+  _QueryStream(String requestId, this._parser)
+      : _id = requestId ?? "stream-${_nextId++}";
+
+  /// Returns the stream of the call. The call is made when the stream is listened.
+  Stream<List<T>> start(String method, Map<String, dynamic> arguments) {
+    arguments[FlutterAudioQuery.REQUEST_ID_KEY] = _id;
+    arguments[FlutterAudioQuery.STREAM_KEY] = true;
+
+    _controller = StreamController<List<T>>(
+        onListen: () => _listen(method, arguments),
+        onResume: _sendPendingAcks,
+        onCancel: _cancel);
+    return _controller.stream;
+  }
+
+  void _listen(String method, Map<String, dynamic> arguments) {
+    _events ??= _channel.receiveBroadcastStream();
+    _subscription = _events
+        .where((dynamic event) => event["stream_id"] == _id)
+        .listen(_onEvent);
+
+    FlutterAudioQuery.channel
+        .invokeMethod(method, arguments)
+        .catchError((dynamic error) {
+      if (_done) return;
+      _controller.addError(error);
+      _close();
+    });
+  }
+
+  void _onEvent(dynamic event) {
+    if (event["done"] == true) {
+      _close();
+      return;
+    }
+
+    _controller.add(_parser(event["chunk"]));
+    if (_controller.isPaused)
+      _pendingAcks++;
+    else
+      _ack();
+  }
+
+  void _ack() {
+    FlutterAudioQuery.channel.invokeMethod("ackStream", {
+      FlutterAudioQuery.REQUEST_ID_KEY: _id,
+    });
+  }
+
+  void _sendPendingAcks() {
+    for (; _pendingAcks > 0; _pendingAcks--) _ack();
+  }
+
+  Future<void> _cancel() async {
+    if (_done) return;
+    _done = true;
+    await _subscription?.cancel();
+    await FlutterAudioQuery.cancel(_id);
+  }
+
+  void _close() {
+    if (_done) return;
+    _done = true;
+    _subscription?.cancel();
+    _controller.close();
+  }
+}
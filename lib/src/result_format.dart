@@ -0,0 +1,40 @@
+//The MIT License
+//
+//Copyright (C) <2019>  <Marcos Antonio Boaventura Feitoza> <scavenger.gnu@gmail.com>
+//
+//Permission is hereby granted, free of charge, to any person obtaining a copy
+//of this software and associated documentation files (the "Software"), to deal
+//in the Software without restriction, including without limitation the rights
+//to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//copies of the Software, and to permit persons to whom the Software is
+//furnished to do so, subject to the following conditions:
+//
+//The above copyright notice and this permission notice shall be included in
+//all copies or substantial portions of the Software.
+//
+//THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//THE SOFTWARE.
+
+
+part of flutter_audio_query;
+
+/// Defines how query results are sent from the native side.
+enum ResultFormat {
+  /// One map for each row. It is the default format.
+  MAP,
+
+  /// A column oriented binary payload that is decoded lazily on dart side.
+  /// It is a lot smaller and faster for large libraries. Only song queries
+  /// support it at this moment, other queries ignore it.
+  COLUMNAR,
+
+  /// One map for each row, but repeated values like artist, album, composer
+  /// and artwork path are sent once in a string table and rows hold references.
+  /// Only song queries support it at this moment, other queries ignore it.
+  DICTIONARY
+}
@@ -0,0 +1,47 @@
+//The MIT License
+//
+//Copyright (C) <2019>  <Marcos Antonio Boaventura Feitoza> <scavenger.gnu@gmail.com>
+//
+//Permission is hereby granted, free of charge, to any person obtaining a copy
+//of this software and associated documentation files (the "Software"), to deal
+//in the Software without restriction, including without limitation the rights
+//to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//copies of the Software, and to permit persons to whom the Software is
+//furnished to do so, subject to the following conditions:
+//
+//The above copyright notice and this permission notice shall be included in
+//all copies or substantial portions of the Software.
+//
+//THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//THE SOFTWARE.
+
+
+part of flutter_audio_query;
+
+/// Songs that changed since a change token. See [FlutterAudioQuery.getChangesSince].
+class SongChanges {
+  /// Token to give to the next [FlutterAudioQuery.getChangesSince] call.
+  /// It can be null if the native side couldn't save it.
+  final String token;
+
+  /// True if all songs are sent in [inserted] because there was no usable
+  /// token. The app must replace its song list instead of patching it.
+  final bool reset;
+
+  /// Songs added since the token.
+  final List<SongInfo> inserted;
+
+  /// Songs changed since the token.
+  final List<SongInfo> updated;
+
+  /// Ids of the songs removed since the token.
+  final List<String> deleted;
+
+  SongChanges._(
+      this.token, this.reset, this.inserted, this.updated, this.deleted);
+}
@@ -31,17 +31,17 @@ class SongInfo extends DataModel {
   String get composer => _data['composer'];
 
   /// Returns the year of this song was created.
-  String get year => _data['year'];
+  String get year => _numberText('year');
 
   /// Returns the album track number if this song has one.
-  String get track => _data['track'];
+  String get track => _numberText('track');
 
   /// Returns a String with a number in milliseconds (ms) that is the duration of this audio file.
-  String get duration => _data['duration'];
+  String get duration => _numberText('duration');
 
   /// Returns in ms, playback position when this song was stopped.
   /// from the last time.
-  String get bookmark => _data['bookmark'];
+  String get bookmark => _numberText('bookmark');
 
   /// Returns a String with a file path to audio data file
   String get filePath => _data['_data'];
@@ -49,7 +49,7 @@ class SongInfo extends DataModel {
   String get uri => _data["uri"];
 
   /// Returns a String with the size, in bytes, of this audio file.
-  String get fileSize => _data['_size'];
+  String get fileSize => _numberText('_size');
 
   ///Returns album artwork path which current song appears.
   String get albumArtwork => _data['album_artwork'];
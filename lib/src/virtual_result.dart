@@ -0,0 +1,67 @@
+//The MIT License
+//
+//Copyright (C) <2019>  <Marcos Antonio Boaventura Feitoza> <scavenger.gnu@gmail.com>
+//
+//Permission is hereby granted, free of charge, to any person obtaining a copy
+//of this software and associated documentation files (the "Software"), to deal
+//in the Software without restriction, including without limitation the rights
+//to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//copies of the Software, and to permit persons to whom the Software is
+//furnished to do so, subject to the following conditions:
+//
+//The above copyright notice and this permission notice shall be included in
+//all copies or substantial portions of the Software.
+//
+//THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+//THE SOFTWARE.
+
+
+part of flutter_audio_query;
+
+/// Query rows that are kept in a native cursor and read in windows. Only the
+/// rows of requested windows cross the platform channel, so a list view can
+/// show a large library reading just its visible rows.
+///
+/// The native cursor is kept until [release] is called or until no window is
+/// read for the idle timeout given to the query. After that [window] throws a
+/// PlatformException with "INVALID_HANDLE" code.
+class VirtualResult<T> {
+  static const String _HANDLE_KEY = "handle";
+
+  final String _handle;
+  final List<T> Function(dynamic) _parser;
+
+  /// How many rows the query has.
+  final int length;
+
+  VirtualResult._(this._handle, this.length, this._parser);
+
+  /// Reads the rows with index from [from], inclusive, to [to], exclusive.
+  /// [to] is clipped to [length].
+  Future<List<T>> window(final int from, final int to) async {
+    assert(from != null && to != null && from >= 0 && from <= to);
+    if (_handle == null || from >= to || from >= length) return <T>[];
+
+    final dynamic data =
+        await FlutterAudioQuery.channel.invokeMethod("getWindow", {
+      _HANDLE_KEY: _handle,
+      "from": from,
+      "to": to,
+    });
+    return _parser(data);
+  }
+
+  /// Closes the native cursor of this result.
+  Future<void> release() async {
+    if (_handle == null) return;
+
+    await FlutterAudioQuery.channel.invokeMethod("releaseHandle", {
+      _HANDLE_KEY: _handle,
+    });
+  }
+}